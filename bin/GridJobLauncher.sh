@@ -2,6 +2,7 @@
 #SCRIPT_PATH=/bluearc/home/schatz/sramakri/latest/jnomics-manager/safe_bin
 SCRIPT_PATH=`dirname "$0"`
 WORKING_DIR=`echo $1 | cut -f1 -d:`
+CONF_PATH=`echo $1 | cut -f2- -d:`
 export LD_LIBRARY_PATH=${SCRIPT_PATH}/../lib/lib64
 export PATH=$SGE_O_HOME/$WORKING_DIR:$TMPDIR:$PATH
 echo $PATH
@@ -22,3 +23,7 @@ else
 fi
 cd ${dir}
 java -cp ${SCRIPT_PATH}/../conf:${classp} edu.cshl.schatz.jnomics.tools.GridJobMain $*
+status=$?
+#read by the compute server when the grid can no longer report the exit status
+echo $status > "${CONF_PATH}.exit"
+exit $status
@@ -8,6 +8,7 @@ import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
 import edu.cshl.schatz.jnomics.manager.server.JnomicsFileSystem;
 import edu.cshl.schatz.jnomics.manager.server.JnomicsFsHandle;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
@@ -26,4 +27,27 @@ public class ComputeBase implements ClientFunctionHandler {
         fsclient = JnomicsThriftClient.getFsClient(properties);
         auth = JnomicsThriftClient.getAuthentication(properties);
     }
+
+    /**
+     * Checks that the output path does not exist and every input does,
+     * using a single round trip to the data server
+     * @return true if the paths are usable, otherwise the problem is printed
+     */
+    protected boolean checkPaths(String out, List<String> inputs) throws Exception {
+        List<String> paths = new ArrayList<String>();
+        paths.add(out);
+        paths.addAll(inputs);
+        List<Boolean> exists = fsclient.existsMany(paths, auth);
+        if(exists.get(0)){
+            System.out.println("ERROR : Output directory already exists");
+            return false;
+        }
+        for(int i = 1; i < paths.size(); i++){
+            if(!exists.get(i)){
+                System.out.println("ERROR : " + paths.get(i) + " does'nt exist");
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -60,18 +60,9 @@ public class Cuffcompare extends ComputeBase {
             System.out.println("missing -out parameter");
         }else if(null == ref_gtf){
             System.out.println("missing -ref_gtf parameter");
-        }else if(!fsclient.checkFileStatus(ref_gtf, auth)){
-    		System.out.println("ERROR : " + ref_gtf + "does'nt exist");
-        }else if(fsclient.checkFileStatus(out, auth)){
-    		System.out.println("ERROR : Output directory already exists");
+        }else if(!checkPaths(out, Arrays.asList((ref_gtf + "," + in).split(",")))){
+    		return;
     	}else{
-    		List<String> input = Arrays.asList(in.split(","));
-            for(String file : input) {
-            	if(!fsclient.checkFileStatus(file, auth)){
-            		System.out.println("ERROR : " + file + " does'nt exist");
-            		return;
-            	}
-            }
             JnomicsThriftJobID jobID = client.callCuffcompare(
                     in,
                     out,
@@ -70,10 +70,8 @@ public class Cuffdiff extends ComputeBase {
 			System.out.println("missing -out parameter");
 		}else if(null == merged_gtf){
 			System.out.println("missing -merged_gtf parameter");
-		}else if(fsclient.checkFileStatus(out, auth)){
-			System.out.println("ERROR : Output directory already exists");
-		}else if(!fsclient.checkFileStatus(merged_gtf, auth)){
-			System.out.println("ERROR : Merged gtf does'nt exists");
+		}else if(!checkPaths(out, Arrays.asList(merged_gtf))){
+			return;
 		}else{
 			boolean check = false;
 			List<String> genomes = fsclient.listGenomes(auth);
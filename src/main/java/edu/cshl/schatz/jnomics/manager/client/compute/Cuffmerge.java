@@ -63,19 +63,12 @@ public class Cuffmerge extends ComputeBase {
             System.out.println("missing -in parameter");
         }else if(null == out){
             System.out.println("missing -out parameter");
-        }else if(fsclient.checkFileStatus(out, auth)){
-    		System.out.println("ERROR : Output directory already exists");
+        }else if(!checkPaths(out, Arrays.asList(in.split(",")))){
+    		return;
         }else{
         	boolean check = false;
             String clean_org = KBaseIDTranslator.translate(organism);
             List<String> genomes = fsclient.listGenomes(auth);
-            List<String> input = Arrays.asList(in.split(","));
-            for(String file : input) {
-            	if(!fsclient.checkFileStatus(file, auth)){
-            		System.out.println("ERROR : " + file + " does'nt exist");
-            		return;
-            	}
-            }
             for(String genome : genomes){
             	if(genome.equals(organism)){
             		check = true;
@@ -1,7 +1,11 @@
 package edu.cshl.schatz.jnomics.manager.client.compute;
 
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobFilter;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobPage;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobStatus;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
@@ -11,11 +15,29 @@ import java.util.Properties;
 
 public class ListJobs extends ComputeBase {
 
+    @Parameter(shortForm = "-state", longForm = "--state", description = "only jobs in this state (RUNNING,SUCCEEDED,FAILED,PREP,KILLED)")
+    public String state;
+
+    @Parameter(shortForm = "-name", longForm = "--name", description = "only jobs whose name starts with this")
+    public String name;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs, properties);
         
-        List<JnomicsThriftJobStatus> jobs = client.getAllJobs(auth);
+        List<JnomicsThriftJobStatus> jobs;
+        if(null == state && null == name){
+            jobs = client.getAllJobs(auth);
+        }else{
+            JnomicsThriftJobFilter filter = new JnomicsThriftJobFilter(state, 0, name);
+            jobs = new ArrayList<JnomicsThriftJobStatus>();
+            String cursor = "";
+            do{
+                JnomicsThriftJobPage page = client.listJobs(filter, cursor, 0, auth);
+                jobs.addAll(page.getJobs());
+                cursor = page.getCursor();
+            }while(!cursor.isEmpty());
+        }
 
         if(jobs.size() == 0){
             System.out.println("No Active Jobs.");
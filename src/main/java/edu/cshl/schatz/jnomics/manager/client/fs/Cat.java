@@ -1,8 +1,11 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftCodecHandle;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsCompression;
 
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -20,27 +23,54 @@ public class Cat extends FSBase{
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Flag(shortForm = "-merge", longForm = "--merge")
+    public boolean merge;
+
+    @Parameter(shortForm = "-glob", longForm = "--glob", description = "files to merge, default part-* (optional)")
+    public String glob;
+
+    @Parameter(shortForm = "-header", longForm = "--header", description = "prefix of header lines to keep only from the first file, e.g. @ for sam (optional)")
+    public String header;
 
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
 	super.handle(remainingArgs, properties);
 	if(remainingArgs.size() < 1 || help){
-            System.out.println("-cat <hdfs_file> ");
+            System.out.println("-cat [-merge [-glob=<pattern>] [-header=<prefix>]] <hdfs_file> ");
             return;
 	}else{
 	    String remoteFile = remainingArgs.get(0);
+            if(merge){
+                JnomicsThriftCodecHandle codecHandle = client.openMerged(remoteFile, null == glob ? "" : glob,
+                        null == header ? "" : header, codec, auth);
+                ByteBuffer buffer;
+                while((buffer = client.read(codecHandle.getHandle(),auth)).remaining() > 0){
+                    write(JnomicsCompression.decode(codecHandle.getCodec(), buffer));
+                }
+                System.out.flush();
+                client.close(codecHandle.getHandle(),auth);
+                return;
+            }
             List<JnomicsThriftFileStatus> stats  = client.listStatus(remoteFile, auth);
             if(1 != stats.size())
                 throw new Exception("Remote file does not exist or is not a single file");
 	    long remoteLen = stats.get(0).getLength();
-	    JnomicsThriftHandle handle = client.open(remoteFile, auth);
+	    JnomicsThriftCodecHandle codecHandle = client.openWithCodec(remoteFile, codec, auth);
+	    JnomicsThriftHandle handle = codecHandle.getHandle();
 	    
 	    ByteBuffer buffer;
             while((buffer = client.read(handle,auth)).remaining() > 0){
-                System.out.write(buffer.array());
+                write(JnomicsCompression.decode(codecHandle.getCodec(), buffer));
             }
             
             client.close(handle,auth);
 	}
     }
+
+    /**
+     * Writes the buffer's remaining bytes, which may be a slice of a larger array
+     */
+    private static void write(ByteBuffer buffer){
+        System.out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
 }
@@ -2,9 +2,13 @@ package edu.cshl.schatz.jnomics.manager.client.fs;
 
 import edu.cshl.schatz.jnomics.manager.api.Authentication;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileChecksum;
 import edu.cshl.schatz.jnomics.manager.client.ClientFunctionHandler;
 import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsChecksums;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsCompression;
 
+import java.io.File;
 import java.util.List;
 import java.util.Properties;
 
@@ -15,6 +19,8 @@ public class FSBase implements ClientFunctionHandler {
 
     protected Authentication auth;
     protected JnomicsData.Client client;
+    /**codec to ask for when transferring file contents, empty for none**/
+    protected String codec;
     
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
@@ -23,6 +29,24 @@ public class FSBase implements ClientFunctionHandler {
         String password = properties.getProperty("password");
         String token = properties.getProperty("token");
         auth = new Authentication(username,password,token);
+        codec = JnomicsCompression.supported(properties.getProperty("compression", JnomicsCompression.SNAPPY));
 
     }
+
+    /**
+     * Compares the hdfs checksum of remote with one computed over local
+     * @throws Exception if they differ
+     */
+    protected void verifyChecksum(String remote, File local) throws Exception {
+        JnomicsThriftFileChecksum checksum = client.getFileChecksum(remote, auth);
+        if(!JnomicsChecksums.isSupported(checksum)){
+            if(0 != local.length())
+                System.out.println("Not verified, unsupported checksum: " + checksum.getAlgorithm());
+            return;
+        }
+        String localMd5 = JnomicsChecksums.md5Md5Crc32(local, checksum.getBytes_per_crc(), checksum.getCrc_per_block());
+        if(!localMd5.equals(checksum.getMd5()))
+            throw new Exception("Checksum mismatch between " + local + " and " + remote);
+        System.out.println("Verified " + checksum.getAlgorithm() + " " + localMd5);
+    }
 }
@@ -1,61 +1,277 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
+import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftCodecHandle;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsCompression;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * User: james
  */
 public class Get extends FSBase{
 
+    /**matches the largest read the data server will return in one call**/
+    private static final int RANGE_SIZE = 2000000;
+    private static final String PROGRESS_SUFFIX = ".jnomics-get";
+
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Parameter(shortForm = "-streams", longForm = "--streams", description = "number of parallel connections to download with (optional)")
+    public String streams;
+
+    @Flag(shortForm = "-resume", longForm = "--resume")
+    public boolean resume;
+
+    @Flag(shortForm = "-noverify", longForm = "--noverify")
+    public boolean noverify;
+
+    @Flag(shortForm = "-merge", longForm = "--merge")
+    public boolean merge;
+
+    @Parameter(shortForm = "-glob", longForm = "--glob", description = "files to merge, default part-* (optional)")
+    public String glob;
+
+    @Parameter(shortForm = "-header", longForm = "--header", description = "prefix of header lines to keep only from the first file, e.g. @ for sam (optional)")
+    public String header;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs, properties);
 
         if(remainingArgs.size() < 1 || help){
-            System.out.println("-get <hdfs_file> [local_destination_name]");
+            System.out.println("-get [-streams=<n>] [-resume] [-noverify] <hdfs_file> [local_destination_name]");
+            System.out.println("-get -merge [-glob=<pattern>] [-header=<prefix>] <hdfs_dir> [local_destination_name]");
             return;
         }else{
             String remoteFile = remainingArgs.get(0);
+            if(merge){
+                mergedGet(remoteFile, new File(remainingArgs.size() == 2 ? remainingArgs.get(1) : new File(remoteFile).getName()));
+                return;
+            }
             List<JnomicsThriftFileStatus> stats  = client.listStatus(remoteFile, auth);
             if(1 != stats.size())
                 throw new Exception("Remote file does not exist or is not a single file");
 
             long remoteLen = stats.get(0).getLength();
 
-            JnomicsThriftHandle handle = client.open(remoteFile, auth);
+            JnomicsThriftCodecHandle codecHandle = client.openWithCodec(remoteFile, codec, auth);
+            JnomicsThriftHandle handle = codecHandle.getHandle();
+            String handleCodec = codecHandle.getCodec();
             String local = new File(remoteFile).getName();
             if(remainingArgs.size() == 2)
                 local = remainingArgs.get(1);
 
             File localFile = new File(local);
-            if(localFile.exists()){
+            if(localFile.exists() && !resume){
                 client.close(handle,auth);
                 throw new Exception("Local File: " + localFile + " already exists");
             }
+
+            int numStreams = null == streams ? 1 : Integer.parseInt(streams);
+            if(numStreams > 1 || resume){
+                try{
+                    parallelGet(handle, handleCodec, localFile, remoteLen, Math.max(1, numStreams), properties);
+                }finally{
+                    client.close(handle,auth);
+                }
+                if(!noverify)
+                    verifyChecksum(remoteFile, localFile);
+                return;
+            }
+
             OutputStream localOut = new FileOutputStream(localFile);
 
             ByteBuffer buffer;
             long totalTransfer = 0;
             while((buffer = client.read(handle,auth)).remaining() > 0){
-                localOut.write(buffer.array());
+                buffer = JnomicsCompression.decode(handleCodec, buffer);
+                localOut.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
                 totalTransfer += buffer.remaining();
                 System.out.print("\r"+totalTransfer+"/"+remoteLen+" " + ((float)totalTransfer)/remoteLen * 100 + "%");
             }
             System.out.println();
             localOut.close();
             client.close(handle,auth);
+            if(!noverify)
+                verifyChecksum(remoteFile, localFile);
+        }
+    }
+
+    /**
+     * Streams the files of remoteDir into one local file. The merged data has
+     * no hdfs checksum of its own, so it is not verified
+     */
+    private void mergedGet(String remoteDir, File localFile) throws Exception {
+        if(localFile.exists())
+            throw new Exception("Local File: " + localFile + " already exists");
+        JnomicsThriftCodecHandle codecHandle = client.openMerged(remoteDir, null == glob ? "" : glob,
+                null == header ? "" : header, codec, auth);
+        JnomicsThriftHandle handle = codecHandle.getHandle();
+        OutputStream localOut = new FileOutputStream(localFile);
+        try{
+            ByteBuffer buffer;
+            long totalTransfer = 0;
+            while((buffer = client.read(handle,auth)).remaining() > 0){
+                buffer = JnomicsCompression.decode(codecHandle.getCodec(), buffer);
+                localOut.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                totalTransfer += buffer.remaining();
+                System.out.print("\r"+totalTransfer);
+            }
+            System.out.println();
+        }finally{
+            localOut.close();
+            client.close(handle,auth);
+        }
+    }
+
+    /**
+     * Splits the remote file into ranges and fetches them with pread over
+     * numStreams connections, writing each range at its offset in the local file.
+     *
+     * Finished ranges are recorded in a progress file next to the local file,
+     * which is removed once the download completes. With -resume those ranges
+     * are skipped; if there is no progress file the local file is taken to be
+     * the start of an interrupted single stream download.
+     */
+    private void parallelGet(final JnomicsThriftHandle handle, final String handleCodec, File localFile, final long remoteLen,
+                             int numStreams, final Properties properties) throws Exception {
+        File progressFile = new File(localFile.getPath() + PROGRESS_SUFFIX);
+        final Set<Long> finished = resume ? readProgress(progressFile, localFile, remoteLen) : new HashSet<Long>();
+        if(!finished.isEmpty())
+            System.out.println("Resuming download, " + finished.size() + " of "
+                    + (remoteLen + RANGE_SIZE - 1) / RANGE_SIZE + " ranges already fetched");
+
+        RandomAccessFile raf = new RandomAccessFile(localFile, "rw");
+        raf.setLength(remoteLen);
+        final FileChannel channel = raf.getChannel();
+        final PrintWriter progress = new PrintWriter(new FileWriter(progressFile));
+        progress.println(remoteLen);
+        for(Long start : finished){
+            progress.println(start);
+        }
+        progress.flush();
+        final AtomicLong nextRange = new AtomicLong(0);
+        final AtomicLong totalTransfer = new AtomicLong(0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(numStreams);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for(int i = 0; i < numStreams; i++){
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    JnomicsData.Client rangeClient = JnomicsThriftClient.getFsClient(properties);
+                    try{
+                        long start;
+                        while((start = nextRange.getAndAdd(RANGE_SIZE)) < remoteLen){
+                            int len = (int)Math.min(RANGE_SIZE, remoteLen - start);
+                            if(!finished.contains(start)){
+                                int got = 0;
+                                while(got < len){
+                                    ByteBuffer buffer = JnomicsCompression.decode(handleCodec,
+                                            rangeClient.pread(handle, start + got, len - got, auth));
+                                    if(0 == buffer.remaining())
+                                        throw new IOException("Unexpected end of remote file at " + (start + got));
+                                    int amt = buffer.remaining();
+                                    long pos = start + got;
+                                    while(buffer.hasRemaining()){
+                                        pos += channel.write(buffer, pos);
+                                    }
+                                    got += amt;
+                                }
+                                synchronized (progress){
+                                    progress.println(start);
+                                    progress.flush();
+                                }
+                            }
+                            long total = totalTransfer.addAndGet(len);
+                            synchronized (totalTransfer){
+                                System.out.print("\r"+total+"/"+remoteLen+" " + ((float)total)/remoteLen * 100 + "%");
+                            }
+                        }
+                    }finally{
+                        rangeClient.getInputProtocol().getTransport().close();
+                    }
+                    return null;
+                }
+            }));
+        }
+        pool.shutdown();
+
+        try{
+            for(Future<Void> result : results){
+                result.get();
+            }
+        }catch(ExecutionException e){
+            pool.shutdownNow();
+            throw new Exception("Download interrupted, rerun with -resume to continue: " + e.getCause().toString());
+        }finally{
+            progress.close();
+            channel.close();
+            raf.close();
+        }
+        progressFile.delete();
+        System.out.println();
+    }
+
+    /**
+     * @return start offsets of the ranges already in localFile
+     */
+    private static Set<Long> readProgress(File progressFile, File localFile, long remoteLen) throws IOException {
+        Set<Long> finished = new HashSet<Long>();
+        if(!progressFile.exists()){
+            //an interrupted single stream download, every range before its end is complete
+            long localLen = Math.min(localFile.length(), remoteLen);
+            for(long start = 0; start < localLen; start += RANGE_SIZE){
+                if(start + Math.min(RANGE_SIZE, remoteLen - start) <= localLen)
+                    finished.add(start);
+            }
+            return finished;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(progressFile));
+        try{
+            String line = reader.readLine();
+            if(null == line || Long.parseLong(line.trim()) != remoteLen){
+                System.out.println("Remote file has changed, restarting download");
+                return finished;
+            }
+            while(null != (line = reader.readLine())){
+                try{
+                    finished.add(Long.parseLong(line.trim()));
+                }catch(NumberFormatException e){
+                    //partially written last line
+                }
+            }
+        }finally{
+            reader.close();
         }
+        return finished;
     }
 }
@@ -2,6 +2,7 @@ package edu.cshl.schatz.jnomics.manager.client.fs;
 
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsStatusPager;
 
 import java.util.List;
 import java.util.Properties;
@@ -14,12 +15,15 @@ public class Ls extends FSBase {
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Flag(shortForm = "-R", longForm = "--recursive")
+    public boolean recursive;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs,properties);
 
         if(help){
-            System.out.println("-ls [directory]");
+            System.out.println("-ls [-R] [directory]");
             return;
         }
 
@@ -28,17 +32,21 @@ public class Ls extends FSBase {
             dest = remainingArgs.get(0);
         }
 
-        List<JnomicsThriftFileStatus> stats= client.listStatus(dest, auth);
-        System.out.println("Found "+ stats.size() + " items");
-        for(JnomicsThriftFileStatus status: stats){
-            System.out.printf("%s\t%2d\t%s\t%s\t%14d\t%s\n",
-                    status.getPermission(),
-                    status.getReplication(),
-                    status.getOwner(),
-                    status.getGroup(),
-                    status.getLength(),
-                    status.getPath());
+        JnomicsStatusPager pager = new JnomicsStatusPager(client, dest, recursive, auth);
+        long count = 0;
+        while(pager.hasNext()){
+            for(JnomicsThriftFileStatus status: pager.nextPage()){
+                System.out.printf("%s\t%2d\t%s\t%s\t%14d\t%s\n",
+                        status.getPermission(),
+                        status.getReplication(),
+                        status.getOwner(),
+                        status.getGroup(),
+                        status.getLength(),
+                        status.getPath());
+                count++;
+            }
         }
+        System.out.println("Found "+ count + " items");
     }
 
 }
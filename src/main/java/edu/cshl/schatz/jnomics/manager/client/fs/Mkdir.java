@@ -18,13 +18,16 @@ public class Mkdir extends FSBase{
         super.handle(remainingArgs, properties);
 
         if(remainingArgs.size() < 1 || help){
-            System.out.println("fs -mkdir <directory>");
+            System.out.println("fs -mkdir <directory> [directory ...]");
             return;
         }
-        if(client.mkdir(remainingArgs.get(0), auth)){
-            System.out.println("Mkdir: " + remainingArgs.get(0));
-        }else{
-            System.out.println("Failed to mkdir: " + remainingArgs.get(0));
+        List<Boolean> status = client.mkdirMany(remainingArgs, auth);
+        for(int i = 0; i < remainingArgs.size(); i++){
+            if(status.get(i)){
+                System.out.println("Mkdir: " + remainingArgs.get(i));
+            }else{
+                System.out.println("Failed to mkdir: " + remainingArgs.get(i));
+            }
         }
     }
 }
@@ -1,29 +1,58 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
+import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftCodecHandle;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftUploadState;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsCompression;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 /**
  * User: james
  */
 public class Put extends FSBase{
 
+    private static final int PART_SIZE = 8000000;
+
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Parameter(shortForm = "-streams", longForm = "--streams", description = "number of parallel connections to upload with (optional)")
+    public String streams;
+
+    @Flag(shortForm = "-resume", longForm = "--resume")
+    public boolean resume;
+
+    @Flag(shortForm = "-noverify", longForm = "--noverify")
+    public boolean noverify;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs, properties);
 
         if(remainingArgs.size() < 1 || help){
-            System.out.println("-put <local_file> [destination]");
+            System.out.println("-put [-streams=<n>] [-resume] [-noverify] <local_file> [destination]");
             return;
         }else{
             File inFile = new File(remainingArgs.get(0));
@@ -39,21 +68,111 @@ public class Put extends FSBase{
             if(0 == dest.compareTo("."))
                 dest = inFile.getName();
 
-            JnomicsThriftHandle handle = client.create(dest, auth);
+            int numStreams = null == streams ? 1 : Integer.parseInt(streams);
+            if(numStreams > 1 || resume){
+                parallelPut(inFile, dest, Math.max(1, numStreams), properties);
+                if(!noverify)
+                    verifyChecksum(dest, inFile);
+                return;
+            }
+
             InputStream localStream = new FileInputStream(inFile);
 
             byte[] buffer = new byte[1000000];
-            int amt;
+            int amt = localStream.read(buffer);
+            String wantCodec = codec;
+            if(amt > 0 && JnomicsCompression.isCompressedFormat(buffer, 0, amt))
+                wantCodec = JnomicsCompression.NONE;
+            JnomicsThriftCodecHandle codecHandle = client.createWithCodec(dest, wantCodec, auth);
+            JnomicsThriftHandle handle = codecHandle.getHandle();
+            byte[][] scratch = new byte[1][];
+
             long total=0;
             long fsize = inFile.length();
-            while(-1 != (amt = localStream.read(buffer))){
+            while(-1 != amt){
                 total += amt;
                 System.out.print("\r"+total+"/"+fsize + " " + ((float)total)/fsize * 100+"%");
-                client.write(handle, ByteBuffer.wrap(buffer, 0, amt), auth);
+                client.write(handle, JnomicsCompression.encode(codecHandle.getCodec(), buffer, 0, amt, scratch), auth);
+                amt = localStream.read(buffer);
             }
             System.out.println();
             localStream.close();
             client.close(handle,auth);
+            if(!noverify)
+                verifyChecksum(dest, inFile);
+        }
+    }
+
+    /**
+     * Uploads the file as checksummed parts over numStreams connections,
+     * the server composes the parts into dest once all have arrived.
+     * With -resume, parts the server already holds with a matching
+     * checksum are not sent again
+     */
+    private void parallelPut(final File inFile, String dest, int numStreams, final Properties properties) throws Exception {
+        final long fsize = inFile.length();
+        final int numParts = Math.max(1, (int)((fsize + PART_SIZE - 1) / PART_SIZE));
+        JnomicsThriftUploadState state;
+        if(resume){
+            state = client.resumeUpload(dest, auth);
+            if(!state.getParts().isEmpty())
+                System.out.println("Resuming upload, " + state.getCommitted() + " bytes already stored");
+        }else{
+            state = new JnomicsThriftUploadState(client.beginUpload(dest, auth), new HashMap<Integer, Long>(), 0);
+        }
+        final JnomicsThriftHandle upload = state.getUpload();
+        final Map<Integer,Long> stored = state.getParts();
+        final AtomicInteger nextPart = new AtomicInteger(0);
+        final AtomicLong totalTransfer = new AtomicLong(0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(numStreams);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for(int i = 0; i < numStreams; i++){
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    JnomicsData.Client partClient = JnomicsThriftClient.getFsClient(properties);
+                    RandomAccessFile localFile = new RandomAccessFile(inFile, "r");
+                    byte[] buffer = new byte[PART_SIZE];
+                    CRC32 crc = new CRC32();
+                    try{
+                        int partNo;
+                        while((partNo = nextPart.getAndIncrement()) < numParts){
+                            long start = (long)partNo * PART_SIZE;
+                            int len = (int)Math.min(PART_SIZE, fsize - start);
+                            localFile.seek(start);
+                            localFile.readFully(buffer, 0, len);
+                            crc.reset();
+                            crc.update(buffer, 0, len);
+                            Long storedCrc = stored.get(partNo);
+                            if(null == storedCrc || storedCrc != crc.getValue())
+                                partClient.uploadPart(upload, partNo, ByteBuffer.wrap(buffer, 0, len), crc.getValue(), auth);
+                            long total = totalTransfer.addAndGet(len);
+                            synchronized (totalTransfer){
+                                System.out.print("\r"+total+"/"+fsize + " " + ((float)total)/fsize * 100+"%");
+                            }
+                        }
+                    }finally{
+                        localFile.close();
+                        partClient.getInputProtocol().getTransport().close();
+                    }
+                    return null;
+                }
+            }));
+        }
+        pool.shutdown();
+
+        try{
+            for(Future<Void> result : results){
+                result.get();
+            }
+        }catch(ExecutionException e){
+            pool.shutdownNow();
+            throw new Exception("Upload interrupted, the parts sent so far are kept, rerun with -resume to continue: "
+                    + e.getCause().toString());
         }
+        System.out.println();
+        if(!client.completeUpload(upload, numParts, auth))
+            throw new Exception("Failed to create " + dest);
     }
 }
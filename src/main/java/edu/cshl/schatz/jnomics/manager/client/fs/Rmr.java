@@ -20,13 +20,12 @@ public class Rmr extends FSBase{
             System.out.println("-rm <directory>");
         }else{
             boolean recurse = true;
-            boolean status;
-            for(String file : remainingArgs){
-                status = client.remove(file,recurse,auth);
-                if(status)
-                    System.out.println("Deleted: " + file);
+            List<Boolean> status = client.removeMany(remainingArgs,recurse,auth);
+            for(int i = 0; i < remainingArgs.size(); i++){
+                if(status.get(i))
+                    System.out.println("Deleted: " + remainingArgs.get(i));
                 else
-                    System.out.println("Failed Deleting: " + file);
+                    System.out.println("Failed Deleting: " + remainingArgs.get(i));
             }
         }
     }
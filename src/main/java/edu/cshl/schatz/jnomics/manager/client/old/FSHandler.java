@@ -138,7 +138,7 @@ public class FSHandler extends HandlerBase {
                 ByteBuffer buffer;
                 long totalTransfer = 0;
                 while((buffer = client.read(handle,auth)).remaining() > 0){
-                    localOut.write(buffer.array());
+                    localOut.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
                     totalTransfer += buffer.remaining();
                     System.out.print("\r"+totalTransfer+"/"+remoteLen+" " + ((float)totalTransfer)/remoteLen * 100 + "%");
                 }
@@ -28,9 +28,15 @@ public class JnomicsThriftClient {
         return new Authentication(username,password,token);
     }
     
-    public static JnomicsData.Client getFsClient(Properties properties) throws Exception, TTransportException {
-        String thriftDataHost = properties.getProperty("data-server-host");
-        int thriftDataPort = Integer.parseInt(properties.getProperty("data-server-port"));
+    /**
+     * @param prefix data or compute
+     * @return an open SSL transport to the server, framed if the server runs
+     * the selector engine behind an SSL terminating proxy (prefix-server-framed=true)
+     */
+    private static TTransport getTransport(Properties properties, String prefix) throws Exception {
+        String host = properties.getProperty(prefix + "-server-host");
+        int port = Integer.parseInt(properties.getProperty(prefix + "-server-port"));
+
         String trustStore = System.getProperty("jkclient_truststore");
         if(null == trustStore || !new File(trustStore).exists()){
             throw new Exception("Cannot find trust store: "+ trustStore);
@@ -39,7 +45,14 @@ public class JnomicsThriftClient {
         TSSLTransportFactory.TSSLTransportParameters params =
                 new TSSLTransportFactory.TSSLTransportParameters();
         params.setTrustStore(trustStore,"kbasekeystore");
-        TTransport transport = TSSLTransportFactory.getClientSocket(thriftDataHost,thriftDataPort,10000,params);
+        TTransport transport = TSSLTransportFactory.getClientSocket(host,port,10000,params);
+        if(Boolean.parseBoolean(properties.getProperty(prefix + "-server-framed", "false")))
+            return new TFramedTransport(transport);
+        return transport;
+    }
+
+    public static JnomicsData.Client getFsClient(Properties properties) throws Exception, TTransportException {
+        TTransport transport = getTransport(properties, "data");
 
         TProtocol protocol = new TBinaryProtocol(transport);
         JnomicsData.Client client = new JnomicsData.Client(protocol);
@@ -48,17 +61,7 @@ public class JnomicsThriftClient {
     }
 
     public static JnomicsCompute.Client getComputeClient(Properties properties) throws Exception, TTransportException{
-        String thriftComputeHost = properties.getProperty("compute-server-host");
-        int thriftComputePort = Integer.parseInt(properties.getProperty("compute-server-port"));
-        String trustStore = System.getProperty("jkclient_truststore");
-        if(null == trustStore || !new File(trustStore).exists()){
-            throw new Exception("Cannot find trust store: "+ trustStore);
-        }
-
-        TSSLTransportFactory.TSSLTransportParameters params =
-                new TSSLTransportFactory.TSSLTransportParameters();
-        params.setTrustStore(trustStore,"kbasekeystore");
-        TTransport thriftTransport = TSSLTransportFactory.getClientSocket(thriftComputeHost,thriftComputePort,10000,params);
+        TTransport thriftTransport = getTransport(properties, "compute");
 
         TProtocol protocol = new TBinaryProtocol(thriftTransport);
         JnomicsCompute.Client client = new JnomicsCompute.Client(protocol);
@@ -7,6 +7,9 @@ import org.apache.thrift.TException;
  * User: james
  */
 public class JnomicsThriftPoller {
+
+    /**longest wait per call, kept under the client's 10 second socket timeout**/
+    private static final long WAIT_TIMEOUT = 8000;
     
     public static int pollForCompletion(JnomicsThriftJobID id, Authentication auth, JnomicsCompute.Client client)
             throws JnomicsThriftException, TException {
@@ -14,20 +17,17 @@ public class JnomicsThriftPoller {
         System.out.println("Polling Job " + id.getJob_id());
         JnomicsThriftJobStatus status = client.getJobStatus(id, auth);
 
+        int lastMap = -1, lastReduce = -1;
         while(!status.isComplete()){
-            System.out.println("Map: " +
-                    (int)(status.getMapProgress() * 100) +
-                    "% Reduce: " +
-                    (int)(status.getReduceProgress() * 100) +
-                    "%"
-            );
-            try {
-                Thread.sleep(1000 * 60 * 2);
-            } catch (InterruptedException e) {
-                throw new JnomicsThriftException(e.toString());
+            int map = (int)(status.getMapProgress() * 100);
+            int reduce = (int)(status.getReduceProgress() * 100);
+            if(map != lastMap || reduce != lastReduce){
+                System.out.println("Map: " + map + "% Reduce: " + reduce + "%");
+                lastMap = map;
+                lastReduce = reduce;
             }
-            status = client.getJobStatus(id, auth);
-
+            status = client.waitForJobChange(id, status.getState(),
+                    (status.getMapProgress() + status.getReduceProgress()) / 2, WAIT_TIMEOUT, auth);
         }
 
         if(status.getRunning_state() != 2)
@@ -0,0 +1,99 @@
+package edu.cshl.schatz.jnomics.manager.common;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileChecksum;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Computes the checksum hdfs reports for a file over a local copy, so a
+ * transfer can be verified end to end against JnomicsData.getFileChecksum.
+ *
+ * hdfs keeps a CRC32 for every bytes_per_crc bytes of a block. A block's
+ * MD5 is taken over those CRCs, big endian, and the file checksum is the
+ * MD5 of the block MD5s.
+ */
+public class JnomicsChecksums {
+
+    /**
+     * @return true if checksum is one this class can reproduce locally
+     */
+    public static boolean isSupported(JnomicsThriftFileChecksum checksum){
+        return checksum.getBytes_per_crc() > 0 && checksum.getAlgorithm().equals(
+                "MD5-of-" + checksum.getCrc_per_block() + "MD5-of-" + checksum.getBytes_per_crc() + "CRC32");
+    }
+
+    /**
+     * @param bytesPerCrc bytes covered by each crc
+     * @param crcPerBlock crcs per block, 0 if the whole file is one block
+     * @return hex encoded MD5 of MD5 of CRC32 checksum of file
+     */
+    public static String md5Md5Crc32(File file, int bytesPerCrc, long crcPerBlock) throws IOException {
+        MessageDigest fileMd5 = md5();
+        MessageDigest blockMd5 = md5();
+        long blockCrcs = 0;
+        CRC32 crc = new CRC32();
+        byte[] crcBytes = new byte[4];
+        byte[] buffer = new byte[bytesPerCrc * Math.max(1, 1048576 / bytesPerCrc)];
+
+        InputStream in = new FileInputStream(file);
+        try{
+            int amt;
+            while(0 < (amt = readFully(in, buffer))){
+                for(int off = 0; off < amt; off += bytesPerCrc){
+                    crc.reset();
+                    crc.update(buffer, off, Math.min(bytesPerCrc, amt - off));
+                    long value = crc.getValue();
+                    crcBytes[0] = (byte)(value >>> 24);
+                    crcBytes[1] = (byte)(value >>> 16);
+                    crcBytes[2] = (byte)(value >>> 8);
+                    crcBytes[3] = (byte)value;
+                    blockMd5.update(crcBytes);
+                    if(++blockCrcs == crcPerBlock){
+                        fileMd5.update(blockMd5.digest());
+                        blockCrcs = 0;
+                    }
+                }
+            }
+        }finally{
+            in.close();
+        }
+        if(blockCrcs > 0)
+            fileMd5.update(blockMd5.digest());
+        return toHex(fileMd5.digest());
+    }
+
+    /**
+     * Fills buffer unless the stream ends first, so crc boundaries line up with the file
+     * @return bytes read, 0 at the end of the stream
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int amt;
+        while(total < buffer.length && -1 != (amt = in.read(buffer, total, buffer.length - total))){
+            total += amt;
+        }
+        return total;
+    }
+
+    private static MessageDigest md5(){
+        try{
+            return MessageDigest.getInstance("MD5");
+        }catch(NoSuchAlgorithmException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes){
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for(byte b : bytes){
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
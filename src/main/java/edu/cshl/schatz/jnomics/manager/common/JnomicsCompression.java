@@ -0,0 +1,123 @@
+package edu.cshl.schatz.jnomics.manager.common;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Chunk compression for JnomicsData handles opened with a codec. Each
+ * read/write payload on such a handle is compressed as a whole, so either
+ * side can decode a chunk without any other state.
+ */
+public class JnomicsCompression {
+
+    public static final String NONE = "";
+    public static final String SNAPPY = "snappy";
+
+    /**largest chunk either side sends, the data server's transfer buffer**/
+    public static final int MAX_CHUNK = 2000000;
+
+    /**number of leading bytes needed by isCompressedFormat**/
+    public static final int MAGIC_LENGTH = 6;
+
+    private static final boolean snappyAvailable;
+
+    static {
+        boolean available;
+        try{
+            Snappy.compress(new byte[1]);
+            available = true;
+        }catch(Throwable t){
+            //native library could not be loaded on this platform
+            available = false;
+        }
+        snappyAvailable = available;
+    }
+
+    /**
+     * @return codec if it can be used here, otherwise NONE
+     */
+    public static String supported(String codec){
+        if(SNAPPY.equals(codec) && snappyAvailable)
+            return SNAPPY;
+        return NONE;
+    }
+
+    /**
+     * @return true if the bytes start with the magic number of a compressed
+     * format (gzip, which includes bam and bgzf, bzip2, xz, zip or cram)
+     */
+    public static boolean isCompressedFormat(byte[] buf, int off, int len){
+        if(len >= 2 && (buf[off] & 0xff) == 0x1f && (buf[off + 1] & 0xff) == 0x8b)
+            return true;
+        if(len >= 3 && buf[off] == 'B' && buf[off + 1] == 'Z' && buf[off + 2] == 'h')
+            return true;
+        if(len >= 4 && buf[off] == 'P' && buf[off + 1] == 'K' && buf[off + 2] == 3 && buf[off + 3] == 4)
+            return true;
+        if(len >= 4 && buf[off] == 'C' && buf[off + 1] == 'R' && buf[off + 2] == 'A' && buf[off + 3] == 'M')
+            return true;
+        if(len >= 6 && (buf[off] & 0xff) == 0xfd && buf[off + 1] == '7' && buf[off + 2] == 'z'
+                && buf[off + 3] == 'X' && buf[off + 4] == 'Z' && buf[off + 5] == 0)
+            return true;
+        return false;
+    }
+
+    /**
+     * @param scratch reused output buffer, replaced if it is too small
+     * @return compressed bytes, backed by scratch[0]
+     */
+    public static ByteBuffer compress(byte[] buf, int off, int len, byte[][] scratch) throws IOException {
+        int max = Snappy.maxCompressedLength(len);
+        if(null == scratch[0] || scratch[0].length < max)
+            scratch[0] = new byte[max];
+        int n = Snappy.compress(buf, off, len, scratch[0], 0);
+        return ByteBuffer.wrap(scratch[0], 0, n);
+    }
+
+    /**
+     * @return data as sent on a handle with the given codec
+     */
+    public static ByteBuffer encode(String codec, byte[] buf, int off, int len, byte[][] scratch) throws IOException {
+        if(!SNAPPY.equals(codec) || 0 == len)
+            return ByteBuffer.wrap(buf, off, len);
+        return compress(buf, off, len, scratch);
+    }
+
+    /**
+     * @return data received on a handle with the given codec, decompressed
+     */
+    public static ByteBuffer decode(String codec, ByteBuffer data) throws IOException {
+        if(!SNAPPY.equals(codec) || 0 == data.remaining())
+            return data;
+        return uncompress(data);
+    }
+
+    /**
+     * @return the decompressed chunk in a new buffer
+     * @throws IOException if the chunk is not valid snappy data or would
+     * decompress to more than MAX_CHUNK bytes; the length is the sender's
+     * claim, so it is checked before anything is allocated
+     */
+    public static ByteBuffer uncompress(ByteBuffer data) throws IOException {
+        byte[] in;
+        int off;
+        int len = data.remaining();
+        if(data.hasArray()){
+            in = data.array();
+            off = data.arrayOffset() + data.position();
+        }else{
+            in = new byte[len];
+            data.duplicate().get(in);
+            off = 0;
+        }
+        if(!Snappy.isValidCompressedBuffer(in, off, len))
+            throw new IOException("Invalid compressed chunk");
+        int outLen = Snappy.uncompressedLength(in, off, len);
+        if(outLen < 0 || outLen > MAX_CHUNK)
+            throw new IOException("Compressed chunk claims " + outLen + " bytes, at most " + MAX_CHUNK + " are allowed");
+        byte[] out = new byte[outLen];
+        Snappy.uncompress(in, off, len, out, 0);
+        return ByteBuffer.wrap(out);
+    }
+}
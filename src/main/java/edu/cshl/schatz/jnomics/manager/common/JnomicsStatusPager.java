@@ -0,0 +1,52 @@
+package edu.cshl.schatz.jnomics.manager.common;
+
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftStatusPage;
+import org.apache.thrift.TException;
+
+import java.util.List;
+
+/**
+ * Walks a listStatusPage listing one page at a time, so a large
+ * directory is never held in a single response
+ */
+public class JnomicsStatusPager {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final JnomicsData.Client client;
+    private final Authentication auth;
+    private final String path;
+    private final boolean recursive;
+    private final int pageSize;
+
+    private String cursor = null;
+
+    public JnomicsStatusPager(JnomicsData.Client client, String path, boolean recursive, Authentication auth){
+        this(client, path, recursive, DEFAULT_PAGE_SIZE, auth);
+    }
+
+    public JnomicsStatusPager(JnomicsData.Client client, String path, boolean recursive, int pageSize, Authentication auth){
+        this.client = client;
+        this.path = path;
+        this.recursive = recursive;
+        this.pageSize = pageSize;
+        this.auth = auth;
+    }
+
+    public boolean hasNext(){
+        return null == cursor || !cursor.isEmpty();
+    }
+
+    /**
+     * @return the next page of statuses, may be empty on the last page
+     */
+    public List<JnomicsThriftFileStatus> nextPage() throws TException {
+        JnomicsThriftStatusPage page = client.listStatusPage(path, null == cursor ? "" : cursor,
+                pageSize, recursive, auth);
+        cursor = page.getCursor();
+        return page.getStatuses();
+    }
+}
@@ -4,6 +4,7 @@ import edu.cshl.schatz.jnomics.manager.api.Authentication;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsStatusPager;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.fs.permission.FsPermission;
@@ -14,6 +15,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -213,19 +215,18 @@ public class JnomicsThriftFileSystem extends FileSystem {
 
     @Override
     public FileStatus[] listStatus(Path path) throws IOException {
-        List<JnomicsThriftFileStatus> statuses;
+        JnomicsStatusPager pager = new JnomicsStatusPager(client, path.toString(), false, auth);
+        List<FileStatus> stats = new ArrayList<FileStatus>();
         try {
-            statuses = client.listStatus(path.toString(), auth);
+            while(pager.hasNext()){
+                for(JnomicsThriftFileStatus s: pager.nextPage()){
+                    stats.add(new FileStatus(s.length,s.isDir,s.replication,s.block_size,s.mod_time,new Path(s.path)));
+                }
+            }
         } catch (Exception e){
             throw new IOException(e);
         }
-        
-        FileStatus[] statArr = new FileStatus[statuses.size()];
-        int i=0;
-        for(JnomicsThriftFileStatus s: statuses){
-            statArr[i++] = new FileStatus(s.length,s.isDir,s.replication,s.block_size,s.mod_time,new Path(s.path));
-        }
-        return statArr;
+        return stats.toArray(new FileStatus[stats.size()]);
     }
 
     @Override
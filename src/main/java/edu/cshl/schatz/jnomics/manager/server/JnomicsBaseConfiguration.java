@@ -0,0 +1,135 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * The hadoop configuration every job and job client starts from.
+ *
+ * The site files named by core-site-xml, mapred-site-xml and hdfs-site-xml
+ * are parsed once into a snapshot that is never handed out or modified.
+ * Callers get copies, which clone the already parsed properties instead of
+ * reading the xml again. A background thread checks the files every
+ * conf-reload-interval seconds and swaps in a new snapshot when one of them
+ * changes, so site changes are picked up without a restart.
+ */
+public class JnomicsBaseConfiguration implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsBaseConfiguration.class);
+
+    private static final String[] SITE_FILES = {"core-site-xml", "mapred-site-xml", "hdfs-site-xml"};
+
+    private static JnomicsBaseConfiguration instance;
+
+    private final Properties properties;
+    private final long reloadInterval;
+    private final File[] siteFiles;
+    private long[] modified;
+    private volatile Configuration snapshot;
+
+    public static synchronized JnomicsBaseConfiguration getInstance(Properties properties){
+        if(null == instance){
+            instance = new JnomicsBaseConfiguration(properties);
+            instance.reload();
+            if(instance.reloadInterval > 0){
+                Thread t = new Thread(instance);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+        return instance;
+    }
+
+    private JnomicsBaseConfiguration(Properties properties){
+        this.properties = properties;
+        reloadInterval = 1000 * Long.parseLong(properties.getProperty("conf-reload-interval", "30"));
+        siteFiles = new File[SITE_FILES.length];
+        for(int i = 0; i < SITE_FILES.length; i++){
+            siteFiles[i] = new File(properties.getProperty(SITE_FILES[i]));
+        }
+        modified = new long[siteFiles.length];
+    }
+
+    /**
+     * @return a copy of the current snapshot, free to modify
+     */
+    public Configuration newConf(){
+        return new Configuration(snapshot);
+    }
+
+    /**
+     * @return value of name in the current snapshot
+     */
+    public String get(String name){
+        return snapshot.get(name);
+    }
+
+    private long[] getModified(){
+        long[] times = new long[siteFiles.length];
+        for(int i = 0; i < siteFiles.length; i++){
+            times[i] = siteFiles[i].lastModified();
+        }
+        return times;
+    }
+
+    private synchronized void reload(){
+        long[] times = getModified();
+        //a JobConf registers the mapred default resources first, otherwise doing so
+        //later would drop the parsed properties of every live configuration
+        Configuration conf = new JobConf();
+
+        //if you don't give Path's it will not load the files
+        for(File f : siteFiles){
+            conf.addResource(new Path(f.getPath()));
+        }
+        conf.set("fs.default.name", properties.getProperty("hdfs-default-name"));
+        conf.set("mapred.jar", properties.getProperty("jnomics-jar-path"));
+        conf.set("grid-script-path", properties.getProperty("grid-script-path"));
+        conf.set("grid-job-slots", properties.getProperty("grid-job-slots"));
+        //parse the resources now rather than on the first get from a copy
+        conf.size();
+
+        snapshot = conf;
+        modified = times;
+    }
+
+    /**
+     * Reloads the snapshot if a site file has changed since it was taken
+     * @return true if it was reloaded
+     */
+    public synchronized boolean reloadIfChanged(){
+        long[] times = getModified();
+        for(int i = 0; i < times.length; i++){
+            if(times[i] != modified[i]){
+                try{
+                    reload();
+                }catch(RuntimeException e){
+                    //a half written file, keep the old snapshot and try again next time
+                    log.error("Failed to reload site configuration: " + e.toString());
+                    return false;
+                }
+                log.info("Reloaded site configuration, " + siteFiles[i] + " changed");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        while(true){
+            try {
+                Thread.sleep(reloadInterval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            reloadIfChanged();
+        }
+    }
+}
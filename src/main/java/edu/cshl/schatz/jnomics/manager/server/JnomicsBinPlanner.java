@@ -0,0 +1,135 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftGenomeInfo;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Plans the genome bin width and reducer count of a samtools snp job from
+ * the reference's contig lengths and the alignments it will run on.
+ *
+ * The reducer count follows the input size, snp-mb-per-reducer MB of
+ * alignments per reducer. The genome is cut into snp-bins-per-reducer fixed
+ * width bins per reducer, no narrower than snp-min-binsize. Without contig
+ * lengths in the catalog the bins are 1Mb wide.
+ */
+public class JnomicsBinPlanner {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsBinPlanner.class);
+
+    private static final long DEFAULT_BINSIZE = 1000000;
+
+    /**
+     * Bin width and reducers for one job
+     */
+    public static class Plan {
+        private final int reduceTasks;
+        private final long binsize;
+
+        private Plan(int reduceTasks, long binsize){
+            this.reduceTasks = reduceTasks;
+            this.binsize = binsize;
+        }
+
+        public int getReduceTasks(){
+            return reduceTasks;
+        }
+
+        /**
+         * @return width of a genome bin, passed to the job as genome_binsize
+         */
+        public long getBinsize(){
+            return binsize;
+        }
+    }
+
+    private final Properties properties;
+    private final JnomicsGenomeCatalog genomeCatalog;
+    private final long bytesPerReducer;
+    private final int minReducers;
+    private final int maxReducers;
+    private final int binsPerReducer;
+    private final long minBinsize;
+
+    public JnomicsBinPlanner(Properties properties, JnomicsGenomeCatalog genomeCatalog){
+        this.properties = properties;
+        this.genomeCatalog = genomeCatalog;
+        bytesPerReducer = 1024L * 1024 * Long.parseLong(properties.getProperty("snp-mb-per-reducer", "256"));
+        minReducers = Integer.parseInt(properties.getProperty("snp-min-reducers", "1"));
+        maxReducers = Integer.parseInt(properties.getProperty("snp-max-reducers", "1024"));
+        binsPerReducer = Integer.parseInt(properties.getProperty("snp-bins-per-reducer", "4"));
+        minBinsize = Long.parseLong(properties.getProperty("snp-min-binsize", "10000"));
+    }
+
+    /**
+     * @param inPath the job's input, listed as the user
+     */
+    public Plan plan(String username, String organism, String inPath) throws JnomicsThriftException {
+        FileSystem fs = null;
+        List<FileStatus> files;
+        try{
+            fs = JnomicsFileSystem.getFileSystem(properties, username);
+            files = listInput(fs, new Path(inPath));
+        }catch(Exception e){
+            throw new JnomicsThriftException(e.toString());
+        }finally{
+            if(null != fs){
+                try{
+                    JnomicsFileSystem.closeFileSystem(fs);
+                }catch(Exception e){
+                }
+            }
+        }
+
+        long inputBytes = 0;
+        for(FileStatus file : files)
+            inputBytes += file.getLen();
+        int reducers = (int) Math.min(maxReducers, Math.max(minReducers,
+                (inputBytes + bytesPerReducer - 1) / bytesPerReducer));
+
+        JnomicsThriftGenomeInfo genome = genomeCatalog.getGenome(organism);
+        Map<String, Long> contigs = null == genome ? null : genome.getContigs();
+        long binsize = DEFAULT_BINSIZE;
+        if(null == contigs || contigs.isEmpty())
+            log.info("No contig lengths for " + organism + ", using " + DEFAULT_BINSIZE + " wide bins");
+        else
+            binsize = binsize(contigs, reducers * binsPerReducer);
+        log.info("Planned " + reducers + " reducers for " + inputBytes + " bytes of " + organism + " alignments");
+        return new Plan(reducers, binsize);
+    }
+
+    private static List<FileStatus> listInput(FileSystem fs, Path inPath) throws Exception {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        FileStatus[] matches = fs.globStatus(inPath);
+        if(null == matches)
+            return files;
+        for(FileStatus match : matches){
+            FileStatus[] children = match.isDir() ? fs.listStatus(match.getPath()) : new FileStatus[]{match};
+            for(FileStatus child : children){
+                String name = child.getPath().getName();
+                if(!child.isDir() && !name.startsWith("_") && !name.startsWith("."))
+                    files.add(child);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return width of binCount fixed width bins covering the genome
+     */
+    private long binsize(Map<String, Long> contigs, int binCount){
+        long genomeLength = 0;
+        for(long length : contigs.values())
+            genomeLength += length;
+        return Math.max(minBinsize, (genomeLength + binCount - 1) / binCount);
+    }
+}
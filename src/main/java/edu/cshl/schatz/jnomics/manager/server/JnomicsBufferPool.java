@@ -0,0 +1,43 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of fixed size byte arrays shared between handles so transfer
+ * buffers are not allocated for every chunk
+ */
+public class JnomicsBufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> free;
+
+    /**
+     * @param bufferSize size of each pooled buffer
+     * @param maxPooled maximum number of idle buffers kept for reuse
+     */
+    public JnomicsBufferPool(int bufferSize, int maxPooled){
+        this.bufferSize = bufferSize;
+        free = new ArrayBlockingQueue<byte[]>(maxPooled);
+    }
+
+    /**
+     * @param minSize number of bytes the caller needs
+     * @return a pooled buffer, or a new array if minSize is larger than the pool's buffers
+     */
+    public byte[] take(int minSize){
+        if(minSize > bufferSize)
+            return new byte[minSize];
+        byte[] buf = free.poll();
+        return null == buf ? new byte[bufferSize] : buf;
+    }
+
+    public void give(byte[] buf){
+        if(buf.length == bufferSize)
+            free.offer(buf);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
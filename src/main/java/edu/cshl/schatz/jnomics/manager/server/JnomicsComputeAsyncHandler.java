@@ -0,0 +1,78 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsCompute;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobID;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobStatus;
+import org.apache.thrift.async.AsyncMethodCallback;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves the compute api to the selector engine's async processor.
+ *
+ * Every call but waitForJobChange runs the synchronous handler method of
+ * the same name on the worker thread that read the request, and answers
+ * through the call's callback. waitForJobChange goes to the handler's
+ * callback version, which parks the call without a thread until a job
+ * status tracker poll sees a change or the call's deadline passes. Thrift methods are never overloaded, so the
+ * synchronous method is found by name and new api calls need no change here.
+ */
+public class JnomicsComputeAsyncHandler implements InvocationHandler {
+
+    private final JnomicsComputeHandler handler;
+    private final Map<String, Method> methods = new HashMap<String, Method>();
+
+    /**
+     * @return handler's api as an AsyncIface, for JnomicsCompute.AsyncProcessor
+     */
+    public static JnomicsCompute.AsyncIface create(JnomicsComputeHandler handler){
+        return (JnomicsCompute.AsyncIface) Proxy.newProxyInstance(JnomicsCompute.AsyncIface.class.getClassLoader(),
+                new Class[]{JnomicsCompute.AsyncIface.class}, new JnomicsComputeAsyncHandler(handler));
+    }
+
+    private JnomicsComputeAsyncHandler(JnomicsComputeHandler handler){
+        this.handler = handler;
+        for(Method method : JnomicsCompute.Iface.class.getMethods()){
+            methods.put(method.getName(), method);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if(Object.class.equals(method.getDeclaringClass()))
+            return method.invoke(this, args);
+
+        AsyncMethodCallback<Object> callback = (AsyncMethodCallback<Object>) args[args.length - 1];
+        if("waitForJobChange".equals(method.getName())){
+            handler.waitForJobChange((JnomicsThriftJobID) args[0], (String) args[1], (Double) args[2], (Long) args[3],
+                    (Authentication) args[4], (AsyncMethodCallback<JnomicsThriftJobStatus>) (Object) callback);
+            return null;
+        }
+
+        Method sync = methods.get(method.getName());
+        if(null == sync){
+            callback.onError(new UnsupportedOperationException(method.getName()));
+            return null;
+        }
+        Object result;
+        try{
+            result = sync.invoke(handler, Arrays.copyOf(args, args.length - 1));
+        }catch(InvocationTargetException e){
+            Throwable cause = e.getCause();
+            if(!(cause instanceof Exception))
+                throw cause;
+            callback.onError((Exception) cause);
+            return null;
+        }
+        callback.onComplete(result);
+        return null;
+    }
+}
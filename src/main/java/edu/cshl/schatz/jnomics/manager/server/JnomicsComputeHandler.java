@@ -17,9 +17,9 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobID;
 import org.apache.hadoop.mapred.JobStatus;
 import org.apache.hadoop.mapred.RunningJob;
-import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
 import org.ggf.drmaa.DrmaaException;
 import org.slf4j.LoggerFactory;
 
@@ -47,9 +47,22 @@ import java.net.URL;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: james
@@ -58,31 +71,106 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 
 	private final org.slf4j.Logger logger = LoggerFactory.getLogger(JnomicsComputeHandler.class);
 
-	private Properties properties;
+	/**recorded in the job registry in place of credential values**/
+	private static final String MASKED = "********";
 
-	private static final int NUM_REDUCE_TASKS = 1024;
+	private Properties properties;
 
 	private JnomicsServiceAuthentication authenticator;
 
+	private JnomicsGenomeCatalog genomeCatalog;
+
+	private JnomicsBinPlanner binPlanner;
+
+	private JnomicsSubmissionQueue submissions;
+
+	private JnomicsBaseConfiguration baseConf;
+
+	private JnomicsJobStatusTracker jobTracker;
+
+	private JnomicsGridSessionManager gridSessions;
+
+	private final AtomicInteger watchers = new AtomicInteger(0);
+
+	private int watchMax;
+
+	private long watchMaxTimeout;
+
+	/**waitForJobChange calls of the selector engine waiting for a change or their deadline, they hold no thread**/
+	private final ConcurrentLinkedQueue<JobWatch> parkedWatches = new ConcurrentLinkedQueue<JobWatch>();
+
+	/**checks parked watches after each poll and answers each at its deadline**/
+	private ScheduledExecutorService watchPool;
+
+	private static class JobWatch {
+		private final String username;
+		private final String jobId;
+		private final String lastKnownState;
+		private final double lastProgress;
+		private final long deadline;
+		private final AsyncMethodCallback<JnomicsThriftJobStatus> callback;
+		private final AtomicBoolean answered = new AtomicBoolean(false);
+		//answers the watch at its deadline, whether or not the tracker has polled
+		private volatile ScheduledFuture<?> timer;
 
-	public JnomicsComputeHandler(Properties systemProperties){
+		private JobWatch(String username, String jobId, String lastKnownState, double lastProgress, long deadline,
+				AsyncMethodCallback<JnomicsThriftJobStatus> callback){
+			this.username = username;
+			this.jobId = jobId;
+			this.lastKnownState = lastKnownState;
+			this.lastProgress = lastProgress;
+			this.deadline = deadline;
+			this.callback = callback;
+		}
+	}
+
+	private JnomicsJobRegistry registry;
+
+	private int recordPageMax;
+
+	private JnomicsPipelineEngine pipelines;
+
+	private static final String SNP_PIPELINE = "snp";
+
+	private static final String RNASEQ_PIPELINE = "rnaseq";
+
+	public JnomicsComputeHandler(Properties systemProperties) throws IOException {
 		properties = systemProperties;
 		authenticator = new JnomicsServiceAuthentication();
+		genomeCatalog = JnomicsGenomeCatalog.getInstance(properties);
+		binPlanner = new JnomicsBinPlanner(properties, genomeCatalog);
+		submissions = JnomicsSubmissionQueue.getInstance(properties);
+		baseConf = JnomicsBaseConfiguration.getInstance(properties);
+		jobTracker = JnomicsJobStatusTracker.getInstance(properties);
+		gridSessions = JnomicsGridSessionManager.getInstance(properties);
+		registry = JnomicsJobRegistry.getInstance(properties);
+		recordPageMax = Integer.parseInt(properties.getProperty("job-list-page-max", "1000"));
+		watchMax = Integer.parseInt(properties.getProperty("compute-watch-max", "64"));
+		watchMaxTimeout = 1000 * Long.parseLong(properties.getProperty("compute-watch-max-timeout", "60"));
+		watchPool = Executors.newScheduledThreadPool(Integer.parseInt(properties.getProperty("compute-watch-threads", "2")));
+		jobTracker.addPollListener(new Runnable() {
+			@Override
+			public void run() {
+				recheckWatches();
+			}
+		});
+		pipelines = JnomicsPipelineEngine.getInstance(properties);
+		pipelines.define(SNP_PIPELINE, new JnomicsPipelineEngine.Definition() {
+			@Override
+			public List<JnomicsPipelineEngine.Stage> stages(String username, Map<String, String> params) {
+				return snpPipelineStages(username, params);
+			}
+		});
+		pipelines.define(RNASEQ_PIPELINE, new JnomicsPipelineEngine.Definition() {
+			@Override
+			public List<JnomicsPipelineEngine.Stage> stages(String username, Map<String, String> params) {
+				return rnaSeqPipelineStages(username, params);
+			}
+		});
 	}
 
 	private Configuration getGenericConf(){
-		Configuration conf = new Configuration();
-
-		//if you don't give Path's it will not load the files
-		conf.addResource(new Path(properties.getProperty("core-site-xml")));
-		conf.addResource(new Path(properties.getProperty("mapred-site-xml")));
-		conf.addResource(new Path(properties.getProperty("hdfs-site-xml")));
-		conf.set("fs.default.name", properties.getProperty("hdfs-default-name"));
-		conf.set("mapred.jar", properties.getProperty("jnomics-jar-path"));
-		conf.set("grid-script-path", properties.getProperty("grid-script-path"));
-		conf.set("grid-job-slots", properties.getProperty("grid-job-slots"));
-		//	conf.set("shock-url", properties.getProperty("shock-url"));
-		return conf;
+		return baseConf.newConf();
 	}
 
 
@@ -93,6 +181,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		if(null == (username = authenticator.authenticate(auth))){
 			throw new JnomicsThriftException("Permission Denied");
 		}
+		genomeCatalog.checkArchive(organism, "bowtie");
 
 		logger.info("Starting Bowtie2 process for user " + username);
 		JnomicsJobBuilder builder = new JnomicsJobBuilder(getGenericConf(),Bowtie2Map.class);
@@ -122,6 +211,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		if(null == (username = authenticator.authenticate(auth))){
 			throw new JnomicsThriftException("Permission Denied");
 		}
+		genomeCatalog.checkArchive(organism, "bwa");
 		logger.info("Starting Bwa process for user " + username);
 
 		JnomicsJobBuilder builder = new JnomicsJobBuilder(getGenericConf(), BWAMap.class);
@@ -153,9 +243,6 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		String jobname =username+"-fastqtopege-"+uuid;
 		//String jobname =username+"-tophat-"+inPath.substring(inPath.lastIndexOf('/') + 1).replaceAll("[./,]", "_");
 
-		Configuration conf = null;
-		OutputStream out = null;
-		String jobid = null;	
 
 
 		JnomicsGridJobBuilder builder = new JnomicsGridJobBuilder(getGenericConf());
@@ -165,26 +252,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setJobName(jobname);
 		logger.info("conf properties are set");
 
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-			jobid = conf.get("grid_jobId");
-			//scontact = conf.get("grid_session");
-			//sout = new FileOutputStream(System.getProperty("user.home")+ "/" + jobid +".xml");
-			//sout.write(scontact.getBytes(),0,scontact.length());
-		}catch(Exception e){
-			throw new JnomicsThriftException(e.toString());
-		}finally{
-			try {
-				out.close();
-				//	sout.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));	
+		return launchGridJobAs(username, jobname, builder);
 	}
 
 	public JnomicsThriftJobID alignTophat(String ref_genome,String inPath ,String gtffile,String outPath, String alignOpts, String workingdir, Authentication auth)throws TException, JnomicsThriftException{	
@@ -192,16 +260,20 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		if(null == (username = authenticator.authenticate(auth))){
 			throw new JnomicsThriftException("Permission Denied");
 		}
+		genomeCatalog.checkArchive(ref_genome, "bowtie");
 		String uuid = UUID.randomUUID().toString();
 		String jobname =username+"-tophat-"+uuid;
 		//String jobname =username+"-tophat-"+inPath.substring(inPath.lastIndexOf('/') + 1).replaceAll("[./,]", "_");
+		return launchGridJobAs(username, jobname,
+				tophatBuilder(jobname, ref_genome, inPath, gtffile, outPath, alignOpts, workingdir));
+	}
+
+	private JnomicsGridJobBuilder tophatBuilder(String jobname, String ref_genome, String inPath, String gtffile,
+			String outPath, String alignOpts, String workingdir){
 		String tophatbinary =  properties.getProperty("hdfs-index-repo")+"/tophat_v2.tar.gz";
 		String refGenome = properties.getProperty("hdfs-index-repo")+"/"+ref_genome+"_bowtie.tar.gz";
 		String tophatopts = alignOpts.replaceAll(","," ").toString();
 
-		Configuration conf = null;
-		OutputStream out = null;
-		String jobid = null;	
 		logger.info("tophat_binary is "+ tophatbinary );
 		logger.info("jobname - " + jobname);
 		logger.info("alignopts - " + tophatopts);
@@ -217,27 +289,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setParam("tophat_gtf",gtffile)
 		.setParam("tophat_binary",tophatbinary);
 		logger.info("conf properties are set");
-
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-			jobid = conf.get("grid_jobId");
-			//scontact = conf.get("grid_session");
-			//sout = new FileOutputStream(System.getProperty("user.home")+ "/" + jobid +".xml");
-			//sout.write(scontact.getBytes(),0,scontact.length());
-		}catch(Exception e){
-			throw new JnomicsThriftException(e.toString());
-		}finally{
-			try {
-				out.close();
-				//	sout.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));	
+		return builder;
 	}
 
 	public JnomicsThriftJobID callCufflinks(String inPath, String outPath,String ref_gtf,
@@ -249,10 +301,14 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		}
 		String uuid = UUID.randomUUID().toString();
 		String jobname = username+"-cufflinks-"+uuid;
+		return launchGridJobAs(username, jobname,
+				cufflinksBuilder(jobname, inPath, outPath, ref_gtf, alignOpts, workingdir));
+	}
+
+	private JnomicsGridJobBuilder cufflinksBuilder(String jobname, String inPath, String outPath, String ref_gtf,
+			String alignOpts, String workingdir){
 		String cufflinks_binary =  properties.getProperty("hdfs-index-repo")+"/cufflinks_v2.tar.gz";
 		String cuffopts = alignOpts.replaceAll(","," ").toString();
-		Configuration conf = null;
-		OutputStream out = null;
 
 		logger.info("cufflinks_binary -" + cufflinks_binary);
 		logger.info("jobname - " + jobname);
@@ -270,21 +326,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setJobName(jobname)
 		.setParam("cufflinks_binary",cufflinks_binary);
 		logger.info("conf properties are set");
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-		}catch(Exception e){
-			throw new JnomicsThriftException(e.toString());
-		}finally{
-			try {
-				out.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));	
+		return builder;
 	}
 
 	public JnomicsThriftJobID callCuffmerge(String inPath,String ref_genome, String outPath, 
@@ -294,9 +336,20 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		if(null == (username = authenticator.authenticate(auth))){
 			throw new JnomicsThriftException("Permission Denied");
 		}
+		genomeCatalog.checkArchive(ref_genome, "bowtie");
 		String uuid = UUID.randomUUID().toString();
-		String cufflinks_binary =  properties.getProperty("hdfs-index-repo")+"/cufflinks_v2.tar.gz";
 		String jobname = username+"-cuffmerge-"+uuid;
+		return launchGridJobAs(username, jobname,
+				cuffmergeBuilder(username, jobname, inPath, ref_genome, outPath, alignOpts, gtf_file, workingdir));
+	}
+
+	/**
+	 * Also writes the list of gtf files cuffmerge reads to the user's home directory
+	 * @param inPath comma separated gtf files to merge
+	 */
+	private JnomicsGridJobBuilder cuffmergeBuilder(String username, String jobname, String inPath, String ref_genome,
+			String outPath, String alignOpts, String gtf_file, String workingdir) throws JnomicsThriftException {
+		String cufflinks_binary =  properties.getProperty("hdfs-index-repo")+"/cufflinks_v2.tar.gz";
 		String refGenome = properties.getProperty("hdfs-index-repo")+"/"+ref_genome+"_bowtie.tar.gz"; 
 		String cuffopts = alignOpts.replaceAll(","," ").toString();
 		Path filenamepath = new Path("cuffmerge-"+jobname+".txt");
@@ -308,8 +361,6 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		logger.info("alignOpts - " + cuffopts);
 		logger.info("working dir - " + workingdir);
 
-		Configuration conf = null;
-		OutputStream out = null;
 		FileSystem infs = null;
 		FSDataOutputStream outStream = null;
 		try{
@@ -329,6 +380,12 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
+			try {
+				if(null != infs)
+					JnomicsFileSystem.closeFileSystem(infs);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
 		}
 
 		JnomicsGridJobBuilder builder = new JnomicsGridJobBuilder(getGenericConf());
@@ -343,22 +400,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setParam("cufflinks_binary",cufflinks_binary);
 
 		logger.info("conf properties are set");
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-		}catch(Exception e){
-			throw new JnomicsThriftException(e.toString());
-		}finally{
-			try {
-				out.close();
-				//				inout.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));	
+		return builder;
 	}
 
 	public JnomicsThriftJobID callCuffdiff(String infiles, String outPath, String ref_genome,
@@ -369,9 +411,20 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		if(null == (username = authenticator.authenticate(auth))){
 			throw new JnomicsThriftException("Permission Denied");
 		}
+		genomeCatalog.checkArchive(ref_genome, "bowtie");
 		String uuid = UUID.randomUUID().toString();
-		String cufflinks_binary =  properties.getProperty("hdfs-index-repo")+"/cufflinks_v2.tar.gz";
 		String jobname = username+"-cuffdiff-"+uuid;
+		return launchGridJobAs(username, jobname, cuffdiffBuilder(jobname, infiles, outPath, ref_genome, assemblyOpts,
+				condn_labels, merged_gtf, withReplicates, workingdir));
+	}
+
+	/**
+	 * @param infiles one bam file per condition, comma separated, or with replicates the
+	 * comma separated bam files of each condition separated by semicolons
+	 */
+	private JnomicsGridJobBuilder cuffdiffBuilder(String jobname, String infiles, String outPath, String ref_genome,
+			String assemblyOpts, String condn_labels, String merged_gtf, String withReplicates, String workingdir){
+		String cufflinks_binary =  properties.getProperty("hdfs-index-repo")+"/cufflinks_v2.tar.gz";
 		String refGenome = properties.getProperty("hdfs-index-repo")+"/"+ref_genome+"_bowtie.tar.gz"; 
 		String cuffopts = assemblyOpts.replaceAll(","," ").toString();
 		
@@ -385,8 +438,6 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		logger.info("withReplicates - " +  withReplicates);
 		logger.info("working dir - " + workingdir);
 
-		Configuration conf = null;
-		OutputStream out = null;
 
 		JnomicsGridJobBuilder builder = new JnomicsGridJobBuilder(getGenericConf());
 		builder.setParam("input_files", infiles)
@@ -401,21 +452,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setParam("withReplicates", withReplicates)
 		.setParam("cufflinks_binary",cufflinks_binary);
 
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-		}catch(Exception e){
-			throw new JnomicsThriftException(e.toString());
-		}finally{
-			try {
-				out.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));	
+		return builder;
 	}
 
 	public JnomicsThriftJobID callCuffcompare(String inPath, String outPath, 
@@ -438,8 +475,6 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		logger.info("alignOpts " + cuffopts);
 		logger.info("working dir is " + workingdir);
 
-		Configuration conf = null;
-		OutputStream out = null;	
 		FileSystem infs = null;
 		FSDataOutputStream outStream = null;
 		try{
@@ -459,6 +494,12 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
+			try {
+				if(null != infs)
+					JnomicsFileSystem.closeFileSystem(infs);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
 		}
 
 		logger.info("cufflinks_binary is" + properties.getProperty("hdfs-index-repo")+"/cufflinks_v2.tar.gz");
@@ -473,21 +514,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setParam("cufflinks_binary",cufflinks_binary);
 		logger.info("Conf properties are set");
 
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-		}catch(Exception e){
-			throw new JnomicsThriftException(e.toString());
-		}finally{
-			try {
-				out.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));	
+		return launchGridJobAs(username, jobname, builder);
 	}
 
 	@Override
@@ -496,10 +523,6 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		if(null == (username = authenticator.authenticate(auth))){
 			throw new JnomicsThriftException("Permission Denied");
 		}
-		AuthToken oauth;
-		FileSystem fs = null;
-		Configuration conf = null;
-		OutputStream out = null;
 
 		logger.info("Inside shock client read" );
 		String uuid = UUID.randomUUID().toString();
@@ -514,22 +537,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setParam("shock-token",etoken)
 		.setParam("http-proxy",properties.getProperty("http-proxy"));
 		logger.info("Conf properties are set");
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new JnomicsThriftException(e.toString());
-		}finally{
-			try {
-				out.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));
+		return launchGridJobAs(username, jobname, builder);
 	}
 
 	@Override
@@ -539,8 +547,6 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 			throw new JnomicsThriftException("Permission Denied");
 		}
 		logger.info("Opening file: " + hdfsPath + " for user: " + username);
-		Configuration conf = null;
-		OutputStream out = null;
 		String uuid = UUID.randomUUID().toString();
 		String jobname = username+"-write-"+uuid;
 		byte[] btoken = auth.token.getBytes();
@@ -552,22 +558,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setParam("shock-token",etoken)
 		.setParam("http-proxy",properties.getProperty("http-proxy"));
 		logger.info("Conf properties are set");
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-		}catch(Exception e){
-			logger.error(e.toString());
-			throw new JnomicsThriftException(e.getMessage());
-		}finally{
-			try {
-				out.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));	
+		return launchGridJobAs(username, jobname, builder);
 	}
 
 	public JnomicsThriftJobID workspaceUpload(String filename,String genome_id,String desc ,String title,String srcDate, String onto_term_id, 
@@ -582,8 +573,6 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 			throw new JnomicsThriftException("Permission Denied");
 		}
 		
-		Configuration conf = null;
-		OutputStream out = null;
 		String uuid = UUID.randomUUID().toString();
 		String jobname = username+"-wsupload-"+uuid;
 		String kbaseid = null;
@@ -621,22 +610,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setParam("shock_url",shock_url)
 		.setParam("grid_working_dir", workingdir);
 		logger.info("Conf properties are set");
-		try{
-			conf = builder.getJobConf();
-			out = new FileOutputStream(System.getProperty("user.home")+ "/" + jobname +".xml");
-			conf.writeXml(out);
-			builder.LaunchGridJob(conf);
-		}catch(Exception e){
-			logger.error(e.toString());
-			throw new JnomicsThriftException(e.getMessage());
-		}finally{
-			try {
-				out.close();
-			} catch (Exception e) {
-				throw new JnomicsThriftException(e.toString());
-			}
-		}
-		return new JnomicsThriftJobID(conf.get("grid_jobId"));	
+		return launchGridJobAs(username, jobname, builder);
 	}
 	public JnomicsThriftJobID ShockBatchWrite(List<String> inPath ,String outPath, Authentication auth)throws TException, JnomicsThriftException{	
 		String username;
@@ -715,6 +689,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		if(null == (username = authenticator.authenticate(auth))){
 			throw new JnomicsThriftException("Permission Denied");
 		}
+		genomeCatalog.checkArchive(organism, "samtools");
 		logger.info("Running samtools pipeline for user: "+ username);
 
 		JnomicsJobBuilder builder = new JnomicsJobBuilder(getGenericConf(), SamtoolsMap.class, SamtoolsReduce.class);
@@ -726,19 +701,29 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		.setParam("samtools_binary","samtools/samtools")
 		.setParam("bcftools_binary","bcftools/bcftools")
 		.setParam("reference_fa","starchive/"+organism+".fa")
-		.setParam("genome_binsize","1000000")
-		.setReduceTasks(NUM_REDUCE_TASKS)
 		.setJobName(username+"-snp-"+inPath);
 
+		//planned before queueing, so the queue weighs the job by its reducers;
+		//planning only lists the input
+		setBins(builder, binPlanner.plan(username, organism, inPath));
+
 		Configuration conf = null;
 		try{
 			conf = builder.getJobConf();
-		}catch (Exception e){
+		}catch(Exception e){
 			throw new JnomicsThriftException(e.toString());
 		}
 		return launchJobAs(username, conf);
 	}
 
+	/**
+	 * Sets the samtools job's reducers and genome bin width from the plan
+	 */
+	private static void setBins(JnomicsJobBuilder builder, JnomicsBinPlanner.Plan plan){
+		builder.setParam("genome_binsize", String.valueOf(plan.getBinsize()))
+		.setReduceTasks(plan.getReduceTasks());
+	}
+
 	@Override
 	public JnomicsThriftJobStatus getJobStatus(final JnomicsThriftJobID jobID, final Authentication auth)
 			throws TException, JnomicsThriftException {
@@ -747,13 +732,46 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 			throw new JnomicsThriftException("Permission Denied");
 		}
 		logger.info("Getting job status for user "+ username);
+		return lookupJobStatus(jobID.getJob_id(), username, false);
+	}
+
+	/**
+	 * Status of a hadoop job, grid job or queued submission
+	 * @param grid true if jobId may be a grid job, otherwise it must be a hadoop job
+	 */
+	private JnomicsThriftJobStatus lookupJobStatus(String jobId, final String username, boolean grid)
+			throws JnomicsThriftException {
+		if(JnomicsSubmissionQueue.isTrackingId(jobId)){
+			JnomicsThriftSubmission submission = getOwnSubmission(jobId, username);
+			if(!JnomicsSubmissionQueue.SUBMITTED.equals(submission.getState()))
+				return unsubmittedStatus(submission);
+			jobId = submission.getJob_id();
+		}
+		if(JnomicsPipelineEngine.isPipelineId(jobId))
+			return pipelineJobStatus(getOwnPipeline(jobId, username));
 
+		final JobID hadoopId;
+		try{
+			hadoopId = JobID.forName(jobId);
+		}catch(IllegalArgumentException e){
+			if(!grid)
+				throw new JnomicsThriftException(e.toString());
+			String state = gridSessions.getState(jobId, username);
+			boolean complete = state.startsWith("DONE") || state.startsWith("FAILED");
+			return new JnomicsThriftJobStatus(jobId, username, null, complete, 0, 0, null, 0, 0, null, state, 0);
+		}
+
+		JnomicsThriftJobStatus tracked = jobTracker.get(username, jobId);
+		if(null != tracked)
+			return tracked;
+
+		//submitted since the tracker's last poll
 		return new JobClientRunner<JnomicsThriftJobStatus>(username,
-				new Configuration(),properties){
+				getGenericConf(),properties){
 			@Override
 			public JnomicsThriftJobStatus jobClientTask() throws Exception {
 
-				RunningJob job = getJobClient().getJob(JobID.forName(jobID.getJob_id()));
+				RunningJob job = getJobClient().getJob(hadoopId);
 				return new JnomicsThriftJobStatus(job.getID().toString(),
 						username,
 						null,
@@ -762,10 +780,172 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 						0,
 						null,
 						job.mapProgress(),
-						job.reduceProgress());
+						job.reduceProgress(),
+						job.getJobName(),
+						JobStatus.getJobRunState(job.getJobState()),
+						0);
 			}
 		}.run();
 	}
+
+	/**
+	 * @return status of a pipeline as a job, its progress being the share of stages finished
+	 */
+	private static JnomicsThriftJobStatus pipelineJobStatus(JnomicsThriftPipelineStatus pipeline){
+		int finished = 0;
+		for(JnomicsThriftPipelineStage stage : pipeline.getStages()){
+			if(0 != stage.getFinish_time())
+				finished++;
+		}
+		float progress = pipeline.getStages().isEmpty() ? 0 : (float) finished / pipeline.getStages().size();
+		boolean complete = !JnomicsPipelineEngine.RUNNING.equals(pipeline.getState());
+		int runState = !complete ? JobStatus.RUNNING
+				: JnomicsPipelineEngine.SUCCEEDED.equals(pipeline.getState()) ? JobStatus.SUCCEEDED : JobStatus.FAILED;
+		return new JnomicsThriftJobStatus(pipeline.getPipeline_id(), pipeline.getUsername(), pipeline.getError(),
+				complete, runState, pipeline.getCreate_time(), null, progress, progress, pipeline.getType() + "-pipeline",
+				pipeline.getState(), 0);
+	}
+
+	@Override
+	public JnomicsThriftJobStatus waitForJobChange(JnomicsThriftJobID jobID, String lastKnownState, double lastProgress,
+			long timeoutMs, Authentication auth) throws JnomicsThriftException, TException {
+		String username;
+		if(null == (username = authenticator.authenticate(auth))){
+			throw new JnomicsThriftException("Permission Denied");
+		}
+		long deadline = System.currentTimeMillis() + Math.max(0, Math.min(timeoutMs, watchMaxTimeout));
+		//past the limit, answer straight away instead of tying up another thread
+		boolean park = watchers.incrementAndGet() <= watchMax;
+		try{
+			while(true){
+				JnomicsThriftJobStatus status = park
+						? changedJobStatus(jobID.getJob_id(), username, lastKnownState, lastProgress, deadline)
+						: lookupJobStatus(jobID.getJob_id(), username, true);
+				if(null != status)
+					return status;
+				jobTracker.awaitChange(deadline);
+			}
+		}catch(InterruptedException e){
+			throw new JnomicsThriftException(e.toString());
+		}finally{
+			watchers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * waitForJobChange for the selector engine's async processor. The call
+	 * holds no thread while it waits: it is parked, checked again on the
+	 * watch pool after each job status tracker poll, and answered through
+	 * callback. A timer answers it at its deadline even if a poll is late
+	 */
+	public void waitForJobChange(JnomicsThriftJobID jobID, String lastKnownState, double lastProgress,
+			long timeoutMs, Authentication auth, AsyncMethodCallback<JnomicsThriftJobStatus> callback){
+		try{
+			String username;
+			if(null == (username = authenticator.authenticate(auth))){
+				throw new JnomicsThriftException("Permission Denied");
+			}
+			if(watchers.incrementAndGet() > watchMax){
+				watchers.decrementAndGet();
+				callback.onComplete(lookupJobStatus(jobID.getJob_id(), username, true));
+				return;
+			}
+			long deadline = System.currentTimeMillis() + Math.max(0, Math.min(timeoutMs, watchMaxTimeout));
+			checkWatch(new JobWatch(username, jobID.getJob_id(), lastKnownState, lastProgress, deadline, callback));
+		}catch(Exception e){
+			callback.onError(e);
+		}
+	}
+
+	/**
+	 * @return the job's status if it differs from what the client last saw, the
+	 * job is complete or the deadline has passed, null to keep waiting
+	 */
+	private JnomicsThriftJobStatus changedJobStatus(String jobId, String username, String lastKnownState,
+			double lastProgress, long deadline) throws JnomicsThriftException {
+		JnomicsThriftJobStatus status = lookupJobStatus(jobId, username, true);
+		double progress = (status.getMapProgress() + status.getReduceProgress()) / 2;
+		if(status.isComplete() || !status.getState().equals(lastKnownState)
+				|| Math.abs(progress - lastProgress) > 1e-6 || System.currentTimeMillis() >= deadline)
+			return status;
+		return null;
+	}
+
+	/**
+	 * Answers the watch if its job has changed, parks it until the next poll or its deadline otherwise
+	 */
+	private void checkWatch(final JobWatch watch){
+		if(watch.answered.get())
+			return;
+		JnomicsThriftJobStatus status;
+		try{
+			status = changedJobStatus(watch.jobId, watch.username, watch.lastKnownState, watch.lastProgress,
+					watch.deadline);
+		}catch(Exception e){
+			answerWatch(watch, null, e);
+			return;
+		}
+		if(null != status){
+			answerWatch(watch, status, null);
+			return;
+		}
+		//set before the watch is parked, so only the first check schedules it
+		if(null == watch.timer){
+			watch.timer = watchPool.schedule(new Runnable() {
+				@Override
+				public void run() {
+					expireWatch(watch);
+				}
+			}, Math.max(0, watch.deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+		parkedWatches.add(watch);
+	}
+
+	/**
+	 * Answers the watch with the job's current status, its deadline has passed
+	 */
+	private void expireWatch(JobWatch watch){
+		parkedWatches.remove(watch);
+		if(watch.answered.get())
+			return;
+		try{
+			answerWatch(watch, lookupJobStatus(watch.jobId, watch.username, true), null);
+		}catch(Exception e){
+			answerWatch(watch, null, e);
+		}
+	}
+
+	/**
+	 * Completes the watch with status, or fails it with error, unless it has been answered already
+	 */
+	private void answerWatch(JobWatch watch, JnomicsThriftJobStatus status, Exception error){
+		if(!watch.answered.compareAndSet(false, true))
+			return;
+		watchers.decrementAndGet();
+		if(null != watch.timer)
+			watch.timer.cancel(false);
+		if(null != error)
+			watch.callback.onError(error);
+		else
+			watch.callback.onComplete(status);
+	}
+
+	/**
+	 * Called after every poll of the job status tracker, checks every parked watch again
+	 */
+	private void recheckWatches(){
+		JobWatch watch;
+		while(null != (watch = parkedWatches.poll())){
+			final JobWatch w = watch;
+			watchPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					checkWatch(w);
+				}
+			});
+		}
+	}
+
 	@Override
 	public String getGridJobStatus(final JnomicsThriftJobID jobID,final Authentication auth) throws JnomicsThriftException{
 		final String username = authenticator.authenticate(auth);
@@ -773,14 +953,18 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 			throw new JnomicsThriftException("Permission Denied");
 		}
 		logger.info("Getting job status for user "+ username);
-		JnomicsGridJobBuilder builder = new JnomicsGridJobBuilder(getGenericConf());
-		String status = null;
-		try {
-			status = builder.getjobstatus(jobID.getJob_id());
-		} catch (Exception e) {
-			throw new JnomicsThriftException(e.toString());
+		String jobId = jobID.getJob_id();
+		if(JnomicsSubmissionQueue.isTrackingId(jobId)){
+			JnomicsThriftSubmission submission = getOwnSubmission(jobId, username);
+			if(JnomicsSubmissionQueue.FAILED.equals(submission.getState()))
+				return submission.getState() + ": " + submission.getError();
+			if(JnomicsSubmissionQueue.QUEUED.equals(submission.getState()))
+				return submission.getState() + ": position " + submission.getQueue_position();
+			if(!JnomicsSubmissionQueue.SUBMITTED.equals(submission.getState()))
+				return submission.getState();
+			jobId = submission.getJob_id();
 		}
-		return status ;
+		return gridSessions.getState(jobId, username);
 
 	}
 	@Override
@@ -791,30 +975,24 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		}
 		logger.info("Getting all job status for user "+ username);
 
-		JobStatus[] statuses = new JobClientRunner<JobStatus[]>(username,new Configuration(),properties){
-			@Override
-			public JobStatus[] jobClientTask() throws Exception {
-				logger.info("getting jobs");
-				return getJobClient().getAllJobs();
-			}
-		}.run();
-		logger.info("got jobs");
-		List<JnomicsThriftJobStatus> newStats = new ArrayList<JnomicsThriftJobStatus>();
-		for(JobStatus stat: statuses){
-			if(0 == username.compareTo(stat.getUsername()))
-				newStats.add(new JnomicsThriftJobStatus(stat.getJobID().toString(),
-						stat.getUsername(),
-						stat.getFailureInfo(),
-						stat.isJobComplete(),
-						stat.getRunState(),
-						stat.getStartTime(),
-						stat.getJobPriority().toString(),
-						stat.mapProgress(),
-						stat.reduceProgress()));
+		List<JnomicsThriftJobStatus> newStats = jobTracker.getAll(username);
+		newStats.addAll(getGridJobs(username));
+		for(JnomicsThriftSubmission submission : submissions.getUnsubmitted(username)){
+			newStats.add(unsubmittedStatus(submission));
 		}
 		return newStats;
 	}
 
+	@Override
+	public JnomicsThriftJobPage listJobs(JnomicsThriftJobFilter filter, String cursor, int limit, Authentication auth)
+			throws JnomicsThriftException, TException {
+		String username;
+		if(null == (username = authenticator.authenticate(auth))){
+			throw new JnomicsThriftException("Permission Denied");
+		}
+		return jobTracker.list(username, filter, cursor, limit);
+	}
+
 
 	/**
 	 * Writes a manifest file in a directory called manifests in home directory
@@ -940,17 +1118,217 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 
 	}
 
-	public JnomicsThriftJobID launchJobAs(String username, final Configuration conf)
+	/**
+	 * Queues the job for submission to hadoop as username
+	 * @return tracking id of the submission
+	 */
+	public JnomicsThriftJobID launchJobAs(final String username, final Configuration conf)
 			throws JnomicsThriftException {
+		String trackingId = JnomicsSubmissionQueue.newTrackingId();
+		conf.set(JnomicsSubmissionQueue.TRACKING_ID_PARAM, trackingId);
+		submissions.submit(trackingId, username, conf.get("mapred.job.name"), submissions.slots(conf, false),
+				new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return submitJobAs(username, conf);
+			}
+		});
+		return new JnomicsThriftJobID(trackingId);
+	}
+
+	/**
+	 * Submits the job to hadoop as username and records it in the job registry
+	 * @return hadoop job id
+	 */
+	private String submitJobAs(String username, Configuration conf) throws JnomicsThriftException {
 		RunningJob runningJob = new JobClientRunner<RunningJob>(username,conf,properties){
 			@Override
 			public RunningJob jobClientTask() throws Exception {
 				return getJobClient().submitJob(getJobConf());
 			}
 		}.run();
-		String jobid = runningJob.getID().toString();
-		logger.info("submitted job: " + conf.get("mapred.job.name") + " " + jobid);
-		return new JnomicsThriftJobID(jobid);
+		String jobId = runningJob.getID().toString();
+		String name = conf.get("mapred.job.name");
+		registry.recordSubmit(jobId, username, name, jobType(username, name), JnomicsJobRegistry.HADOOP,
+				jobParams(conf));
+		return jobId;
+	}
+
+	/**
+	 * Queues the job for submission to the grid
+	 * @return tracking id of the submission
+	 */
+	private JnomicsThriftJobID launchGridJobAs(final String username, final String jobname, final JnomicsGridJobBuilder builder)
+			throws JnomicsThriftException {
+		final Configuration conf;
+		try{
+			conf = builder.getJobConf();
+		}catch(Exception e){
+			throw new JnomicsThriftException(e.toString());
+		}
+		String trackingId = JnomicsSubmissionQueue.newTrackingId();
+		conf.set(JnomicsSubmissionQueue.TRACKING_ID_PARAM, trackingId);
+		submissions.submit(trackingId, username, jobname, submissions.slots(conf, true), new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return submitGridJobAs(username, jobname, conf);
+			}
+		});
+		return new JnomicsThriftJobID(trackingId);
+	}
+
+	/**
+	 * Writes the job's configuration where the grid nodes can read it, submits the job
+	 * and records it in the job registry
+	 * @return grid job id
+	 */
+	private String submitGridJobAs(String username, String jobname, Configuration conf)
+			throws IOException, JnomicsThriftException {
+		String confPath = gridSessions.getConfPath(jobname);
+		OutputStream out = new FileOutputStream(confPath);
+		try{
+			conf.writeXml(out);
+		}finally{
+			out.close();
+		}
+		String jobId;
+		try{
+			jobId = gridSessions.submit(jobname, conf, confPath);
+		}catch(JnomicsThriftException e){
+			if(!new File(confPath).delete())
+				logger.warn("Failed to remove " + confPath);
+			throw e;
+		}
+		registry.recordSubmit(jobId, username, jobname, jobType(username, jobname), JnomicsJobRegistry.GRID,
+				jobParams(conf));
+		return jobId;
+	}
+
+	/**
+	 * @return kind of job from its name, username-type-..., e.g. bowtie2 or tophat
+	 */
+	private static String jobType(String username, String name){
+		if(null == name)
+			return "unknown";
+		if(name.endsWith("-pe-conversion"))
+			return "pe-conversion";
+		String rest = name.startsWith(username + "-") ? name.substring(username.length() + 1) : name;
+		int dash = rest.indexOf('-');
+		return -1 == dash ? rest : rest.substring(0, dash);
+	}
+
+	/**
+	 * @return configuration entries the job sets beyond the server's base configuration,
+	 * with the values of credentials such as shock-token masked
+	 */
+	private Map<String, String> jobParams(Configuration conf){
+		Map<String, String> params = new HashMap<String, String>();
+		for(Map.Entry<String, String> entry : conf){
+			if(entry.getValue().equals(baseConf.get(entry.getKey())))
+				continue;
+			params.put(entry.getKey(), isCredential(entry.getKey()) ? MASKED : entry.getValue());
+		}
+		return params;
+	}
+
+	private static boolean isCredential(String key){
+		String k = key.toLowerCase();
+		return k.contains("token") || k.contains("password") || k.contains("secret");
+	}
+
+	@Override
+	public JnomicsThriftJobRecord getJobRecord(JnomicsThriftJobID jobID, Authentication auth)
+			throws JnomicsThriftException, TException {
+		String username;
+		if(null == (username = authenticator.authenticate(auth))){
+			throw new JnomicsThriftException("Permission Denied");
+		}
+		JnomicsThriftJobRecord record = registry.get(jobID.getJob_id());
+		if(null == record || !record.getUsername().equals(username))
+			throw new JnomicsThriftException("Unknown job: " + jobID.getJob_id());
+		return record;
+	}
+
+	@Override
+	public JnomicsThriftJobRecordPage listJobRecords(String type, String state, String cursor, int limit,
+			Authentication auth) throws JnomicsThriftException, TException {
+		String username;
+		if(null == (username = authenticator.authenticate(auth))){
+			throw new JnomicsThriftException("Permission Denied");
+		}
+		if(limit <= 0 || limit > recordPageMax)
+			limit = recordPageMax;
+		return registry.query(username, type, state, null, cursor, limit);
+	}
+
+	/**
+	 * @return the user's grid jobs that are running or finished in the last day
+	 */
+	private List<JnomicsThriftJobStatus> getGridJobs(String username) throws JnomicsThriftException {
+		List<JnomicsThriftJobStatus> stats = new ArrayList<JnomicsThriftJobStatus>();
+		long cutoff = System.currentTimeMillis() - 86400000L;
+		String cursor = "";
+		do{
+			JnomicsThriftJobRecordPage page = registry.query(username, null, null, JnomicsJobRegistry.GRID,
+					cursor, recordPageMax);
+			for(JnomicsThriftJobRecord record : page.getRecords()){
+				if(0 != record.getFinish_time() && record.getFinish_time() < cutoff)
+					continue;
+				String state = 0 == record.getFinish_time() ? gridSessions.getState(record.getJob_id(), username) : record.getState();
+				boolean complete = state.startsWith("DONE") || state.startsWith("FAILED");
+				stats.add(new JnomicsThriftJobStatus(record.getJob_id(), username, record.getFailure_info(), complete,
+						0, record.getSubmit_time(), null, 0, 0, record.getName(), state, 0));
+			}
+			cursor = page.getCursor();
+		}while(!cursor.isEmpty());
+		return stats;
+	}
+
+	/**
+	 * @return the user's submission with the given tracking id
+	 */
+	private JnomicsThriftSubmission getOwnSubmission(String trackingId, String username) throws JnomicsThriftException {
+		JnomicsThriftSubmission submission = submissions.get(trackingId);
+		if(null == submission || !submission.getUsername().equals(username))
+			throw new JnomicsThriftException("Unknown submission: " + trackingId);
+		return submission;
+	}
+
+	/**
+	 * @return status of a submission that has no job id yet, or failed to get one
+	 */
+	private static JnomicsThriftJobStatus unsubmittedStatus(JnomicsThriftSubmission submission){
+		boolean failed = JnomicsSubmissionQueue.FAILED.equals(submission.getState());
+		return new JnomicsThriftJobStatus(submission.getTracking_id(),
+				submission.getUsername(),
+				failed ? submission.getError() : null,
+				failed,
+				failed ? JobStatus.FAILED : JobStatus.PREP,
+				submission.getQueued_time(),
+				null,
+				0,
+				0,
+				null,
+				submission.getState(),
+				submission.getQueue_position());
+	}
+
+	@Override
+	public JnomicsThriftSubmission getSubmission(JnomicsThriftJobID trackingID, Authentication auth)
+			throws JnomicsThriftException, TException {
+		String username;
+		if(null == (username = authenticator.authenticate(auth))){
+			throw new JnomicsThriftException("Permission Denied");
+		}
+		return getOwnSubmission(trackingID.getJob_id(), username);
+	}
+
+	@Override
+	public Map<String, Long> getSubmissionMetrics(Authentication auth) throws JnomicsThriftException, TException {
+		if(null == authenticator.authenticate(auth)){
+			throw new JnomicsThriftException("Permission Denied");
+		}
+		return submissions.getMetrics();
 	}
 
 	//    public JnomicsThriftJobID launchGridJobAs(String username, final Configuration conf)
@@ -974,6 +1352,11 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 			throw new JnomicsThriftException("Permission Denied");
 		}
 
+		return mergeVCFAs(username, inDir, inAlignments, outVCF);
+	}
+
+	private boolean mergeVCFAs(String username, String inDir, String inAlignments, String outVCF)
+			throws JnomicsThriftException {
 		final Configuration conf = getGenericConf();
 		logger.info("Merging VCF: " + inDir + ":" + inAlignments + ":" + outVCF + " for user " + username);
 
@@ -1048,6 +1431,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
         if(null == (username = authenticator.authenticate(auth))){
             throw new JnomicsThriftException("Permission Denied");
         }
+        genomeCatalog.checkArchive(organism, "gatk");
         logger.info("gatk realign for user "+ username);
 
         JnomicsJobBuilder builder = getGATKConfBuilder(inPath, outPath, organism);
@@ -1070,6 +1454,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
         if(null == (username = authenticator.authenticate(auth))){
             throw new JnomicsThriftException("Permission Denied");
         }
+        genomeCatalog.checkArchive(organism, "gatk");
         logger.info("gatkCallVariants for user "+ username);
 
         JnomicsJobBuilder builder = getGATKConfBuilder(inPath,outPath,organism);
@@ -1093,6 +1478,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
         if(null == (username = authenticator.authenticate(auth))){
             throw new JnomicsThriftException("Permission Denied");
         }
+        genomeCatalog.checkArchive(organism, "gatk");
         logger.info("gatkCountCovariates for user "+ username);
 
         JnomicsJobBuilder builder = getGATKConfBuilder(inPath, outPath, organism);
@@ -1119,6 +1505,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
         if(null == (username = authenticator.authenticate(auth))){
             throw new JnomicsThriftException("Permission Denied");
         }
+        genomeCatalog.checkArchive(organism, "gatk");
         logger.info("gatkRecalibrate for user "+ username);
 
         JnomicsJobBuilder builder = getGATKConfBuilder(inPath, outPath, organism);
@@ -1145,9 +1532,13 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		if( null == username ){
 			throw new JnomicsThriftException("Permission Denied");
 		}
+		genomeCatalog.checkArchive(organism, "bowtie");
+		genomeCatalog.checkArchive(organism, "samtools");
 		logger.info("Running snpPipeline for user "+ username);
-		String initPath = inPath;
-		boolean loadShock = false;
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("in", inPath);
+		params.put("organism", organism);
+		params.put("out", outPath);
 		if(inPath.startsWith("http")){
 			String []shockPaths = inPath.split(",");
 			String []manifestData = new String[shockPaths.length];
@@ -1156,60 +1547,48 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 				manifestData[i++] = p + "\t" + new Path(new Path(outPath,"http_load"),"d"+i).toString();
 			}
 			Path manifest = writeManifest("shockdata",manifestData,username);
-			initPath = manifest.toString();
-			loadShock = true;
+			params.put("manifest", manifest.toString());
 		}
+		return new JnomicsThriftJobID(pipelines.start(username, SNP_PIPELINE, params));
+	}
 
-		logger.info("Starting new Thread");
-
-		final String nxtPath = initPath;
-		final boolean loadShockfinal = loadShock;
-
-		new Thread(new Runnable(){
-			@Override
-			public void run() {
-				String alignIn;
-				if(loadShockfinal){
-					final JnomicsJobBuilder shockBuilder = new JnomicsJobBuilder(getGenericConf(),HttpLoaderMap.class,
+	/**
+	 * Stages of the snp pipeline: http-load when the input is http urls, then align, snp and merge
+	 * @param params in, organism and out as passed to runSNPPipeline, and manifest if the input is loaded first
+	 */
+	private List<JnomicsPipelineEngine.Stage> snpPipelineStages(final String username, Map<String, String> params){
+		final String inPath = params.get("in");
+		final String organism = params.get("organism");
+		final String outPath = params.get("out");
+		final String manifest = params.get("manifest");
+		final Path alignOut = new Path(outPath,"bowtie_align");
+		final Path snpOut = new Path(outPath, "snp");
+		List<JnomicsPipelineEngine.Stage> stages = new ArrayList<JnomicsPipelineEngine.Stage>();
+
+		if(null != manifest){
+			stages.add(new JnomicsPipelineEngine.Stage("http-load") {
+				@Override
+				public String start() throws Exception {
+					JnomicsJobBuilder shockBuilder = new JnomicsJobBuilder(getGenericConf(),HttpLoaderMap.class,
 							HttpLoaderReduce.class);
-					shockBuilder.setInputPath(nxtPath)
-					.setOutputPath(nxtPath+"out")
-					.setJobName("http-load"+nxtPath)
+					shockBuilder.setInputPath(manifest)
+					.setOutputPath(manifest+"out")
+					.setJobName("http-load"+manifest)
 					.setReduceTasks(10);
 					String proxy;
 					if(null != (proxy = properties.getProperty("http-proxy",null)))
 						shockBuilder.setParam("proxy",proxy);
-					Job shockLoadJob = null;
-					try{
-						shockLoadJob = UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<Job>() {
-							@Override
-							public Job run() throws Exception {
-								Job job = new Job(shockBuilder.getJobConf());
-								job.waitForCompletion(true);
-								return job;
-							}
-						});
-					}catch(Exception e){
-						logger.error("Failed to load data:" + e.toString());
-						return;
-					}
-					try{
-						if(null == shockLoadJob || !shockLoadJob.isSuccessful()){
-							logger.error("Failed to load data from shock");
-							return;
-						}
-					}catch(Exception e){
-						logger.error(e.getMessage());
-						return;
-					}
-					alignIn = new Path(outPath,"http_load").toString();
-				}else{
-					alignIn = inPath;
+					return launchJobAs(username, shockBuilder.getJobConf()).getJob_id();
 				}
+			});
+		}
 
-				Path alignOut = new Path(outPath,"bowtie_align");
-
-				final JnomicsJobBuilder alignBuilder = new JnomicsJobBuilder(getGenericConf(),Bowtie2Map.class);
+		final String alignIn = null != manifest ? new Path(outPath,"http_load").toString() : inPath;
+		String []alignAfter = null != manifest ? new String[]{"http-load"} : new String[0];
+		stages.add(new JnomicsPipelineEngine.Stage("align", alignAfter) {
+			@Override
+			public String start() throws Exception {
+				JnomicsJobBuilder alignBuilder = new JnomicsJobBuilder(getGenericConf(),Bowtie2Map.class);
 				alignBuilder.setInputPath(alignIn)
 				.setOutputPath(alignOut.toString())
 				.setParam("bowtie_binary", "bowtie/bowtie2-align")
@@ -1217,66 +1596,191 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 				.setJobName(username + "-bowtie2-" + inPath)
 				.addArchive(properties.getProperty("hdfs-index-repo") + "/" + organism + "_bowtie.tar.gz#btarchive")
 				.addArchive(properties.getProperty("hdfs-index-repo") + "/bowtie.tar.gz#bowtie");
-				Job j = null;
-				try{
-					j = UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<Job>() {
-						@Override
-						public Job run() throws Exception {
-							Job job = new Job(alignBuilder.getJobConf());
-							job.waitForCompletion(true);
-							return job;
-						}
-					});
-				}catch(Exception e){
-					logger.error("Failed to align:" + e.toString());
-					return;
-				}
+				return launchJobAs(username, alignBuilder.getJobConf()).getJob_id();
+			}
+		});
 
-				logger.info("Alignment task finished");
-
-				Path snpIn = alignOut;
-				Path snpOut = new Path(outPath, "snp");
-				Job snpJob = null;
-				try {
-					if(null != j && j.isSuccessful()){
-						logger.info("alignment successful, running samtools");
-						final JnomicsJobBuilder snpBuilder = new JnomicsJobBuilder(getGenericConf(), SamtoolsMap.class, SamtoolsReduce.class);
-						snpBuilder.setInputPath(snpIn.toString())
-						.setOutputPath(snpOut.toString())
-						.addArchive(properties.getProperty("hdfs-index-repo")+"/"+organism+"_samtools.tar.gz#starchive")
-						.addArchive(properties.getProperty("hdfs-index-repo")+"/samtools.tar.gz#samtools")
-						.addArchive(properties.getProperty("hdfs-index-repo")+"/bcftools.tar.gz#bcftools")
-						.setParam("samtools_binary","samtools/samtools")
-						.setParam("bcftools_binary","bcftools/bcftools")
-						.setParam("reference_fa","starchive/"+organism+".fa")
-						.setParam("genome_binsize","1000000")
-						.setReduceTasks(NUM_REDUCE_TASKS)
-						.setJobName(username+"-snp-"+inPath);
-
-						snpJob = UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<Job>() {
-							@Override
-							public Job run() throws Exception {
-								Job job = new Job(snpBuilder.getJobConf());
-								job.waitForCompletion(true);
-								return job;
-							}
-						});
-					}
-				} catch (Exception e) {
-					logger.error("Failed to call snps" + e.toString());
-					return;
-				}
+		stages.add(new JnomicsPipelineEngine.Stage("snp", "align") {
+			@Override
+			public String start() throws Exception {
+				JnomicsJobBuilder snpBuilder = new JnomicsJobBuilder(getGenericConf(), SamtoolsMap.class, SamtoolsReduce.class);
+				snpBuilder.setInputPath(alignOut.toString())
+				.setOutputPath(snpOut.toString())
+				.addArchive(properties.getProperty("hdfs-index-repo")+"/"+organism+"_samtools.tar.gz#starchive")
+				.addArchive(properties.getProperty("hdfs-index-repo")+"/samtools.tar.gz#samtools")
+				.addArchive(properties.getProperty("hdfs-index-repo")+"/bcftools.tar.gz#bcftools")
+				.setParam("samtools_binary","samtools/samtools")
+				.setParam("bcftools_binary","bcftools/bcftools")
+				.setParam("reference_fa","starchive/"+organism+".fa")
+				.setJobName(username+"-snp-"+inPath);
+				setBins(snpBuilder, binPlanner.plan(username, organism, alignOut.toString()));
+				return launchJobAs(username, snpBuilder.getJobConf()).getJob_id();
+			}
+		});
 
-				try{
-					if(null != snpJob && snpJob.isSuccessful()){
-						mergeVCF(snpOut.toString(),alignOut.toString(),new Path(outPath,"out.vcf").toString(),auth);
-					}
-				}catch(Exception e){
-					logger.error("Problem merging covariates");
-					return;
+		stages.add(new JnomicsPipelineEngine.Stage("merge", "snp") {
+			@Override
+			public String start() throws Exception {
+				mergeVCFAs(username, snpOut.toString(), alignOut.toString(), new Path(outPath,"out.vcf").toString());
+				return null;
+			}
+		});
+		return stages;
+	}
+
+	@Override
+	public JnomicsThriftJobID runRNASeqPipeline(JnomicsThriftRNASeqExperiment experiment, String outPath,
+			String workingdir, Authentication auth) throws JnomicsThriftException, TException {
+		String username;
+		if(null == (username = authenticator.authenticate(auth))){
+			throw new JnomicsThriftException("Permission Denied");
+		}
+		genomeCatalog.checkArchive(experiment.getRef_genome(), "bowtie");
+		List<JnomicsThriftRNASample> samples = experiment.getSamples();
+		if(null == samples || samples.isEmpty())
+			throw new JnomicsThriftException("No samples");
+		Map<String, String> params = new HashMap<String, String>();
+		List<String> conditions = new ArrayList<String>();
+		Set<String> names = new HashSet<String>();
+		int i = 0;
+		for(JnomicsThriftRNASample sample : samples){
+			if(null == sample.getName() || !sample.getName().matches("[A-Za-z0-9._-]+"))
+				throw new JnomicsThriftException("Invalid sample name: " + sample.getName());
+			if(!names.add(sample.getName()))
+				throw new JnomicsThriftException("Duplicate sample name: " + sample.getName());
+			if(null == sample.getReads() || sample.getReads().isEmpty())
+				throw new JnomicsThriftException("No reads for sample " + sample.getName());
+			if(null == sample.getCondition() || sample.getCondition().isEmpty())
+				throw new JnomicsThriftException("No condition for sample " + sample.getName());
+			if(!conditions.contains(sample.getCondition()))
+				conditions.add(sample.getCondition());
+			params.put("sample." + i + ".name", sample.getName());
+			params.put("sample." + i + ".condition", sample.getCondition());
+			params.put("sample." + i + ".reads", sample.getReads());
+			i++;
+		}
+		if(conditions.size() < 2)
+			throw new JnomicsThriftException("cuffdiff needs samples from at least two conditions");
+		params.put("samples", Integer.toString(samples.size()));
+		params.put("ref_genome", experiment.getRef_genome());
+		params.put("gtf_file", emptyIfNull(experiment.getGtf_file()));
+		params.put("tophat_opts", emptyIfNull(experiment.getTophat_opts()));
+		params.put("cufflinks_opts", emptyIfNull(experiment.getCufflinks_opts()));
+		params.put("cuffmerge_opts", emptyIfNull(experiment.getCuffmerge_opts()));
+		params.put("cuffdiff_opts", emptyIfNull(experiment.getCuffdiff_opts()));
+		params.put("out", outPath);
+		params.put("workingdir", emptyIfNull(workingdir));
+		logger.info("Running RNA-seq pipeline on " + samples.size() + " samples for user " + username);
+		return new JnomicsThriftJobID(pipelines.start(username, RNASEQ_PIPELINE, params));
+	}
+
+	private static String emptyIfNull(String s){
+		return null == s ? "" : s;
+	}
+
+	/**
+	 * Stages of the RNA-seq pipeline: tophat then cufflinks for every sample, which run in
+	 * parallel, then cuffmerge once every sample is assembled, then cuffdiff
+	 * @param params as written by runRNASeqPipeline
+	 */
+	private List<JnomicsPipelineEngine.Stage> rnaSeqPipelineStages(final String username, Map<String, String> params){
+		final String ref = params.get("ref_genome");
+		final String gtf = params.get("gtf_file");
+		final String tophatOpts = params.get("tophat_opts");
+		final String cufflinksOpts = params.get("cufflinks_opts");
+		final String cuffmergeOpts = params.get("cuffmerge_opts");
+		final String cuffdiffOpts = params.get("cuffdiff_opts");
+		final String outPath = params.get("out");
+		final String workingdir = params.get("workingdir");
+		int n = Integer.parseInt(params.get("samples"));
+
+		List<JnomicsPipelineEngine.Stage> stages = new ArrayList<JnomicsPipelineEngine.Stage>();
+		//key: condition label, value: alignments of the condition's samples, in sample sheet order
+		Map<String, List<String>> conditions = new LinkedHashMap<String, List<String>>();
+		String []transcripts = new String[n];
+		String []assembled = new String[n];
+		for(int i = 0; i < n; i++){
+			final String name = params.get("sample." + i + ".name");
+			final String reads = params.get("sample." + i + ".reads");
+			String condition = params.get("sample." + i + ".condition");
+			final String tophatOut = new Path(outPath, name + "_tophat").toString();
+			final String bam = new Path(tophatOut, "accepted_hits.bam").toString();
+			final String cufflinksOut = new Path(outPath, name + "_cufflinks").toString();
+
+			stages.add(new JnomicsPipelineEngine.Stage("tophat-" + name) {
+				@Override
+				public String start() throws Exception {
+					String jobname = username+"-tophat-"+UUID.randomUUID();
+					return launchGridJobAs(username, jobname,
+							tophatBuilder(jobname, ref, reads, gtf, tophatOut, tophatOpts, workingdir)).getJob_id();
+				}
+			});
+			stages.add(new JnomicsPipelineEngine.Stage("cufflinks-" + name, "tophat-" + name) {
+				@Override
+				public String start() throws Exception {
+					String jobname = username+"-cufflinks-"+UUID.randomUUID();
+					return launchGridJobAs(username, jobname,
+							cufflinksBuilder(jobname, bam, cufflinksOut, gtf, cufflinksOpts, workingdir)).getJob_id();
 				}
+			});
+
+			if(!conditions.containsKey(condition))
+				conditions.put(condition, new ArrayList<String>());
+			conditions.get(condition).add(bam);
+			transcripts[i] = new Path(cufflinksOut, "transcripts.gtf").toString();
+			assembled[i] = "cufflinks-" + name;
+		}
+
+		final String mergeIn = TextUtil.join(",", transcripts);
+		final String mergeOut = new Path(outPath, "cuffmerge").toString();
+		stages.add(new JnomicsPipelineEngine.Stage("cuffmerge", assembled) {
+			@Override
+			public String start() throws Exception {
+				String jobname = username+"-cuffmerge-"+UUID.randomUUID();
+				return launchGridJobAs(username, jobname, cuffmergeBuilder(username, jobname, mergeIn, ref, mergeOut,
+						cuffmergeOpts, gtf, workingdir)).getJob_id();
+			}
+		});
+
+		boolean replicates = false;
+		String []groups = new String[conditions.size()];
+		int g = 0;
+		for(List<String> bams : conditions.values()){
+			replicates |= bams.size() > 1;
+			groups[g++] = TextUtil.join(",", bams.toArray(new String[bams.size()]));
+		}
+		final String diffIn = TextUtil.join(replicates ? ";" : ",", groups);
+		final String labels = TextUtil.join(",", conditions.keySet().toArray(new String[conditions.size()]));
+		final String withReplicates = replicates ? "yes" : "";
+		final String diffOut = new Path(outPath, "cuffdiff").toString();
+		stages.add(new JnomicsPipelineEngine.Stage("cuffdiff", "cuffmerge") {
+			@Override
+			public String start() throws Exception {
+				String jobname = username+"-cuffdiff-"+UUID.randomUUID();
+				return launchGridJobAs(username, jobname, cuffdiffBuilder(jobname, diffIn, diffOut, ref, cuffdiffOpts,
+						labels, new Path(mergeOut, "merged.gtf").toString(), withReplicates, workingdir)).getJob_id();
 			}
-		}).start();
-		return new JnomicsThriftJobID();
+		});
+		return stages;
+	}
+
+	/**
+	 * @return the user's pipeline with the given id
+	 */
+	private JnomicsThriftPipelineStatus getOwnPipeline(String pipelineId, String username) throws JnomicsThriftException {
+		JnomicsThriftPipelineStatus pipeline = pipelines.get(pipelineId);
+		if(null == pipeline || !pipeline.getUsername().equals(username))
+			throw new JnomicsThriftException("Unknown pipeline: " + pipelineId);
+		return pipeline;
+	}
+
+	@Override
+	public JnomicsThriftPipelineStatus getPipelineStatus(JnomicsThriftJobID pipelineID, Authentication auth)
+			throws JnomicsThriftException, TException {
+		String username;
+		if(null == (username = authenticator.authenticate(auth))){
+			throw new JnomicsThriftException("Permission Denied");
+		}
+		return getOwnPipeline(pipelineID.getJob_id(), username);
 	}
 }
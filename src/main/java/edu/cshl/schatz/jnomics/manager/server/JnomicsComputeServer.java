@@ -3,37 +3,15 @@ package edu.cshl.schatz.jnomics.manager.server;
 
 import edu.cshl.schatz.jnomics.manager.api.JnomicsCompute;
 import edu.cshl.schatz.jnomics.manager.common.JnomicsApiConfig;
-import org.apache.thrift.ProcessFunction;
-import org.apache.thrift.TApplicationException;
-import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
-import org.apache.thrift.protocol.*;
 import org.apache.thrift.server.TServer;
-import org.apache.thrift.server.TThreadPoolServer;
-import org.apache.thrift.transport.*;
-import org.apache.thrift.server.TNonblockingServer;
+import org.apache.thrift.transport.TTransportException;
 
-import java.io.File;
 import java.io.IOException;
-import java.net.InetAddress;
 import java.util.Properties;
 
 public class JnomicsComputeServer {
 
-    public static class JnomicsComputeProcessorHax<I extends JnomicsCompute.Iface>
-            extends JnomicsCompute.Processor<I> implements TProcessor {
-
-        public JnomicsComputeProcessorHax(I iface) {
-            super(iface);
-        }
-
-        @Override
-        public boolean process(TProtocol in, TProtocol out) throws TException {
-            System.err.println("Processing from client: " + ((TSocket) in.getTransport()).getSocket().getInetAddress());
-            return super.process(in,out);
-        }
-    }
-
     public static void main(String []args) throws TTransportException, IOException {
 
         Properties prop = JnomicsApiConfig.getServerProperties();
@@ -45,20 +23,16 @@ public class JnomicsComputeServer {
 	//JnomicsApiConfig.setHTTPProxy(prop.getProperty("http-proxy", null));
 	
 
-        String keyStore = System.getProperty("jkserver_keystore");
-        if(null == keyStore || !new File(keyStore).exists()){
-            throw new IOException("Cannot find key store: " + keyStore);
-        }
-
         JnomicsComputeHandler handler = new JnomicsComputeHandler(prop);
-        JnomicsCompute.Processor processor = new JnomicsComputeProcessorHax(handler);
-
-        TSSLTransportFactory.TSSLTransportParameters params = new TSSLTransportFactory.TSSLTransportParameters();
-        params.setKeyStore(keyStore,"kbasekeystore");
-        TServerTransport serverTransport = TSSLTransportFactory.getServerSocket(port,10000,
-                InetAddress.getByName(host),params);
-
-        TServer server = new TThreadPoolServer(new TThreadPoolServer.Args(serverTransport).processor(processor));
+        TProcessor processor;
+        /**the selector engine serves async, so waitForJobChange does not hold a worker while it waits**/
+        if(JnomicsServerEngine.SELECTOR.equals(prop.getProperty("compute-server-engine", JnomicsServerEngine.THREADPOOL)))
+            processor = new JnomicsCompute.AsyncProcessor<JnomicsCompute.AsyncIface>(
+                    JnomicsComputeAsyncHandler.create(handler));
+        else
+            processor = new JnomicsCompute.Processor<JnomicsComputeHandler>(handler);
+
+        TServer server = JnomicsServerEngine.create(prop, "compute", port, host, processor);
 
         System.out.println("Starting server port "+ port +"...");
         server.serve();
@@ -1,6 +1,8 @@
 package edu.cshl.schatz.jnomics.manager.server;
 
 import edu.cshl.schatz.jnomics.manager.api.*;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsChecksums;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsCompression;
 import edu.cshl.schatz.jnomics.mapreduce.JnomicsJobBuilder;
 import edu.cshl.schatz.jnomics.tools.SELoaderMap;
 import edu.cshl.schatz.jnomics.tools.ShockLoad;
@@ -9,6 +11,7 @@ import edu.cshl.schatz.jnomics.manager.server.NLineInputFormat;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobID;
@@ -26,7 +29,10 @@ import us.kbase.auth.TokenExpiredException;
 import us.kbase.shock.client.exceptions.InvalidShockUrlException;
 import us.kbase.shock.client.exceptions.ShockHttpException;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -35,6 +41,12 @@ import java.net.URL;
 import java.net.MalformedURLException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 /**
  * User: james
@@ -44,7 +56,9 @@ import java.util.*;
 public class JnomicsDataHandler implements JnomicsData.Iface {
 
     private final org.slf4j.Logger log = LoggerFactory.getLogger(JnomicsDataHandler.class);
-    private final Map<UUID, JnomicsFsHandle> handleMap = Collections.synchronizedMap(new HashMap<UUID, JnomicsFsHandle>());
+    private final JnomicsHandleRegistry<JnomicsFsHandle> handles;
+    private final JnomicsHandleRegistry<JnomicsUploadSession> uploads;
+    private final JnomicsHandleRegistry<JnomicsListing> listings;
     private Properties properties;
 
     //private static final int SHOCK_BUFFER_SIZE = 10000000;
@@ -55,19 +69,59 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
     private final ThreadLocal bufferCache = new ThreadLocal(){
         @Override
         protected Object initialValue() {
-            return new byte[2000000];
+            return new byte[JnomicsCompression.MAX_CHUNK];
+        }
+    };
+
+    /**per thread output buffer for compressed reads**/
+    private final ThreadLocal compressCache = new ThreadLocal(){
+        @Override
+        protected Object initialValue() {
+            return new byte[1][];
         }
     };
     
+    private final boolean writeBehind;
+    private final int writeBehindQueue;
+    private final JnomicsBufferPool bufferPool = new JnomicsBufferPool(2000000, 256);
+    private final ExecutorService writeBehindPool = Executors.newCachedThreadPool();
+    private final int readAheadDepth;
+    private final ExecutorService readAheadPool;
+    private final ExecutorService metadataPool;
+    private final int listPageMax;
+    private final int listParallelism;
+    private final JnomicsMetadataCache metadataCache;
+    private final JnomicsGenomeCatalog genomeCatalog;
+    private final long uploadRetention;
+
+    /**one step of a batched metadata call, applied to the i'th path**/
+    private interface PathOp<T> {
+        T run(FileSystem fs, int i) throws IOException;
+    }
+
     public JnomicsDataHandler(Properties props){
         properties = props;
         authenticator = new JnomicsServiceAuthentication();
-    }
-
-    private UUID getUniqueUUID(){
-        UUID b;
-        while(handleMap.containsKey(b = UUID.randomUUID())){}
-        return b;
+        writeBehind = Boolean.parseBoolean(properties.getProperty("data-write-behind", "false"));
+        writeBehindQueue = Integer.parseInt(properties.getProperty("data-write-behind-queue", "4"));
+        readAheadDepth = Integer.parseInt(properties.getProperty("data-read-ahead-depth", "4"));
+        readAheadPool = Executors.newFixedThreadPool(
+                Integer.parseInt(properties.getProperty("data-read-ahead-threads", "16")));
+        metadataPool = Executors.newFixedThreadPool(
+                Integer.parseInt(properties.getProperty("data-metadata-threads", "8")));
+        long handleTimeout = 1000 * Long.parseLong(properties.getProperty("data-handle-timeout", "240"));
+        int maxHandles = Integer.parseInt(properties.getProperty("data-max-handles-per-user", "1024"));
+        handles = new JnomicsHandleRegistry<JnomicsFsHandle>(handleTimeout, maxHandles);
+        uploads = new JnomicsHandleRegistry<JnomicsUploadSession>(handleTimeout, maxHandles);
+        listings = new JnomicsHandleRegistry<JnomicsListing>(handleTimeout, maxHandles);
+        listPageMax = Integer.parseInt(properties.getProperty("data-list-page-max", "1000"));
+        listParallelism = Integer.parseInt(properties.getProperty("data-list-parallelism", "4"));
+        metadataCache = new JnomicsMetadataCache(
+                Boolean.parseBoolean(properties.getProperty("data-metadata-cache", "true")),
+                1000 * Long.parseLong(properties.getProperty("data-metadata-cache-ttl", "5")),
+                Integer.parseInt(properties.getProperty("data-metadata-cache-size", "10000")));
+        genomeCatalog = JnomicsGenomeCatalog.getInstance(properties);
+        uploadRetention = 1000 * Long.parseLong(properties.getProperty("data-upload-retention", "86400"));
     }
 
      private FileSystem getFileSystem(String username) throws JnomicsThriftException {
@@ -82,12 +136,53 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         }
     }
     
-    public Map<UUID, JnomicsFsHandle> getHandleMap(){
-        return handleMap;
+    public JnomicsHandleRegistry<JnomicsFsHandle> getHandles(){
+        return handles;
+    }
+
+    public JnomicsHandleRegistry<JnomicsUploadSession> getUploads(){
+        return uploads;
+    }
+
+    public JnomicsHandleRegistry<JnomicsListing> getListings(){
+        return listings;
+    }
+
+    public JnomicsMetadataCache getMetadataCache(){
+        return metadataCache;
+    }
+
+    /**
+     * @return the handle if it belongs to the authenticated user
+     */
+    private JnomicsFsHandle getHandle(JnomicsThriftHandle handle, Authentication auth) throws JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        JnomicsFsHandle jhandle = handles.get(UUID.fromString(handle.getUuid()), username);
+        if(null == jhandle)
+            throw new JnomicsThriftException("Unknown or expired handle: " + handle.getUuid());
+        return jhandle;
+    }
+
+    private UUID registerHandle(String username, JnomicsFsHandle jhandle) throws JnomicsThriftException {
+        try{
+            return handles.register(username, jhandle);
+        }catch(JnomicsThriftException e){
+            jhandle.closeQuietly();
+            throw e;
+        }
     }
     
     @Override
     public JnomicsThriftHandle create(String path, Authentication auth) throws TException, JnomicsThriftException {
+        return createWithCodec(path, JnomicsCompression.NONE, auth).getHandle();
+    }
+
+    @Override
+    public JnomicsThriftCodecHandle createWithCodec(String path, String codec, Authentication auth)
+            throws TException, JnomicsThriftException {
         String username;
         if(null == (username = authenticator.authenticate(auth))){
             throw new JnomicsThriftException("Permission Denied");
@@ -103,16 +198,29 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
             log.error("Problem creating file " + path);
             e.printStackTrace();
             throw new JnomicsThriftException(e.toString());
+        }finally{
+            metadataCache.invalidate(username, path);
         }
         
-        UUID nxtUUID = getUniqueUUID();
-        handleMap.put(nxtUUID,new JnomicsFsHandle(fs,stream));
+        JnomicsFsHandle jhandle = new JnomicsFsHandle(fs,stream);
+        jhandle.setUsername(username);
+        jhandle.setPath(path);
+        jhandle.setCodec(JnomicsCompression.supported(codec));
+        if(writeBehind)
+            jhandle.setWriteBehind(new JnomicsWriteBehindStream(stream, writeBehindQueue, bufferPool, writeBehindPool));
+        UUID nxtUUID = registerHandle(username, jhandle);
         
-        return new JnomicsThriftHandle(nxtUUID.toString());
+        return new JnomicsThriftCodecHandle(new JnomicsThriftHandle(nxtUUID.toString()), jhandle.getCodec());
     }
 
     @Override
     public JnomicsThriftHandle open(String path, Authentication auth) throws JnomicsThriftException, TException {
+        return openWithCodec(path, JnomicsCompression.NONE, auth).getHandle();
+    }
+
+    @Override
+    public JnomicsThriftCodecHandle openWithCodec(String path, String codec, Authentication auth)
+            throws JnomicsThriftException, TException {
         String username;
         if(null == (username = authenticator.authenticate(auth))){
             throw new JnomicsThriftException("Permission Denied");
@@ -130,40 +238,152 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
             throw new JnomicsThriftException(e.toString());
         }
 
-        UUID nxtUUID = getUniqueUUID();
-        handleMap.put(nxtUUID,new JnomicsFsHandle(fs,stream));
-        return new JnomicsThriftHandle(nxtUUID.toString());
+        JnomicsFsHandle jhandle = new JnomicsFsHandle(fs,stream);
+        codec = JnomicsCompression.supported(codec);
+        if(!JnomicsCompression.NONE.equals(codec)){
+            /**compressing data that is already compressed only costs cpu**/
+            byte[] magic = new byte[JnomicsCompression.MAGIC_LENGTH];
+            try{
+                int n = stream.read(0, magic, 0, magic.length);
+                if(n > 0 && JnomicsCompression.isCompressedFormat(magic, 0, n))
+                    codec = JnomicsCompression.NONE;
+            }catch(IOException e){
+                codec = JnomicsCompression.NONE;
+            }
+        }
+        jhandle.setCodec(codec);
+        if(readAheadDepth > 0)
+            jhandle.setReadAhead(new JnomicsReadAhead(stream, readAheadDepth, bufferPool, readAheadPool));
+        UUID nxtUUID = registerHandle(username, jhandle);
+        return new JnomicsThriftCodecHandle(new JnomicsThriftHandle(nxtUUID.toString()), codec);
     }
 
 
+    @Override
+    public JnomicsThriftCodecHandle openMerged(String path, String glob, String headerPrefix, String codec, Authentication auth)
+            throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        if(null == glob || glob.isEmpty())
+            glob = "part-*";
+        log.info("Opening merged: " + path + "/" + glob + " for user: " + username);
+
+        FileSystem fs = getFileSystem(username);
+        List<Path> parts = new ArrayList<Path>();
+        byte[] magic = new byte[JnomicsCompression.MAGIC_LENGTH];
+        int magicLen = -1;
+        try{
+            Path dir = new Path(path);
+            FileStatus[] stats = fs.getFileStatus(dir).isDir() ? fs.globStatus(new Path(dir, glob))
+                    : new FileStatus[]{fs.getFileStatus(dir)};
+            if(null == stats)
+                stats = new FileStatus[0];
+            Arrays.sort(stats);
+            for(FileStatus stat : stats){
+                String name = stat.getPath().getName();
+                /**same files FileInputFormat would skip**/
+                if(stat.isDir() || name.startsWith("_") || name.startsWith("."))
+                    continue;
+                parts.add(stat.getPath());
+            }
+            if(parts.isEmpty())
+                throw new IOException("No files matching " + glob + " in " + path);
+            if(!JnomicsCompression.NONE.equals(JnomicsCompression.supported(codec))){
+                FSDataInputStream first = fs.open(parts.get(0));
+                try{
+                    magicLen = first.read(magic, 0, magic.length);
+                }finally{
+                    first.close();
+                }
+            }
+        }catch(IOException e){
+            log.error("Problem opening merged: " + path);
+            closeFileSystem(fs);
+            throw new JnomicsThriftException(e.toString());
+        }
+
+        JnomicsFsHandle jhandle = new JnomicsFsHandle(fs, new JnomicsMergedStream(fs, parts,
+                null == headerPrefix ? "" : headerPrefix));
+        codec = JnomicsCompression.supported(codec);
+        if(magicLen > 0 && JnomicsCompression.isCompressedFormat(magic, 0, magicLen))
+            codec = JnomicsCompression.NONE;
+        jhandle.setCodec(codec);
+        UUID nxtUUID = registerHandle(username, jhandle);
+        return new JnomicsThriftCodecHandle(new JnomicsThriftHandle(nxtUUID.toString()), codec);
+    }
+
     @Override
     public void write(JnomicsThriftHandle handle, ByteBuffer data, Authentication auth) throws TException, JnomicsThriftException {
-        JnomicsFsHandle jhandle = handleMap.get(UUID.fromString(handle.getUuid()));
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
         try {
-            jhandle.getOutStream().write(data.array());
+            data = JnomicsCompression.decode(jhandle.getCodec(), data);
+            if(jhandle.getWriteBehind() != null)
+                jhandle.getWriteBehind().write(data);
+            else
+                jhandle.getOutStream().write(data.array(), data.arrayOffset() + data.position(), data.remaining());
         } catch (IOException e){
             log.error("Problem writing to file");
             e.printStackTrace();
             throw new JnomicsThriftException(e.toString());
         }
-        jhandle.updateLastUsed();
     }
     
     @Override
     public ByteBuffer read(JnomicsThriftHandle handle, Authentication auth) throws TException, JnomicsThriftException {
-        JnomicsFsHandle jhandle = handleMap.get(UUID.fromString(handle.getUuid()));
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
 
         byte[] buf = (byte[]) bufferCache.get();
         int bytesRead;
         try{
-            bytesRead = jhandle.getInStream().read(buf);
+            if(jhandle.getReadAhead() != null)
+                bytesRead = jhandle.getReadAhead().read(buf);
+            else if(jhandle.getMerged() != null)
+                bytesRead = jhandle.getMerged().read(buf, 0, buf.length);
+            else
+                bytesRead = jhandle.getInStream().read(buf);
         } catch (IOException e) {
             throw new JnomicsThriftException(e.toString());
         }
-        jhandle.updateLastUsed();
         if(-1 == bytesRead)
             return ByteBuffer.allocate(0);
-        return ByteBuffer.wrap(buf,0,bytesRead);
+        return encode(jhandle, buf, bytesRead);
+    }
+
+    /**
+     * @return the first len bytes of buf, compressed if the handle was opened with a codec
+     */
+    private ByteBuffer encode(JnomicsFsHandle jhandle, byte[] buf, int len) throws JnomicsThriftException {
+        try{
+            return JnomicsCompression.encode(jhandle.getCodec(), buf, 0, len, (byte[][]) compressCache.get());
+        }catch(IOException e){
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    @Override
+    public ByteBuffer pread(JnomicsThriftHandle handle, long offset, int length, Authentication auth)
+            throws TException, JnomicsThriftException {
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
+        if(null == jhandle.getInStream()){
+            throw new JnomicsThriftException("Invalid read handle: " + handle.getUuid());
+        }
+
+        byte[] buf = (byte[]) bufferCache.get();
+        int want = Math.min(length, buf.length);
+        int total = 0;
+        int bytesRead;
+        try{
+            /**positional reads leave the stream offset alone, so ranges can be fetched concurrently**/
+            while(total < want && -1 != (bytesRead = jhandle.getInStream().read(offset + total, buf, total, want - total))){
+                total += bytesRead;
+            }
+        } catch (IOException e) {
+            throw new JnomicsThriftException(e.toString());
+        }
+        return encode(jhandle, buf, total);
     }
 
 //    
@@ -356,10 +576,18 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
     @Override
     public void close(JnomicsThriftHandle handle, Authentication auth) throws TException, JnomicsThriftException {
         UUID u = UUID.fromString(handle.getUuid());
-        JnomicsFsHandle jhandle = handleMap.get(u);
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
 
 
-        if(jhandle.getOutStream() != null){
+        if(jhandle.getWriteBehind() != null){
+            try {
+                jhandle.getWriteBehind().close();
+            } catch (IOException e) {
+                log.error("Problem writing file");
+                e.printStackTrace();
+                throw new JnomicsThriftException(e.toString());
+            }
+        }else if(jhandle.getOutStream() != null){
             try {
                 jhandle.getOutStream().close();
             } catch (IOException e) {
@@ -368,6 +596,11 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
                 throw new JnomicsThriftException(e.toString());
             }
         }else if(jhandle.getInStream() != null){
+            if(jhandle.getReadAhead() != null){
+                jhandle.getReadAhead().close();
+                log.info("Read-ahead hit " + jhandle.getReadAhead().getHits() + " of "
+                        + (jhandle.getReadAhead().getHits() + jhandle.getReadAhead().getMisses()) + " reads");
+            }
             try {
                 jhandle.getInStream().close();
             } catch (IOException e) {
@@ -375,15 +608,269 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
                 e.printStackTrace();
                 throw new JnomicsThriftException(e.toString());
             }
+        }else if(jhandle.getMerged() != null){
+            try {
+                jhandle.getMerged().close();
+            } catch (IOException e) {
+                log.error("Problem closing merged files");
+                throw new JnomicsThriftException(e.toString());
+            }
         }
 
+        if(null != jhandle.getPath())
+            metadataCache.invalidate(jhandle.getUsername(), jhandle.getPath());
         try {
             closeFileSystem(jhandle.getFileSystem());
         }finally{
-            handleMap.remove(u);
+            handles.remove(u);
         }
     }
     
+    @Override
+    public JnomicsThriftHandle beginUpload(String path, Authentication auth) throws TException, JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        log.info("Starting upload: " + path + " for user: " + username);
+
+        FileSystem fs = getFileSystem(username);
+        Path dest = new Path(path);
+        UUID id = UUID.randomUUID();
+        Path partDir = getPartDir(dest, id);
+        try{
+            if(!fs.mkdirs(partDir))
+                throw new IOException("Could not create " + partDir);
+        }catch(IOException e){
+            log.error("Problem starting upload " + path);
+            closeFileSystem(fs);
+            throw new JnomicsThriftException(e.toString());
+        }
+
+        JnomicsUploadSession session = new JnomicsUploadSession(fs, dest, partDir);
+        try{
+            uploads.register(username, id, session);
+        }catch(JnomicsThriftException e){
+            discardUpload(session);
+            throw e;
+        }
+        return new JnomicsThriftHandle(id.toString());
+    }
+
+    private static String getPartDirPrefix(Path dest){
+        return "." + dest.getName() + "._upload_";
+    }
+
+    private static Path getPartDir(Path dest, UUID id){
+        return new Path(dest.getParent(), getPartDirPrefix(dest) + id);
+    }
+
+    @Override
+    public JnomicsThriftUploadState resumeUpload(String path, Authentication auth) throws TException, JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        Path dest = new Path(path);
+        String prefix = getPartDirPrefix(dest);
+        FileSystem fs = getFileSystem(username);
+        FileStatus newest = null;
+        try{
+            /**drop abandoned uploads to the same destination while looking for the latest one**/
+            FileStatus[] stats = fs.listStatus(dest.getParent());
+            long now = System.currentTimeMillis();
+            for(FileStatus stat : null == stats ? new FileStatus[0] : stats){
+                if(!stat.isDir() || !stat.getPath().getName().startsWith(prefix))
+                    continue;
+                if(now - stat.getModificationTime() > uploadRetention){
+                    UUID id = parseUploadId(stat.getPath(), prefix);
+                    if(null == id || null == uploads.get(id)){
+                        log.info("Removing abandoned upload " + stat.getPath());
+                        fs.delete(stat.getPath(), true);
+                        continue;
+                    }
+                }
+                if(null == newest || stat.getModificationTime() > newest.getModificationTime())
+                    newest = stat;
+            }
+        }catch(IOException e){
+            log.error("Problem looking for uploads to " + path);
+            closeFileSystem(fs);
+            throw new JnomicsThriftException(e.toString());
+        }
+
+        UUID id = null == newest ? null : parseUploadId(newest.getPath(), prefix);
+        if(null == id){
+            closeFileSystem(fs);
+            return new JnomicsThriftUploadState(beginUpload(path, auth), new HashMap<Integer, Long>(), 0);
+        }
+
+        if(null != uploads.get(id) && null == uploads.get(id, username)){
+            closeFileSystem(fs);
+            throw new JnomicsThriftException("Upload to " + path + " is in progress by another user");
+        }
+        JnomicsUploadSession session = uploads.get(id, username);
+        if(null == session){
+            /**the session expired, rebuild it from the stored parts**/
+            session = new JnomicsUploadSession(fs, dest, newest.getPath());
+            try{
+                for(FileStatus part : fs.listStatus(newest.getPath())){
+                    session.addPartFile(part.getPath().getName(), part.getLen());
+                }
+            }catch(IOException e){
+                log.error("Problem reading parts of " + newest.getPath());
+                closeFileSystem(fs);
+                throw new JnomicsThriftException(e.toString());
+            }
+            try{
+                uploads.register(username, id, session);
+                fs = null;
+            }catch(JnomicsThriftException e){
+                //resumed concurrently by another connection
+                session = uploads.get(id, username);
+                if(null == session){
+                    closeFileSystem(fs);
+                    throw e;
+                }
+            }
+        }
+        if(null != fs)
+            closeFileSystem(fs);
+        log.info("Resuming upload: " + path + " for user: " + username + " with "
+                + session.getPartCount() + " parts stored");
+        return new JnomicsThriftUploadState(new JnomicsThriftHandle(id.toString()),
+                session.getParts(), session.getCommittedLength());
+    }
+
+    private static UUID parseUploadId(Path partDir, String prefix){
+        try{
+            return UUID.fromString(partDir.getName().substring(prefix.length()));
+        }catch(IllegalArgumentException e){
+            return null;
+        }
+    }
+
+    /**
+     * @return the user's upload session
+     * @throws JnomicsThriftException if the upload does not exist, has expired or belongs to another user
+     */
+    private JnomicsUploadSession getUploadSession(JnomicsThriftHandle upload, String username)
+            throws JnomicsThriftException {
+        JnomicsUploadSession session = uploads.get(UUID.fromString(upload.getUuid()), username);
+        if(null == session)
+            throw new JnomicsThriftException("Unknown or expired upload: " + upload.getUuid());
+        return session;
+    }
+
+    @Override
+    public void uploadPart(JnomicsThriftHandle upload, int partNo, ByteBuffer data, long checksum, Authentication auth)
+            throws TException, JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        JnomicsUploadSession session = getUploadSession(upload, username);
+
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        if(crc.getValue() != checksum){
+            throw new JnomicsThriftException("Checksum mismatch for part " + partNo);
+        }
+
+        /**write under a temporary name so only complete parts are ever found by resumeUpload**/
+        FileSystem fs = session.getFileSystem();
+        Path partPath = session.getPartPath(partNo, checksum);
+        Path tmpPath = new Path(session.getPartDir(), "_" + partPath.getName() + "_" + UUID.randomUUID());
+        Long replaced;
+        try{
+            FSDataOutputStream out = fs.create(tmpPath, true);
+            try{
+                out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            }finally{
+                out.close();
+            }
+            if(fs.exists(partPath))
+                fs.delete(partPath, false);
+            if(!fs.rename(tmpPath, partPath))
+                throw new IOException("Could not store " + partPath);
+            replaced = session.addPart(partNo, checksum, data.remaining());
+            if(null != replaced && replaced != checksum)
+                fs.delete(session.getPartPath(partNo, replaced), false);
+        }catch(IOException e){
+            log.error("Problem writing part " + partNo + " of " + session.getDestination());
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    @Override
+    public boolean completeUpload(JnomicsThriftHandle upload, int numParts, Authentication auth)
+            throws TException, JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        JnomicsUploadSession session = getUploadSession(upload, username);
+        if(!session.hasParts(numParts)){
+            throw new JnomicsThriftException("Upload incomplete: received " + session.getPartCount()
+                    + " of " + numParts + " parts");
+        }
+        /**claim the session so it cannot expire or be completed twice while the parts are composed**/
+        if(null == uploads.remove(UUID.fromString(upload.getUuid()), username))
+            throw new JnomicsThriftException("Upload already completed: " + upload.getUuid());
+        log.info("Completing upload: " + session.getDestination() + " for user: " + username);
+
+        FileSystem fs = session.getFileSystem();
+        Path composed = new Path(session.getPartDir(), "_composed");
+        boolean state = false;
+        try{
+            FSDataOutputStream out = fs.create(composed, true);
+            try{
+                for(int i = 0; i < numParts; i++){
+                    FSDataInputStream in = fs.open(session.getPartPath(i));
+                    try{
+                        IOUtils.copyBytes(in, out, 65536, false);
+                    }finally{
+                        in.close();
+                    }
+                }
+            }finally{
+                out.close();
+            }
+            /**rename does not overwrite in hdfs, match create() which does**/
+            if(fs.exists(session.getDestination()))
+                fs.delete(session.getDestination(), false);
+            state = fs.rename(composed, session.getDestination());
+        }catch(IOException e){
+            log.error("Problem composing upload " + session.getDestination());
+            throw new JnomicsThriftException(e.toString());
+        }finally{
+            metadataCache.invalidate(username, session.getDestination().toString());
+            discardUpload(session);
+        }
+        return state;
+    }
+
+    @Override
+    public void abortUpload(JnomicsThriftHandle upload, Authentication auth) throws TException, JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        JnomicsUploadSession session = uploads.remove(UUID.fromString(upload.getUuid()), username);
+        if(null != session)
+            discardUpload(session);
+    }
+
+    private void discardUpload(JnomicsUploadSession session) throws JnomicsThriftException {
+        try{
+            session.getFileSystem().delete(session.getPartDir(), true);
+        }catch(IOException e){
+            log.error("Problem removing parts in " + session.getPartDir());
+        }finally{
+            closeFileSystem(session.getFileSystem());
+        }
+    }
+
     @Override
     public List<String> listShockStatus(String dest,
     		Authentication auth) throws JnomicsThriftException, TException {
@@ -432,6 +919,12 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         }
         
         log.info("Getting file status of "+ path + " for user "+ username);
+
+        long generation = metadataCache.getGeneration();
+        List<JnomicsThriftFileStatus> cached =
+                (List<JnomicsThriftFileStatus>) metadataCache.get(JnomicsMetadataCache.LIST, username, path);
+        if(null != cached)
+            return cached;
         
         FileSystem fs = getFileSystem(username);
         FileStatus[] stats;
@@ -449,22 +942,78 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
             return new ArrayList<JnomicsThriftFileStatus>();
 
         JnomicsThriftFileStatus[] thriftStatuses = new JnomicsThriftFileStatus[stats.length];
-        FileStatus c;
         for(int i=0; i< stats.length; ++i){
-            c = stats[i];
-            thriftStatuses[i] = new JnomicsThriftFileStatus(c.isDir(),
-                    c.getPath().toString(),
-                    c.getOwner(),
-                    c.getGroup(),
-                    c.getPermission().toString(),
-                    c.getReplication(),
-                    c.getModificationTime(),
-                    c.getBlockSize(),
-                    c.getLen()
-            );
+            thriftStatuses[i] = toThriftStatus(stats[i]);
         }
-        
-        return Arrays.asList(thriftStatuses);
+
+        List<JnomicsThriftFileStatus> statusList = Arrays.asList(thriftStatuses);
+        metadataCache.put(JnomicsMetadataCache.LIST, username, path, statusList, generation);
+        return statusList;
+    }
+
+    @Override
+    public JnomicsThriftStatusPage listStatusPage(String path, String cursor, int limit, boolean recursive,
+                                                  Authentication auth) throws TException, JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        if(limit <= 0 || limit > listPageMax)
+            limit = listPageMax;
+
+        JnomicsListing listing;
+        UUID listingId = null;
+        if(null == cursor || cursor.isEmpty()){
+            log.info("Listing "+ path + (recursive ? " recursively" : "") + " for user "+ username);
+            listing = new JnomicsListing(new Path(path), recursive);
+        }else{
+            listingId = UUID.fromString(cursor);
+            listing = listings.get(listingId, username);
+            if(null == listing)
+                throw new JnomicsThriftException("Unknown or expired listing: " + cursor);
+        }
+
+        FileSystem fs = getFileSystem(username);
+        List<FileStatus> stats;
+        try{
+            stats = listing.next(fs, limit, metadataPool, listParallelism);
+        }catch(IOException e){
+            log.error("Problem listing " + path + " for user: " + username);
+            if(null != listingId)
+                listings.remove(listingId, username);
+            throw new JnomicsThriftException(e.toString());
+        }finally{
+            closeFileSystem(fs);
+        }
+
+        List<JnomicsThriftFileStatus> thriftStatuses = new ArrayList<JnomicsThriftFileStatus>(stats.size());
+        for(FileStatus stat : stats){
+            thriftStatuses.add(toThriftStatus(stat));
+        }
+
+        String nextCursor = "";
+        if(listing.isFinished()){
+            if(null != listingId)
+                listings.remove(listingId, username);
+        }else{
+            if(null == listingId)
+                listingId = listings.register(username, listing);
+            nextCursor = listingId.toString();
+        }
+        return new JnomicsThriftStatusPage(thriftStatuses, nextCursor);
+    }
+
+    private static JnomicsThriftFileStatus toThriftStatus(FileStatus c){
+        return new JnomicsThriftFileStatus(c.isDir(),
+                c.getPath().toString(),
+                c.getOwner(),
+                c.getGroup(),
+                c.getPermission().toString(),
+                c.getReplication(),
+                c.getModificationTime(),
+                c.getBlockSize(),
+                c.getLen()
+        );
     }
 	@Override
 	public boolean checkFileStatus(String path, Authentication auth) throws TException, JnomicsThriftException {
@@ -475,10 +1024,16 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         
         log.info("Getting file status of "+ path + " for user "+ username);
         
+        long generation = metadataCache.getGeneration();
+        Boolean cached = (Boolean) metadataCache.get(JnomicsMetadataCache.EXISTS, username, path);
+        if(null != cached)
+            return cached;
+
         FileSystem fs = getFileSystem(username);
         boolean ret; 
         try{
             ret = fs.exists(new Path(path));
+            metadataCache.put(JnomicsMetadataCache.EXISTS, username, path, ret, generation);
         }catch(Exception e){
             log.error("Could not open the filesystem");
             e.printStackTrace();
@@ -489,6 +1044,46 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         return ret;
 	}
 	
+    @Override
+    public JnomicsThriftFileChecksum getFileChecksum(String path, Authentication auth) throws TException, JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Getting checksum of " + path + " for user " + username);
+
+        FileSystem fs = getFileSystem(username);
+        FileChecksum sum;
+        try{
+            sum = fs.getFileChecksum(new Path(path));
+        }catch(IOException e){
+            log.error("Problem getting checksum of " + path + " for user: " + username);
+            throw new JnomicsThriftException(e.toString());
+        }finally{
+            closeFileSystem(fs);
+        }
+        if(null == sum)
+            return new JnomicsThriftFileChecksum("", 0, 0, "");
+
+        /**MD5MD5CRC32FileChecksum serializes as bytesPerCRC, crcPerBlock, md5**/
+        byte[] bytes = sum.getBytes();
+        if(28 == bytes.length){
+            try{
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                int bytesPerCrc = in.readInt();
+                long crcPerBlock = in.readLong();
+                byte[] md5 = new byte[16];
+                in.readFully(md5);
+                if(sum.getAlgorithmName().equals("MD5-of-" + crcPerBlock + "MD5-of-" + bytesPerCrc + "CRC32"))
+                    return new JnomicsThriftFileChecksum(sum.getAlgorithmName(), bytesPerCrc, crcPerBlock, JnomicsChecksums.toHex(md5));
+            }catch(IOException e){
+                //not the layout we expected, fall through
+            }
+        }
+        return new JnomicsThriftFileChecksum(sum.getAlgorithmName(), 0, 0, JnomicsChecksums.toHex(bytes));
+    }
+
     @Override
     public boolean remove(String path, boolean recursive, Authentication auth) throws JnomicsThriftException, TException {
         String username;
@@ -507,6 +1102,7 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
             e.printStackTrace();
             throw new JnomicsThriftException(e.toString());
         }finally{
+            metadataCache.invalidate(username, path);
             closeFileSystem(fs);
         }
         return state;
@@ -529,6 +1125,7 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
             e.printStackTrace();
             throw new JnomicsThriftException(e.toString());
         }finally{
+            metadataCache.invalidate(username, path);
             closeFileSystem(fs);
         }
         return state;
@@ -550,6 +1147,8 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         } catch (IOException e) {
             throw new JnomicsThriftException(e.toString());
         }finally{
+            metadataCache.invalidate(username, path);
+            metadataCache.invalidate(username, dest);
             closeFileSystem(fs);
         }
         return state;
@@ -563,27 +1162,257 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         }
         
         log.info("Listing genomes for user "+ username);
-        
-        FileSystem fs = getFileSystem(username);
+
         List<String> genomeList = new ArrayList<String>();
-        try {
-            FileStatus[] stats = fs.listStatus(new Path(properties.getProperty("hdfs-index-repo")));
-            for(FileStatus stat: stats){
-                String name = stat.getPath().getName();
-                if(name.contains("_samtools.tar.gz")){
-                    genomeList.add(name.substring(0,name.indexOf("_samtools.tar.gz")));
+        for(JnomicsThriftGenomeInfo info : getGenomeCatalog().getGenomes()){
+            if(genomeCatalog.hasArchive(info.getName(), "samtools"))
+                genomeList.add(info.getName());
+        }
+        return genomeList;
+    }
+
+    @Override
+    public List<JnomicsThriftGenomeInfo> listGenomeInfo(Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Listing genome info for user "+ username);
+
+        List<JnomicsThriftGenomeInfo> genomes = new ArrayList<JnomicsThriftGenomeInfo>();
+        for(JnomicsThriftGenomeInfo info : getGenomeCatalog().getGenomes()){
+            genomes.add(new JnomicsThriftGenomeInfo(info.getName(), info.getArchives(), new HashMap<String, Long>()));
+        }
+        return genomes;
+    }
+
+    @Override
+    public JnomicsThriftGenomeInfo getGenomeInfo(String name, Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Getting genome info of "+ name + " for user "+ username);
+
+        JnomicsThriftGenomeInfo info = getGenomeCatalog().getGenome(name);
+        if(null == info)
+            throw new JnomicsThriftException(name + " does not exist in the repository");
+        return info;
+    }
+
+    private JnomicsGenomeCatalog getGenomeCatalog() throws JnomicsThriftException {
+        if(!genomeCatalog.isLoaded())
+            throw new JnomicsThriftException("Genome catalog is not available");
+        return genomeCatalog;
+    }
+
+    /**
+     * Runs op for each of count paths on one filesystem, one after the other
+     * in the order of the paths, for batches whose steps depend on each other
+     */
+    private <T> List<T> runSequential(FileSystem fs, int count, PathOp<T> op) throws JnomicsThriftException {
+        List<T> results = new ArrayList<T>(count);
+        try{
+            for(int i = 0; i < count; i++){
+                results.add(op.run(fs, i));
+            }
+        }catch(IOException e){
+            throw new JnomicsThriftException(e.toString());
+        }
+        return results;
+    }
+
+    /**
+     * Runs op for each of count paths on one filesystem. Batches of more than one
+     * path are spread over the metadata pool, results keep the order of the paths
+     */
+    private <T> List<T> runBatch(final FileSystem fs, int count, final PathOp<T> op) throws JnomicsThriftException {
+        if(count <= 1)
+            return runSequential(fs, count, op);
+
+        List<T> results = new ArrayList<T>(count);
+        List<Callable<T>> tasks = new ArrayList<Callable<T>>(count);
+        for(int i = 0; i < count; i++){
+            final int idx = i;
+            tasks.add(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return op.run(fs, idx);
                 }
+            });
+        }
+        try{
+            for(Future<T> result : metadataPool.invokeAll(tasks)){
+                results.add(result.get());
             }
-        } catch (IOException e) {
+        }catch(InterruptedException e){
             throw new JnomicsThriftException(e.toString());
+        }catch(ExecutionException e){
+            throw new JnomicsThriftException(e.getCause().toString());
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, JnomicsThriftFileStatus> statMany(final List<String> paths, Authentication auth)
+            throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Getting file status of "+ paths.size() + " paths for user "+ username);
+
+        FileSystem fs = getFileSystem(username);
+        List<JnomicsThriftFileStatus> stats;
+        try{
+            stats = runBatch(fs, paths.size(), new PathOp<JnomicsThriftFileStatus>() {
+                @Override
+                public JnomicsThriftFileStatus run(FileSystem fs, int i) throws IOException {
+                    try{
+                        return toThriftStatus(fs.getFileStatus(new Path(paths.get(i))));
+                    }catch(FileNotFoundException e){
+                        return null;
+                    }
+                }
+            });
         }finally{
             closeFileSystem(fs);
         }
 
-        return genomeList;
+        Map<String, JnomicsThriftFileStatus> statMap = new HashMap<String, JnomicsThriftFileStatus>();
+        for(int i = 0; i < paths.size(); i++){
+            if(null != stats.get(i))
+                statMap.put(paths.get(i), stats.get(i));
+        }
+        return statMap;
     }
-    
-    
 
+    @Override
+    public List<Boolean> existsMany(final List<String> paths, Authentication auth)
+            throws JnomicsThriftException, TException {
+        final String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Checking "+ paths.size() + " paths for user "+ username);
+
+        FileSystem fs = getFileSystem(username);
+        try{
+            return runBatch(fs, paths.size(), new PathOp<Boolean>() {
+                @Override
+                public Boolean run(FileSystem fs, int i) throws IOException {
+                    long generation = metadataCache.getGeneration();
+                    Boolean exists = (Boolean) metadataCache.get(JnomicsMetadataCache.EXISTS, username, paths.get(i));
+                    if(null == exists){
+                        exists = fs.exists(new Path(paths.get(i)));
+                        metadataCache.put(JnomicsMetadataCache.EXISTS, username, paths.get(i), exists, generation);
+                    }
+                    return exists;
+                }
+            });
+        }finally{
+            closeFileSystem(fs);
+        }
+    }
+
+    @Override
+    public List<Boolean> removeMany(final List<String> paths, final boolean recursive, Authentication auth)
+            throws JnomicsThriftException, TException {
+        final String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Removing "+ paths.size() + " paths for user "+ username);
+
+        /**in order, so removing a directory and a path inside it has one outcome**/
+        FileSystem fs = getFileSystem(username);
+        try{
+            return runSequential(fs, paths.size(), new PathOp<Boolean>() {
+                @Override
+                public Boolean run(FileSystem fs, int i) {
+                    try{
+                        return fs.delete(new Path(paths.get(i)), recursive);
+                    }catch(IOException e){
+                        log.error("Problem deleting " + paths.get(i) + " for user: " + username);
+                        return false;
+                    }finally{
+                        metadataCache.invalidate(username, paths.get(i));
+                    }
+                }
+            });
+        }finally{
+            closeFileSystem(fs);
+        }
+    }
+
+    @Override
+    public List<Boolean> mkdirMany(final List<String> paths, Authentication auth)
+            throws JnomicsThriftException, TException {
+        final String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Making "+ paths.size() + " directories for user "+ username);
+
+        FileSystem fs = getFileSystem(username);
+        try{
+            return runBatch(fs, paths.size(), new PathOp<Boolean>() {
+                @Override
+                public Boolean run(FileSystem fs, int i) {
+                    try{
+                        return fs.mkdirs(new Path(paths.get(i)));
+                    }catch(IOException e){
+                        log.error("Problem making directory "+ paths.get(i) + " for user: " + username);
+                        return false;
+                    }finally{
+                        metadataCache.invalidate(username, paths.get(i));
+                    }
+                }
+            });
+        }finally{
+            closeFileSystem(fs);
+        }
+    }
+
+    @Override
+    public List<Boolean> mvMany(final List<String> paths, final List<String> dests, Authentication auth)
+            throws JnomicsThriftException, TException {
+        final String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        if(paths.size() != dests.size()){
+            throw new JnomicsThriftException("Got " + paths.size() + " paths but " + dests.size() + " destinations");
+        }
+
+        log.info("Moving "+ paths.size() + " paths for user "+ username);
+
+        /**in order, so chained moves such as a to b then b to c do what they say**/
+        FileSystem fs = getFileSystem(username);
+        try{
+            return runSequential(fs, paths.size(), new PathOp<Boolean>() {
+                @Override
+                public Boolean run(FileSystem fs, int i) {
+                    try{
+                        return fs.rename(new Path(paths.get(i)), new Path(dests.get(i)));
+                    }catch(IOException e){
+                        log.error("Problem moving " + paths.get(i) + " for user: " + username);
+                        return false;
+                    }finally{
+                        metadataCache.invalidate(username, paths.get(i));
+                        metadataCache.invalidate(username, dests.get(i));
+                    }
+                }
+            });
+        }finally{
+            closeFileSystem(fs);
+        }
+    }
 
 }
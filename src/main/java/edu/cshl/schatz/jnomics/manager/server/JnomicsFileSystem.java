@@ -1,7 +1,14 @@
 package edu.cshl.schatz.jnomics.manager.server;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -12,11 +19,46 @@ import org.slf4j.LoggerFactory;
 
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
 
+/**
+ * Hands out user scoped FileSystems from a pool. Each FileSystem is shared by
+ * every caller acting as the same user and reference counted; closeFileSystem
+ * releases a reference. FileSystems nobody holds are kept for reuse and closed
+ * once they have been idle for fs-pool-idle-timeout seconds or when more than
+ * fs-pool-max-idle are idle, least recently used first.
+ *
+ * Callers must release through closeFileSystem and never call close() on a
+ * pooled FileSystem themselves.
+ */
 public class JnomicsFileSystem {
-    
+
 	private static final org.slf4j.Logger log = LoggerFactory.getLogger(JnomicsFileSystem.class);
 
-	public static FileSystem getFileSystem(Properties properties, String username) 
+	private static final String SUPERUSER = "hdfs";
+
+	private static class PooledFileSystem {
+		private final FileSystem fs;
+		private int refCount = 0;
+		private long idleSince;
+
+		private PooledFileSystem(FileSystem fs){
+			this.fs = fs;
+		}
+	}
+
+	/**key: uri and username, in least recently used order**/
+	private static final LinkedHashMap<String, PooledFileSystem> pool =
+			new LinkedHashMap<String, PooledFileSystem>(16, 0.75f, true);
+	private static final Map<FileSystem, PooledFileSystem> leased =
+			new IdentityHashMap<FileSystem, PooledFileSystem>();
+	private static int idleCount = 0;
+	private static long idleTimeout = 300 * 1000;
+	private static int maxIdle = 64;
+	private static boolean configured = false;
+
+	/**key: username, value: time the home directory was last confirmed to exist**/
+	private static final ConcurrentHashMap<String, Long> homeChecked = new ConcurrentHashMap<String, Long>();
+
+	public static FileSystem getFileSystem(Properties properties, String username)
 												throws JnomicsThriftException {
         URI uri;
         String fsName = properties.getProperty("hdfs-default-name");
@@ -28,36 +70,137 @@ public class JnomicsFileSystem {
             throw new JnomicsThriftException(e.toString());
         }
 
-        FileSystem fs = null;
         /**Check if the user has a home directory**/
-        Path userHome = new Path("/user", username);
-        try {
-            fs = FileSystem.get(uri,new Configuration(), "hdfs");
-            FileStatus[] stats = fs.listStatus(userHome);
-            if(null == stats){ //create user's home directory
-                fs.mkdirs(userHome,new FsPermission("755"));
-                fs.setOwner(userHome,username,"kbase");
+        long homeTtl = 1000 * Long.parseLong(properties.getProperty("fs-home-cache-ttl", "600"));
+        Long checked = homeChecked.get(username);
+        if(null == checked || System.currentTimeMillis() - checked > homeTtl){
+            FileSystem fs = null;
+            Path userHome = new Path("/user", username);
+            try {
+                fs = acquire(properties, uri, SUPERUSER);
+                FileStatus[] stats = fs.listStatus(userHome);
+                if(null == stats){ //create user's home directory
+                    fs.mkdirs(userHome,new FsPermission("755"));
+                    fs.setOwner(userHome,username,"kbase");
+                }
+                homeChecked.put(username, System.currentTimeMillis());
+            } catch (Exception e) {
+                log.error("Error Creating Filesystem");
+                e.printStackTrace();
+                throw new JnomicsThriftException(e.toString());
+            } finally {
+                if(null != fs)
+                    release(fs);
             }
-            fs.close();
-        } catch (Exception e) {
-            log.error("Error Creating Filesystem");
-            e.printStackTrace();
-            throw new JnomicsThriftException(e.toString());
         }
 
         try{
-            fs = FileSystem.get(uri, new Configuration(), username);
+            return acquire(properties, uri, username);
         } catch(Exception e){
             log.error("Problem creating filesystem");
             e.printStackTrace();
             throw new JnomicsThriftException(e.toString());
         }
-
-        return fs;
     }
 
+	/**
+	 * Releases a FileSystem obtained from getFileSystem. FileSystems the pool
+	 * has not leased out, because they did not come from it or were already
+	 * released, are logged and left open
+	 */
 	public static void closeFileSystem(FileSystem fs) throws Exception{
-		fs.close();
+		release(fs);
+	}
+
+	private static FileSystem acquire(Properties properties, URI uri, String username) throws Exception {
+		String key = uri + "#" + username;
+		PooledFileSystem pooled;
+		synchronized (pool){
+			if(!configured){
+				idleTimeout = 1000 * Long.parseLong(properties.getProperty("fs-pool-idle-timeout", "300"));
+				maxIdle = Integer.parseInt(properties.getProperty("fs-pool-max-idle", "64"));
+				configured = true;
+			}
+			pooled = pool.get(key);
+			if(null != pooled){
+				if(0 == pooled.refCount++)
+					idleCount--;
+				leased.put(pooled.fs, pooled);
+			}
+		}
+		if(null != pooled)
+			return pooled.fs;
+
+		FileSystem fs = FileSystem.get(uri, new Configuration(), username);
+		List<FileSystem> toClose = null;
+		synchronized (pool){
+			pooled = pool.get(key);
+			if(null == pooled){
+				pooled = new PooledFileSystem(fs);
+				pool.put(key, pooled);
+				pooled.refCount = 1;
+				fs = null;
+			}else if(0 == pooled.refCount++){
+				idleCount--;
+			}
+			leased.put(pooled.fs, pooled);
+			toClose = evict();
+		}
+		if(null != fs) //lost a race with another caller for the same user
+			fs.close();
+		closeAll(toClose);
+		return pooled.fs;
+	}
+
+	private static void release(FileSystem fs){
+		List<FileSystem> toClose;
+		synchronized (pool){
+			PooledFileSystem pooled = leased.get(fs);
+			if(null == pooled){
+				log.warn("Ignoring release of a filesystem the pool has not leased out: " + fs.getUri());
+				return;
+			}
+			if(0 == --pooled.refCount){
+				leased.remove(fs);
+				pooled.idleSince = System.currentTimeMillis();
+				idleCount++;
+			}
+			toClose = evict();
+		}
+		closeAll(toClose);
+	}
+
+	/**
+	 * Drops idle FileSystems that are too old or over the idle limit, oldest first.
+	 * Must hold the pool lock, the returned FileSystems are closed by the caller outside it
+	 */
+	private static List<FileSystem> evict(){
+		List<FileSystem> toClose = new ArrayList<FileSystem>();
+		long now = System.currentTimeMillis();
+		Iterator<PooledFileSystem> it = pool.values().iterator();
+		while(it.hasNext() && idleCount > 0){
+			PooledFileSystem pooled = it.next();
+			if(pooled.refCount > 0)
+				continue;
+			if(idleCount > maxIdle || now - pooled.idleSince > idleTimeout){
+				it.remove();
+				idleCount--;
+				toClose.add(pooled.fs);
+			}
+		}
+		return toClose;
+	}
+
+	private static void closeAll(List<FileSystem> filesystems){
+		if(null == filesystems)
+			return;
+		for(FileSystem fs : filesystems){
+			try{
+				fs.close();
+			}catch(Exception e){
+				log.error("Problem closing filesystem: " + e.toString());
+			}
+		}
 	}
 }
-		
+
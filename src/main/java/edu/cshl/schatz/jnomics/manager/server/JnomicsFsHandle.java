@@ -1,9 +1,12 @@
 package edu.cshl.schatz.jnomics.manager.server;
 
+import edu.cshl.schatz.jnomics.manager.common.JnomicsCompression;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 
+import java.io.IOException;
+
 /**
  * User: james
  */
@@ -13,11 +16,15 @@ public class JnomicsFsHandle{
     private FileSystem fileSystem = null;
     private FSDataOutputStream outStream = null;
     private FSDataInputStream inStream = null;
-    private long lastUsed;
+    private JnomicsWriteBehindStream writeBehind = null;
+    private JnomicsReadAhead readAhead = null;
+    private JnomicsMergedStream merged = null;
+    private String username = null;
+    private String path = null;
+    private String codec = JnomicsCompression.NONE;
 
     private JnomicsFsHandle(FileSystem fs){
         fileSystem = fs;
-        lastUsed = System.currentTimeMillis();
     }
 
     public JnomicsFsHandle(FileSystem fs, FSDataOutputStream stream){
@@ -29,9 +36,10 @@ public class JnomicsFsHandle{
         this(fs);
         inStream = stream;
     }
-    
-    public void updateLastUsed(){
-        lastUsed = System.currentTimeMillis();
+
+    public JnomicsFsHandle(FileSystem fs, JnomicsMergedStream stream){
+        this(fs);
+        merged = stream;
     }
     
     public FileSystem getFileSystem() {
@@ -58,11 +66,81 @@ public class JnomicsFsHandle{
         this.inStream = inStream;
     }
 
-    public long getLastUsed() {
-        return lastUsed;
+    public JnomicsWriteBehindStream getWriteBehind() {
+        return writeBehind;
+    }
+
+    public void setWriteBehind(JnomicsWriteBehindStream writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public JnomicsReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    public void setReadAhead(JnomicsReadAhead readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    public JnomicsMergedStream getMerged() {
+        return merged;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
     }
 
-    public void setLastUsed(long lastUsed) {
-        this.lastUsed = lastUsed;
+    /**
+     * Closes the streams and filesystem, ignoring errors.
+     * Used for handles that were abandoned by the client
+     */
+    public void closeQuietly(){
+        if(writeBehind != null){
+            try {
+                writeBehind.close();
+            } catch (IOException e) {
+            }
+        }else if(outStream != null){
+            try {
+                outStream.close();
+            } catch (IOException e) {
+            }
+        }else if(inStream != null){
+            if(readAhead != null)
+                readAhead.close();
+            try {
+                inStream.close();
+            } catch (IOException e) {
+            }
+        }else if(merged != null){
+            try {
+                merged.close();
+            } catch (IOException e) {
+            }
+        }
+        try {
+            JnomicsFileSystem.closeFileSystem(fileSystem);
+        } catch (Exception e) {
+        }
     }
 }
\ No newline at end of file
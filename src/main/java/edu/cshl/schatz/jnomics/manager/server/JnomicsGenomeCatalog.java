@@ -0,0 +1,259 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftGenomeArchive;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftGenomeInfo;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * In memory catalog of the reference genomes in hdfs-index-repo.
+ *
+ * The repo holds one archive per organism and tool, named
+ * organism_kind.tar.gz, and optionally organism.fa.fai with contig lengths.
+ * A background thread checks the repo's modification time and only relists
+ * it when it has changed; archives whose length and modification time are
+ * unchanged keep their previous checksum. Lookups never touch hdfs.
+ */
+public class JnomicsGenomeCatalog implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsGenomeCatalog.class);
+
+    public static final String[] KINDS = {"bowtie", "bwa", "samtools", "gatk"};
+    private static final String ARCHIVE_SUFFIX = ".tar.gz";
+    private static final String FAI_SUFFIX = ".fa.fai";
+
+    private static JnomicsGenomeCatalog instance = null;
+
+    private final Properties properties;
+    private final Path repo;
+    private final long refreshInterval;
+    private final boolean checksums;
+
+    private long repoModTime = -1;
+    /**key: archive file name**/
+    private Map<String, JnomicsThriftGenomeArchive> archives = new HashMap<String, JnomicsThriftGenomeArchive>();
+    /**key: fai file name, value: mod time and contigs**/
+    private Map<String, Long> faiModTimes = new HashMap<String, Long>();
+    private Map<String, Map<String, Long>> contigs = new HashMap<String, Map<String, Long>>();
+
+    private volatile Map<String, JnomicsThriftGenomeInfo> genomes = null;
+
+    /**
+     * @return the catalog for this server, loading it and starting its refresh thread on first use
+     */
+    public static synchronized JnomicsGenomeCatalog getInstance(Properties properties){
+        if(null == instance){
+            instance = new JnomicsGenomeCatalog(properties);
+            instance.refresh();
+            Thread t = new Thread(instance);
+            t.setDaemon(true);
+            t.start();
+        }
+        return instance;
+    }
+
+    private JnomicsGenomeCatalog(Properties properties){
+        this.properties = properties;
+        repo = new Path(properties.getProperty("hdfs-index-repo"));
+        refreshInterval = 1000 * Long.parseLong(properties.getProperty("genome-catalog-refresh", "60"));
+        checksums = Boolean.parseBoolean(properties.getProperty("genome-catalog-checksums", "true"));
+    }
+
+    @Override
+    public void run() {
+        while(true){
+            try {
+                Thread.sleep(refreshInterval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            refresh();
+        }
+    }
+
+    /**
+     * Relists the repo if it has changed since the last refresh
+     */
+    public synchronized void refresh(){
+        FileSystem fs = null;
+        try{
+            fs = JnomicsFileSystem.getFileSystem(properties, "hdfs");
+            long modTime = fs.getFileStatus(repo).getModificationTime();
+            if(null != genomes && modTime == repoModTime)
+                return;
+            FileStatus[] stats = fs.listStatus(repo);
+            if(null == stats)
+                stats = new FileStatus[0];
+
+            Map<String, JnomicsThriftGenomeArchive> newArchives = new HashMap<String, JnomicsThriftGenomeArchive>();
+            Map<String, Long> newFaiModTimes = new HashMap<String, Long>();
+            Map<String, Map<String, Long>> newContigs = new HashMap<String, Map<String, Long>>();
+            Map<String, JnomicsThriftGenomeInfo> newGenomes = new TreeMap<String, JnomicsThriftGenomeInfo>();
+
+            for(FileStatus stat : stats){
+                String name = stat.getPath().getName();
+                if(name.endsWith(FAI_SUFFIX)){
+                    String organism = name.substring(0, name.length() - FAI_SUFFIX.length());
+                    Long prev = faiModTimes.get(name);
+                    Map<String, Long> lengths = contigs.get(organism);
+                    if(null == prev || prev != stat.getModificationTime() || null == lengths)
+                        lengths = readContigs(fs, stat.getPath());
+                    newFaiModTimes.put(name, stat.getModificationTime());
+                    newContigs.put(organism, lengths);
+                    continue;
+                }
+                String kind = archiveKind(name);
+                if(null == kind)
+                    continue;
+                String organism = name.substring(0, name.length() - ARCHIVE_SUFFIX.length() - kind.length() - 1);
+
+                JnomicsThriftGenomeArchive archive = archives.get(name);
+                if(null == archive || archive.getLength() != stat.getLen()
+                        || archive.getMod_time() != stat.getModificationTime()){
+                    archive = new JnomicsThriftGenomeArchive(kind, stat.getPath().toUri().getPath(),
+                            stat.getLen(), checksum(fs, stat.getPath()), stat.getModificationTime());
+                }
+                newArchives.put(name, archive);
+
+                JnomicsThriftGenomeInfo info = newGenomes.get(organism);
+                if(null == info){
+                    info = new JnomicsThriftGenomeInfo(organism, new ArrayList<JnomicsThriftGenomeArchive>(),
+                            new HashMap<String, Long>());
+                    newGenomes.put(organism, info);
+                }
+                info.getArchives().add(archive);
+            }
+            for(JnomicsThriftGenomeInfo info : newGenomes.values()){
+                Map<String, Long> lengths = newContigs.get(info.getName());
+                if(null != lengths)
+                    info.setContigs(lengths);
+            }
+
+            archives = newArchives;
+            faiModTimes = newFaiModTimes;
+            contigs = newContigs;
+            repoModTime = modTime;
+            genomes = Collections.unmodifiableMap(newGenomes);
+            log.info("Genome catalog loaded " + newGenomes.size() + " genomes from " + repo);
+        }catch(Exception e){
+            log.error("Problem refreshing genome catalog: " + e.toString());
+        }finally{
+            if(null != fs){
+                try{
+                    JnomicsFileSystem.closeFileSystem(fs);
+                }catch(Exception e){
+                }
+            }
+        }
+    }
+
+    private static String archiveKind(String name){
+        for(String kind : KINDS){
+            if(name.endsWith("_" + kind + ARCHIVE_SUFFIX))
+                return kind;
+        }
+        return null;
+    }
+
+    private String checksum(FileSystem fs, Path path){
+        if(!checksums)
+            return "";
+        try{
+            FileChecksum sum = fs.getFileChecksum(path);
+            return null == sum ? "" : sum.toString();
+        }catch(IOException e){
+            log.error("Problem getting checksum of " + path + ": " + e.toString());
+            return "";
+        }
+    }
+
+    private static Map<String, Long> readContigs(FileSystem fs, Path fai) throws IOException {
+        Map<String, Long> lengths = new HashMap<String, Long>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(fai)));
+        try{
+            String line;
+            while(null != (line = reader.readLine())){
+                String[] fields = line.split("\t");
+                if(fields.length >= 2)
+                    lengths.put(fields[0], Long.parseLong(fields[1]));
+            }
+        }finally{
+            reader.close();
+        }
+        return lengths;
+    }
+
+    /**
+     * @return true once the repo has been listed at least once
+     */
+    public boolean isLoaded(){
+        return null != genomes;
+    }
+
+    /**
+     * @return every genome, sorted by name
+     */
+    public List<JnomicsThriftGenomeInfo> getGenomes(){
+        Map<String, JnomicsThriftGenomeInfo> current = genomes;
+        if(null == current)
+            return new ArrayList<JnomicsThriftGenomeInfo>();
+        return new ArrayList<JnomicsThriftGenomeInfo>(current.values());
+    }
+
+    /**
+     * @return the genome, null if it is not in the catalog
+     */
+    public JnomicsThriftGenomeInfo getGenome(String name){
+        Map<String, JnomicsThriftGenomeInfo> current = genomes;
+        return null == current || null == name ? null : current.get(name);
+    }
+
+    /**
+     * @return true if the genome has an archive of the given kind
+     */
+    public boolean hasArchive(String name, String kind){
+        JnomicsThriftGenomeInfo info = getGenome(name);
+        if(null == info)
+            return false;
+        for(JnomicsThriftGenomeArchive archive : info.getArchives()){
+            if(archive.getKind().equals(kind))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks a job's reference genome against the catalog. Passes if the
+     * catalog could not be loaded, so an hdfs hiccup at startup does not
+     * block every submission
+     * @throws JnomicsThriftException if no genome is named, or the genome or its archive is missing
+     */
+    public void checkArchive(String name, String kind) throws JnomicsThriftException {
+        if(null == name || name.isEmpty())
+            throw new JnomicsThriftException("No reference genome given");
+        if(!isLoaded()){
+            log.warn("Genome catalog not loaded, not checking " + name);
+            return;
+        }
+        if(null == getGenome(name))
+            throw new JnomicsThriftException(name + " does not exist in the repository");
+        if(!hasArchive(name, kind))
+            throw new JnomicsThriftException(name + " has no " + kind + " index");
+    }
+}
@@ -0,0 +1,379 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.ggf.drmaa.DrmaaException;
+import org.ggf.drmaa.InvalidJobException;
+import org.ggf.drmaa.JobInfo;
+import org.ggf.drmaa.JobTemplate;
+import org.ggf.drmaa.NoActiveSessionException;
+import org.ggf.drmaa.Session;
+import org.ggf.drmaa.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the compute server's one DRMAA session, which every grid
+ * submission and status query goes through, instead of setting up grid
+ * access for each call.
+ *
+ * Statuses are cached. A background thread refreshes every active grid job
+ * once per grid-status-interval seconds, and status calls read the cache.
+ * Jobs that are done or failed stay cached for grid-status-retention
+ * seconds. A finished job's final state goes to the job registry and its
+ * configuration file, named after the job in grid-conf-dir, is removed.
+ * Only grid jobs in the registry are looked up, and a job the grid no
+ * longer knows has ended. The registry's unfinished grid jobs are cached
+ * at startup, so jobs submitted before a restart are still followed to
+ * their end.
+ *
+ * DRMAA reports a job as DONE whatever its exit status, so a finished
+ * job's exit status is taken from wait(), or from the marker file
+ * GridJobLauncher.sh writes next to the configuration when the grid has
+ * forgotten the job. Only a job that exited with 0 is DONE here, any other
+ * or unknown exit status makes it FAILED. With grid-drmaa=local jobs run
+ * as local processes through JnomicsLocalDrmaaSession, so grid calls can
+ * be tried without SGE.
+ */
+public class JnomicsGridSessionManager implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsGridSessionManager.class);
+
+    private static final String[] STATES = new String[0x100];
+    static{
+        STATES[Session.UNDETERMINED] = "UNDETERMINED";
+        STATES[Session.QUEUED_ACTIVE] = "QUEUED_ACTIVE";
+        STATES[Session.SYSTEM_ON_HOLD] = "SYSTEM_ON_HOLD";
+        STATES[Session.USER_ON_HOLD] = "USER_ON_HOLD";
+        STATES[Session.USER_SYSTEM_ON_HOLD] = "USER_SYSTEM_ON_HOLD";
+        STATES[Session.RUNNING] = "RUNNING";
+        STATES[Session.SYSTEM_SUSPENDED] = "SYSTEM_SUSPENDED";
+        STATES[Session.USER_SUSPENDED] = "USER_SUSPENDED";
+        STATES[Session.USER_SYSTEM_SUSPENDED] = "USER_SYSTEM_SUSPENDED";
+        STATES[Session.DONE] = "DONE";
+        STATES[Session.FAILED] = "FAILED";
+    }
+
+    private static JnomicsGridSessionManager instance;
+
+    private static class GridJob {
+        private volatile String state;
+        private volatile long finishTime = 0;
+        private volatile String failureInfo = "";
+        //local copy of the job's configuration, removed once the job finishes
+        private final String confPath;
+
+        private GridJob(String state, String confPath){
+            this.state = state;
+            this.confPath = confPath;
+        }
+    }
+
+    private final Properties properties;
+
+    private final long interval;
+    private final long retention;
+    private final String contact;
+    private final String nativeSpec;
+    private final File confDir;
+    private final Session session;
+    private boolean initialized = false;
+
+    private final ConcurrentHashMap<String, GridJob> jobs = new ConcurrentHashMap<String, GridJob>();
+
+    public static synchronized JnomicsGridSessionManager getInstance(Properties properties){
+        if(null == instance){
+            instance = new JnomicsGridSessionManager(properties);
+            instance.resume();
+            Thread t = new Thread(instance);
+            t.setDaemon(true);
+            t.start();
+        }
+        return instance;
+    }
+
+    private JnomicsGridSessionManager(Properties properties){
+        this.properties = properties;
+        interval = 1000 * Long.parseLong(properties.getProperty("grid-status-interval", "10"));
+        retention = 1000 * Long.parseLong(properties.getProperty("grid-status-retention", "86400"));
+        contact = properties.getProperty("grid-drmaa-contact", "");
+        nativeSpec = properties.getProperty("grid-native-spec", "");
+        confDir = new File(properties.getProperty("grid-conf-dir",
+                System.getProperty("user.home") + "/.jnomics-grid-conf"));
+        if("local".equals(properties.getProperty("grid-drmaa", "sge")))
+            session = new JnomicsLocalDrmaaSession();
+        else
+            session = SessionFactory.getFactory().getSession();
+    }
+
+    /**
+     * Caches the grid jobs the registry has not seen finish, submitted before a restart
+     */
+    private void resume(){
+        try{
+            for(JnomicsThriftJobRecord record : JnomicsJobRegistry.getInstance(properties)
+                    .getUnfinished(JnomicsJobRegistry.GRID)){
+                jobs.putIfAbsent(record.getJob_id(), new GridJob("UNDETERMINED", confFile(record.getName())));
+            }
+        }catch(IOException e){
+            log.error("Failed to load unfinished grid jobs: " + e.toString());
+        }
+        if(!jobs.isEmpty())
+            log.info("Following " + jobs.size() + " grid jobs submitted before the restart");
+    }
+
+    /**
+     * Opens the session on first use, so the server starts when the grid is unavailable
+     */
+    private synchronized Session getSession() throws DrmaaException {
+        if(!initialized){
+            session.init(contact);
+            initialized = true;
+            log.info("Opened DRMAA session with " + session.getDrmSystem());
+        }
+        return session;
+    }
+
+    /**
+     * Reopens the session after the drm has dropped it
+     */
+    private synchronized void reset(){
+        initialized = false;
+        try{
+            session.exit();
+        }catch(DrmaaException e){
+            //already gone
+        }
+    }
+
+    private static String stateName(int state){
+        String name = state >= 0 && state < STATES.length ? STATES[state] : null;
+        return null == name ? "UNDETERMINED" : name;
+    }
+
+    private static boolean isFinished(String state){
+        return "DONE".equals(state) || "FAILED".equals(state);
+    }
+
+    /**
+     * @return local file a grid job's configuration is written to, in grid-conf-dir
+     */
+    public String getConfPath(String jobName) throws IOException {
+        if(!confDir.isDirectory() && !confDir.mkdirs())
+            throw new IOException("Cannot create grid configuration directory " + confDir);
+        return confFile(jobName);
+    }
+
+    private String confFile(String jobName){
+        return new File(confDir, jobName + ".xml").getPath();
+    }
+
+    /**
+     * Submits the job run by grid-script-path for a grid job's configuration,
+     * as GridJobLauncher.sh expects it: one argument, the job's working
+     * directory and configuration file separated by a colon
+     * @param confPath local file the job's configuration was written to
+     * @return grid job id
+     */
+    public String submit(String jobName, Configuration conf, String confPath) throws JnomicsThriftException {
+        try{
+            return submitOnce(jobName, conf, confPath);
+        }catch(NoActiveSessionException e){
+            reset();
+        }catch(DrmaaException e){
+            throw new JnomicsThriftException(e.toString());
+        }
+        try{
+            return submitOnce(jobName, conf, confPath);
+        }catch(DrmaaException e){
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    private String submitOnce(String jobName, Configuration conf, String confPath) throws DrmaaException {
+        Session s = getSession();
+        JobTemplate jt = s.createJobTemplate();
+        try{
+            jt.setJobName(jobName);
+            jt.setRemoteCommand(conf.get("grid-script-path"));
+            jt.setArgs(Arrays.asList(conf.get("grid_working_dir", "") + ":" + confPath));
+            jt.setWorkingDirectory(System.getProperty("user.home"));
+            if(!nativeSpec.isEmpty())
+                jt.setNativeSpecification(nativeSpec);
+            String jobId = s.runJob(jt);
+            jobs.put(jobId, new GridJob(stateName(Session.QUEUED_ACTIVE), confPath));
+            log.info("Submitted grid job " + jobName + " as " + jobId);
+            return jobId;
+        }finally{
+            s.deleteJobTemplate(jt);
+        }
+    }
+
+    /**
+     * @return the job's state, from the cache once the job has been seen
+     * @throws JnomicsThriftException if the job is not one of username's grid jobs
+     */
+    public String getState(String jobId, String username) throws JnomicsThriftException {
+        JnomicsThriftJobRecord record;
+        try{
+            record = JnomicsJobRegistry.getInstance(properties).get(jobId);
+        }catch(IOException e){
+            throw new JnomicsThriftException(e.toString());
+        }
+        if(null == record || !JnomicsJobRegistry.GRID.equals(record.getBackend())
+                || !record.getUsername().equals(username))
+            throw new JnomicsThriftException("Unknown grid job: " + jobId);
+        GridJob job = jobs.get(jobId);
+        if(null != job)
+            return job.state;
+        if(0 != record.getFinish_time())
+            return record.getState();
+        //submitted before a restart
+        job = new GridJob("UNDETERMINED", confFile(record.getName()));
+        GridJob existing = jobs.putIfAbsent(jobId, job);
+        if(null != existing)
+            return existing.state;
+        refresh(jobId, job, System.currentTimeMillis());
+        return job.state;
+    }
+
+    /**
+     * @return the job's state, null if the grid no longer knows the job
+     */
+    private String fetchState(String jobId) throws JnomicsThriftException {
+        try{
+            return stateName(getSession().getJobProgramStatus(jobId));
+        }catch(InvalidJobException e){
+            return null;
+        }catch(NoActiveSessionException e){
+            reset();
+            throw new JnomicsThriftException(e.toString());
+        }catch(DrmaaException e){
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    /**
+     * Asks the grid for the job's state, and finishes the job once it is done
+     * or failed or the grid has forgotten it
+     */
+    private void refresh(String jobId, GridJob job, long now) throws JnomicsThriftException {
+        synchronized(job){
+            if(0 != job.finishTime)
+                return;
+            String state = fetchState(jobId);
+            if(null == state || stateName(Session.DONE).equals(state)){
+                //a job the grid has forgotten ended while nobody was polling
+                Integer exitStatus = null == state ? null : exitStatus(jobId);
+                if(null == exitStatus)
+                    exitStatus = markedExitStatus(job);
+                if(null != exitStatus && 0 == exitStatus){
+                    state = stateName(Session.DONE);
+                }else{
+                    state = stateName(Session.FAILED);
+                    job.failureInfo = "exit status " + (null == exitStatus ? "unknown" : exitStatus);
+                }
+            }
+            job.state = state;
+            if(isFinished(state)){
+                job.finishTime = now;
+                finished(jobId, job);
+            }
+        }
+    }
+
+    /**
+     * @return exit status of a job the grid reports DONE, null if the grid cannot tell
+     */
+    private Integer exitStatus(String jobId){
+        try{
+            JobInfo info = getSession().wait(jobId, Session.TIMEOUT_NO_WAIT);
+            return info.hasExited() ? info.getExitStatus() : null;
+        }catch(DrmaaException e){
+            log.warn("No exit status for grid job " + jobId + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @return exit status GridJobLauncher.sh left next to the job's configuration, null if there is none
+     */
+    private static Integer markedExitStatus(GridJob job){
+        if(null == job.confPath)
+            return null;
+        File marker = new File(job.confPath + ".exit");
+        if(!marker.exists())
+            return null;
+        try{
+            BufferedReader in = new BufferedReader(new FileReader(marker));
+            try{
+                return Integer.valueOf(in.readLine().trim());
+            }finally{
+                in.close();
+            }
+        }catch(Exception e){
+            log.warn("Unreadable exit status in " + marker + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Refreshes every job that has not finished and forgets finished jobs past the retention
+     */
+    public void poll(){
+        long now = System.currentTimeMillis();
+        for(String jobId : jobs.keySet()){
+            GridJob job = jobs.get(jobId);
+            if(null == job)
+                continue;
+            if(0 != job.finishTime){
+                if(job.finishTime < now - retention)
+                    jobs.remove(jobId);
+                continue;
+            }
+            try{
+                refresh(jobId, job, now);
+            }catch(JnomicsThriftException e){
+                log.error("Failed to get grid job status: " + e.getMsg());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records the job's final state and removes its configuration and exit status files
+     */
+    private void finished(String jobId, GridJob job){
+        try{
+            JnomicsJobRegistry.getInstance(properties).recordFinish(jobId, job.state, job.failureInfo);
+        }catch(IOException e){
+            log.error("Failed to record the end of grid job " + jobId + ": " + e.toString());
+        }
+        if(null == job.confPath)
+            return;
+        if(!new File(job.confPath).delete())
+            log.warn("Failed to remove " + job.confPath);
+        new File(job.confPath + ".exit").delete();
+    }
+
+    @Override
+    public void run() {
+        while(true){
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            poll();
+        }
+    }
+}
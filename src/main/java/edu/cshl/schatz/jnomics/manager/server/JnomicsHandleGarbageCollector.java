@@ -3,9 +3,7 @@ package edu.cshl.schatz.jnomics.manager.server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.util.Map;
-import java.util.UUID;
+import java.util.List;
 
 /**
  * User: james
@@ -13,51 +11,61 @@ import java.util.UUID;
 public class JnomicsHandleGarbageCollector implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(JnomicsHandleGarbageCollector.class);
-    private static final int SLEEP_INTERVAL = 60 * 1000 * 4;
+    private static final long STATS_INTERVAL = 60 * 1000 * 4;
 
-    private Map<UUID,JnomicsFsHandle> handles;
+    private JnomicsHandleRegistry<JnomicsFsHandle> handles;
+    private JnomicsHandleRegistry<JnomicsUploadSession> uploads;
+    private JnomicsHandleRegistry<JnomicsListing> listings;
+    private JnomicsMetadataCache metadataCache;
 
     public JnomicsHandleGarbageCollector(JnomicsDataHandler handler) {
-        handles = handler.getHandleMap();
+        handles = handler.getHandles();
+        uploads = handler.getUploads();
+        listings = handler.getListings();
+        metadataCache = handler.getMetadataCache();
     }
 
     @Override
     public void run() {
+        long lastStats = System.currentTimeMillis();
         while(true){
             try {
-                Thread.sleep(SLEEP_INTERVAL);
+                Thread.sleep(Math.min(handles.getTickDuration(), uploads.getTickDuration()));
             } catch (InterruptedException e) {
                 break;
             }
-            JnomicsFsHandle handle;
-            UUID uuid;
-            int count = 0;
-            for(Map.Entry<UUID,JnomicsFsHandle> entry: handles.entrySet()){
-                uuid = entry.getKey();
-                handle = entry.getValue();
-
-                if(System.currentTimeMillis() - handle.getLastUsed() > SLEEP_INTERVAL){
-                    if(handle.getOutStream() != null){
-                        try {
-                            handle.getOutStream().close();
-                        } catch (IOException e) {
-                        }
-                    }else if(handle.getInStream() != null){
-                        try {
-                            handle.getInStream().close();
-                        } catch (IOException e) {
-                        }
-                    }
-                    try {
-                        handle.getFileSystem().close();
-                    } catch (IOException e) {
-                    } finally{
-                        handles.remove(uuid);
-                        count++;
-                    }
+
+            List<JnomicsFsHandle> expired = handles.expireIdle();
+            for(JnomicsFsHandle handle: expired){
+                handle.closeQuietly();
+            }
+            if(!expired.isEmpty())
+                logger.info("FS Handle Garbage Collector removed "+expired.size()+" unused handles");
+
+            /**parts are left in place for resumeUpload, which removes them after data-upload-retention**/
+            List<JnomicsUploadSession> abandoned = uploads.expireIdle();
+            for(JnomicsUploadSession upload: abandoned){
+                try {
+                    JnomicsFileSystem.closeFileSystem(upload.getFileSystem());
+                } catch (Exception e) {
                 }
             }
-            logger.info("FS Handle Garbage Collector removed "+count+" unused handles");
+            if(!abandoned.isEmpty())
+                logger.info("FS Handle Garbage Collector removed "+abandoned.size()+" idle uploads");
+
+            List<JnomicsListing> unfinished = listings.expireIdle();
+            if(!unfinished.isEmpty())
+                logger.info("FS Handle Garbage Collector removed "+unfinished.size()+" unfinished listings");
+
+            if(System.currentTimeMillis() - lastStats > STATS_INTERVAL){
+                lastStats = System.currentTimeMillis();
+                logger.info(String.format("%d open handles, read-ahead hit rate %.3f over %d reads",
+                        handles.size(), JnomicsReadAhead.getTotalHitRate(), JnomicsReadAhead.getTotalReads()));
+                if(metadataCache.isEnabled())
+                    logger.info(String.format("Metadata cache: %d entries, %d hits, %d misses, %d evictions",
+                            metadataCache.size(), metadataCache.getHits(), metadataCache.getMisses(),
+                            metadataCache.getEvictions()));
+            }
         }
     }
 }
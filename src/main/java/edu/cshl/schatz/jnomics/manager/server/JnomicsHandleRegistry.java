@@ -0,0 +1,217 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of open handles keyed by uuid.
+ *
+ * Lookups go through a ConcurrentHashMap so transfers on different handles
+ * do not contend. Idle handles are found with a hashed timing wheel: each
+ * handle sits in the slot for its idle deadline, and only the slot for the
+ * current tick is examined. Using a handle just updates its last used time;
+ * when its slot comes up it is moved to the slot for its new deadline
+ * instead of being expired.
+ */
+public class JnomicsHandleRegistry<T> {
+
+    private static final int WHEEL_SIZE = 64;
+
+    private static class Entry<T> {
+        private final UUID id;
+        private final String username;
+        private final T value;
+        private volatile long lastUsed;
+
+        private Entry(UUID id, String username, T value){
+            this.id = id;
+            this.username = username;
+            this.value = value;
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private final ConcurrentHashMap<UUID, Entry<T>> entries = new ConcurrentHashMap<UUID, Entry<T>>();
+    private final ConcurrentHashMap<String, AtomicInteger> userCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentLinkedQueue<Entry<T>>[] wheel;
+    private final long idleTimeout;
+    private final long tickDuration;
+    private final int maxPerUser;
+    private volatile long lastTick;
+
+    /**
+     * @param idleTimeout milliseconds a handle may go unused before it is expired
+     * @param maxPerUser most handles a single user may have open
+     */
+    @SuppressWarnings("unchecked")
+    public JnomicsHandleRegistry(long idleTimeout, int maxPerUser){
+        this.idleTimeout = idleTimeout;
+        this.maxPerUser = maxPerUser;
+        //the wheel has to span a full timeout so a deadline never wraps onto the current slot
+        tickDuration = Math.max(1000, idleTimeout / (WHEEL_SIZE - 4));
+        wheel = new ConcurrentLinkedQueue[WHEEL_SIZE];
+        for(int i = 0; i < WHEEL_SIZE; i++){
+            wheel[i] = new ConcurrentLinkedQueue<Entry<T>>();
+        }
+        lastTick = System.currentTimeMillis() / tickDuration;
+    }
+
+    private void schedule(Entry<T> entry, long minTick){
+        long deadlineTick = Math.max((entry.lastUsed + idleTimeout) / tickDuration, minTick);
+        wheel[(int)(deadlineTick % WHEEL_SIZE)].add(entry);
+    }
+
+    /**
+     * @return the new handle's uuid
+     * @throws JnomicsThriftException if the user already has the maximum number of handles open
+     */
+    public UUID register(String username, T value) throws JnomicsThriftException {
+        reserve(username);
+        UUID id;
+        Entry<T> entry;
+        do{
+            id = UUID.randomUUID();
+            entry = new Entry<T>(id, username, value);
+        }while(null != entries.putIfAbsent(id, entry));
+        schedule(entry, lastTick + 1);
+        return id;
+    }
+
+    /**
+     * Registers a handle under a uuid chosen by the caller, so a handle can be
+     * registered again under the same uuid after it has expired
+     * @throws JnomicsThriftException if the user already has the maximum number of handles open
+     * or the uuid is in use
+     */
+    public void register(String username, UUID id, T value) throws JnomicsThriftException {
+        reserve(username);
+        Entry<T> entry = new Entry<T>(id, username, value);
+        if(null != entries.putIfAbsent(id, entry)){
+            release(username);
+            throw new JnomicsThriftException("Handle already open: " + id);
+        }
+        schedule(entry, lastTick + 1);
+    }
+
+    private void reserve(String username) throws JnomicsThriftException {
+        while(true){
+            AtomicInteger count = userCounts.get(username);
+            if(null == count){
+                AtomicInteger newCount = new AtomicInteger(0);
+                count = userCounts.putIfAbsent(username, newCount);
+                if(null == count)
+                    count = newCount;
+            }
+            int current;
+            while(0 <= (current = count.get())){
+                if(current >= maxPerUser)
+                    throw new JnomicsThriftException("Too many open handles for user " + username);
+                if(count.compareAndSet(current, current + 1))
+                    return;
+            }
+            //released to 0 and being removed, start over with a new counter
+        }
+    }
+
+    /**
+     * Gives back one of the user's handles, dropping the user's counter when it reaches 0.
+     * A dropped counter is marked -1 first so reserve never counts on it again
+     */
+    private void release(String username){
+        AtomicInteger count = userCounts.get(username);
+        if(0 == count.decrementAndGet() && count.compareAndSet(0, -1))
+            userCounts.remove(username, count);
+    }
+
+    /**
+     * Looks up a handle and marks it as used
+     * @return the handle, null if it does not exist or has expired
+     */
+    public T get(UUID id){
+        Entry<T> entry = entries.get(id);
+        if(null == entry)
+            return null;
+        entry.lastUsed = System.currentTimeMillis();
+        return entry.value;
+    }
+
+    /**
+     * Looks up a handle of the given user and marks it as used
+     * @return the handle, null if it does not exist, has expired or belongs to another user
+     */
+    public T get(UUID id, String username){
+        Entry<T> entry = entries.get(id);
+        if(null == entry || !entry.username.equals(username))
+            return null;
+        entry.lastUsed = System.currentTimeMillis();
+        return entry.value;
+    }
+
+    /**
+     * @return the removed handle, null if it was not registered
+     */
+    public T remove(UUID id){
+        Entry<T> entry = entries.remove(id);
+        if(null == entry)
+            return null;
+        release(entry.username);
+        return entry.value;
+    }
+
+    /**
+     * @return the removed handle, null if it was not registered or belongs to another user
+     */
+    public T remove(UUID id, String username){
+        Entry<T> entry = entries.get(id);
+        if(null == entry || !entry.username.equals(username) || !entries.remove(id, entry))
+            return null;
+        release(entry.username);
+        return entry.value;
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public long getTickDuration(){
+        return tickDuration;
+    }
+
+    /**
+     * Advances the wheel to the current time. Handles whose idle deadline has
+     * passed are removed from the registry and returned for the caller to close.
+     */
+    public synchronized List<T> expireIdle(){
+        List<T> expired = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        long currentTick = now / tickDuration;
+        //never walk more than one full turn, every slot is visited by then
+        long firstTick = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+        for(long tick = firstTick; tick <= currentTick; tick++){
+            ConcurrentLinkedQueue<Entry<T>> slot = wheel[(int)(tick % WHEEL_SIZE)];
+            List<Entry<T>> due = new ArrayList<Entry<T>>();
+            Entry<T> entry;
+            while(null != (entry = slot.poll())){
+                due.add(entry);
+            }
+            for(Entry<T> e : due){
+                if(entries.get(e.id) != e)
+                    continue; //already closed
+                if(e.lastUsed + idleTimeout > now){
+                    schedule(e, currentTick + 1);
+                }else if(entries.remove(e.id, e)){
+                    release(e.username);
+                    expired.add(e.value);
+                }
+            }
+        }
+        lastTick = currentTick;
+        return expired;
+    }
+}
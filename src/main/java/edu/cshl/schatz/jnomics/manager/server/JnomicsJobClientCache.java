@@ -0,0 +1,215 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps one UserGroupInformation and JobClient per user so status polls and
+ * submissions reuse the jobtracker proxy instead of opening a new one on
+ * every call. Hadoop's rpc connections are keyed by the UGI, so reusing the
+ * UGI also reuses the connection.
+ *
+ * A client that has not been used for job-client-health-interval seconds,
+ * or whose last task failed, is checked with a cluster status call before it
+ * is handed out and replaced if the check fails. Clients unused for
+ * job-client-idle-timeout seconds are closed. A client dropped from the
+ * cache while it is borrowed is closed when its last borrower releases it.
+ */
+public class JnomicsJobClientCache implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsJobClientCache.class);
+
+    private static JnomicsJobClientCache instance;
+
+    public static class Client {
+        private final String username;
+        private final UserGroupInformation ugi;
+        private final JobClient jobClient;
+        private final AtomicInteger borrowers = new AtomicInteger(0);
+        //set once the client is no longer in the cache
+        private volatile boolean retired = false;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile long lastChecked = System.currentTimeMillis();
+
+        private Client(String username, UserGroupInformation ugi, JobClient jobClient){
+            this.username = username;
+            this.ugi = ugi;
+            this.jobClient = jobClient;
+        }
+
+        public UserGroupInformation getUgi() {
+            return ugi;
+        }
+
+        public JobClient getJobClient() {
+            return jobClient;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<String, Client>();
+    private final Properties properties;
+    private final long idleTimeout;
+    private final long healthInterval;
+
+    public static synchronized JnomicsJobClientCache getInstance(Properties properties){
+        if(null == instance){
+            instance = new JnomicsJobClientCache(properties);
+            Thread t = new Thread(instance);
+            t.setDaemon(true);
+            t.start();
+        }
+        return instance;
+    }
+
+    private JnomicsJobClientCache(Properties properties){
+        this.properties = properties;
+        idleTimeout = 1000 * Long.parseLong(properties.getProperty("job-client-idle-timeout", "600"));
+        healthInterval = 1000 * Long.parseLong(properties.getProperty("job-client-health-interval", "60"));
+    }
+
+    /**
+     * @return address of the jobtracker, host:port
+     */
+    public String getJobTracker(){
+        return properties.getProperty("mapreduce-jobtracker-host") + ":"
+                + Integer.parseInt(properties.getProperty("mapreduce-jobtracker-port"));
+    }
+
+    /**
+     * Hands out the user's client, creating or replacing it if needed. Every
+     * borrow must be matched by a release
+     */
+    public Client borrow(String username) throws Exception {
+        while(true){
+            Client client = clients.get(username);
+            if(null == client){
+                client = create(username);
+                Client existing = clients.putIfAbsent(username, client);
+                if(null != existing){
+                    close(client);
+                    client = existing;
+                }
+            }
+            client.borrowers.incrementAndGet();
+            if(clients.get(username) != client){
+                //evicted between the lookup and the borrow
+                giveBack(client);
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            if(now - client.lastChecked > healthInterval && !isHealthy(client)){
+                log.warn("Replacing job client for " + username);
+                if(clients.remove(username, client))
+                    client.retired = true;
+                giveBack(client);
+                continue;
+            }
+            client.lastUsed = now;
+            return client;
+        }
+    }
+
+    /**
+     * @param failed true if the task run with the client failed, so it is checked before its next use
+     */
+    public void release(Client client, boolean failed){
+        client.lastUsed = System.currentTimeMillis();
+        if(failed)
+            client.lastChecked = 0;
+        giveBack(client);
+    }
+
+    private void giveBack(Client client){
+        if(0 == client.borrowers.decrementAndGet() && client.retired)
+            closeWhenIdle(client);
+    }
+
+    private Client create(final String username) throws Exception {
+        final UserGroupInformation ugi = UserGroupInformation.createRemoteUser(username);
+        JobClient jobClient = ugi.doAs(new PrivilegedExceptionAction<JobClient>() {
+            @Override
+            public JobClient run() throws Exception {
+                Configuration conf = JnomicsBaseConfiguration.getInstance(properties).newConf();
+                conf.set("mapred.job.tracker", getJobTracker());
+                return new JobClient(new JobConf(conf));
+            }
+        });
+        log.info("Created job client for " + username);
+        return new Client(username, ugi, jobClient);
+    }
+
+    private boolean isHealthy(final Client client){
+        try{
+            client.ugi.doAs(new PrivilegedExceptionAction<Object>() {
+                @Override
+                public Object run() throws Exception {
+                    return client.jobClient.getClusterStatus();
+                }
+            });
+        }catch(Exception e){
+            log.warn("Job client for " + client.username + " failed health check: " + e.toString());
+            return false;
+        }
+        client.lastChecked = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Closes a retired client once nobody borrows it, at most once
+     */
+    private void closeWhenIdle(Client client){
+        if(0 == client.borrowers.get() && client.closed.compareAndSet(false, true))
+            close(client);
+    }
+
+    private void close(Client client){
+        try{
+            client.jobClient.close();
+        }catch(IOException e){
+            log.warn("Failed to close job client for " + client.username + ": " + e.toString());
+        }
+    }
+
+    /**
+     * Closes clients that have gone unused for the idle timeout
+     */
+    public void evictIdle(){
+        long cutoff = System.currentTimeMillis() - idleTimeout;
+        Iterator<Client> it = clients.values().iterator();
+        while(it.hasNext()){
+            Client client = it.next();
+            if(client.lastUsed < cutoff && 0 == client.borrowers.get()
+                    && clients.remove(client.username, client)){
+                //a borrow that raced the removal closes the client when it releases it
+                client.retired = true;
+                closeWhenIdle(client);
+                log.info("Closed idle job client for " + client.username);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while(true){
+            try {
+                Thread.sleep(Math.max(1000, idleTimeout / 4));
+            } catch (InterruptedException e) {
+                break;
+            }
+            evictIdle();
+        }
+    }
+}
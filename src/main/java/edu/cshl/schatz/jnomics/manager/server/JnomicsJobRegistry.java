@@ -0,0 +1,407 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobRecord;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobRecordPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Record of every job the compute server has submitted, hadoop and grid.
+ *
+ * Records are kept in memory, indexed by job id, user, type and state, and
+ * persisted to an append-only log in job-registry-dir: one entry when a job
+ * is submitted and one when it is seen to finish. The log is replayed at
+ * startup and compacted to one entry per job once it holds more than
+ * twice as many entries as jobs. Compaction also drops finished jobs older
+ * than job-registry-retention days. Jobs queued through the submission
+ * queue can also be found by their tracking id, which is one of their params.
+ */
+public class JnomicsJobRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsJobRegistry.class);
+
+    public static final String HADOOP = "hadoop";
+    public static final String GRID = "grid";
+    public static final String SUBMITTED = "SUBMITTED";
+
+    private static final String LOG_NAME = "jobs.log";
+    private static final byte SUBMIT_ENTRY = 1;
+    private static final byte FINISH_ENTRY = 2;
+    private static final int MIN_COMPACT = 10000;
+    private static final int MAX_STRING = 1 << 26;
+
+    private static JnomicsJobRegistry instance;
+
+    private static class Record {
+        private long seq;
+        private String jobId;
+        private String username;
+        private String name;
+        private String type;
+        private String backend;
+        private String state = SUBMITTED;
+        private long submitTime;
+        private long finishTime = 0;
+        private String failureInfo = "";
+        private Map<String, String> params;
+    }
+
+    private final File logFile;
+    private final long retention;
+    private DataOutputStream out;
+    private long nextSeq = 1;
+    private long entries = 0;
+
+    private final TreeMap<Long, Record> bySeq = new TreeMap<Long, Record>();
+    private final Map<String, Record> byId = new HashMap<String, Record>();
+    private final Map<String, Record> byTrackingId = new HashMap<String, Record>();
+    private final Map<String, NavigableSet<Long>> byUser = new HashMap<String, NavigableSet<Long>>();
+    private final Map<String, NavigableSet<Long>> byType = new HashMap<String, NavigableSet<Long>>();
+    private final Map<String, NavigableSet<Long>> byState = new HashMap<String, NavigableSet<Long>>();
+
+    public static synchronized JnomicsJobRegistry getInstance(Properties properties) throws IOException {
+        if(null == instance){
+            File dir = new File(properties.getProperty("job-registry-dir",
+                    System.getProperty("user.home") + "/.jnomics-registry"));
+            long retention = 86400000L * Long.parseLong(properties.getProperty("job-registry-retention", "365"));
+            instance = new JnomicsJobRegistry(dir, retention);
+        }
+        return instance;
+    }
+
+    private JnomicsJobRegistry(File dir, long retention) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create job registry directory " + dir);
+        this.logFile = new File(dir, LOG_NAME);
+        this.retention = retention;
+        if(logFile.exists())
+            replay();
+        //rewrite at startup, which also drops a partly written last entry
+        compact();
+        log.info("Job registry has " + byId.size() + " jobs");
+    }
+
+    private void replay() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+        try{
+            while(true){
+                byte kind = in.readByte();
+                if(SUBMIT_ENTRY == kind){
+                    Record r = new Record();
+                    r.seq = in.readLong();
+                    r.jobId = readString(in);
+                    r.username = readString(in);
+                    r.name = readString(in);
+                    r.type = readString(in);
+                    r.backend = readString(in);
+                    r.submitTime = in.readLong();
+                    int n = in.readInt();
+                    r.params = new HashMap<String, String>();
+                    for(int i = 0; i < n; i++){
+                        r.params.put(readString(in), readString(in));
+                    }
+                    add(r);
+                    nextSeq = Math.max(nextSeq, r.seq + 1);
+                }else if(FINISH_ENTRY == kind){
+                    String jobId = readString(in);
+                    String state = readString(in);
+                    long finishTime = in.readLong();
+                    String failureInfo = readString(in);
+                    Record r = byId.get(jobId);
+                    if(null != r)
+                        setFinished(r, state, finishTime, failureInfo);
+                }else{
+                    log.warn("Job registry log is corrupt after " + byId.size() + " jobs");
+                    break;
+                }
+            }
+        }catch(EOFException e){
+            //end of the log, or a partly written last entry
+        }finally{
+            in.close();
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if(len < 0)
+            return null;
+        if(len > MAX_STRING)
+            throw new EOFException("Corrupt string length " + len);
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if(null == s){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes("UTF-8");
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static void writeSubmit(DataOutputStream out, Record r) throws IOException {
+        out.writeByte(SUBMIT_ENTRY);
+        out.writeLong(r.seq);
+        writeString(out, r.jobId);
+        writeString(out, r.username);
+        writeString(out, r.name);
+        writeString(out, r.type);
+        writeString(out, r.backend);
+        out.writeLong(r.submitTime);
+        out.writeInt(r.params.size());
+        for(Map.Entry<String, String> e : r.params.entrySet()){
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+    }
+
+    private static void writeFinish(DataOutputStream out, Record r) throws IOException {
+        out.writeByte(FINISH_ENTRY);
+        writeString(out, r.jobId);
+        writeString(out, r.state);
+        out.writeLong(r.finishTime);
+        writeString(out, r.failureInfo);
+    }
+
+    private static void index(Map<String, NavigableSet<Long>> idx, String key, long seq){
+        NavigableSet<Long> set = idx.get(key);
+        if(null == set){
+            set = new TreeSet<Long>();
+            idx.put(key, set);
+        }
+        set.add(seq);
+    }
+
+    private static void unindex(Map<String, NavigableSet<Long>> idx, String key, long seq){
+        NavigableSet<Long> set = idx.get(key);
+        if(null != set){
+            set.remove(seq);
+            if(set.isEmpty())
+                idx.remove(key);
+        }
+    }
+
+    private void add(Record r){
+        bySeq.put(r.seq, r);
+        byId.put(r.jobId, r);
+        String trackingId = r.params.get(JnomicsSubmissionQueue.TRACKING_ID_PARAM);
+        if(null != trackingId)
+            byTrackingId.put(trackingId, r);
+        index(byUser, r.username, r.seq);
+        index(byType, r.type, r.seq);
+        index(byState, r.state, r.seq);
+    }
+
+    private void remove(Record r){
+        bySeq.remove(r.seq);
+        byId.remove(r.jobId);
+        String trackingId = r.params.get(JnomicsSubmissionQueue.TRACKING_ID_PARAM);
+        if(null != trackingId)
+            byTrackingId.remove(trackingId);
+        unindex(byUser, r.username, r.seq);
+        unindex(byType, r.type, r.seq);
+        unindex(byState, r.state, r.seq);
+    }
+
+    private void setFinished(Record r, String state, long finishTime, String failureInfo){
+        unindex(byState, r.state, r.seq);
+        r.state = state;
+        r.finishTime = finishTime;
+        r.failureInfo = null == failureInfo ? "" : failureInfo;
+        index(byState, r.state, r.seq);
+    }
+
+    /**
+     * Rewrites the log with one entry per job, dropping finished jobs past the retention
+     */
+    private void compact() throws IOException {
+        if(null != out)
+            out.close();
+        if(retention > 0){
+            long cutoff = System.currentTimeMillis() - retention;
+            for(Record r : new ArrayList<Record>(bySeq.values())){
+                if(0 != r.finishTime && r.finishTime < cutoff)
+                    remove(r);
+            }
+        }
+        File tmp = new File(logFile.getPath() + ".tmp");
+        DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        entries = 0;
+        try{
+            for(Record r : bySeq.values()){
+                writeSubmit(tmpOut, r);
+                entries++;
+                if(0 != r.finishTime){
+                    writeFinish(tmpOut, r);
+                    entries++;
+                }
+            }
+        }finally{
+            tmpOut.close();
+        }
+        if(!tmp.renameTo(logFile))
+            throw new IOException("Failed to replace " + logFile);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+    }
+
+    private void appended() throws IOException {
+        out.flush();
+        if(++entries > Math.max(MIN_COMPACT, 2 * byId.size()))
+            compact();
+    }
+
+    /**
+     * Records a job that has just been submitted
+     * @param params job configuration entries set for this job
+     */
+    public synchronized void recordSubmit(String jobId, String username, String name, String type, String backend,
+                                          Map<String, String> params) throws JnomicsThriftException {
+        if(byId.containsKey(jobId))
+            return;
+        Record r = new Record();
+        r.seq = nextSeq++;
+        r.jobId = jobId;
+        r.username = username;
+        r.name = null == name ? "" : name;
+        r.type = type;
+        r.backend = backend;
+        r.submitTime = System.currentTimeMillis();
+        r.params = params;
+        add(r);
+        try{
+            writeSubmit(out, r);
+            appended();
+        }catch(IOException e){
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    /**
+     * Records a job's final state, does nothing for jobs not in the registry or already finished
+     */
+    public synchronized void recordFinish(String jobId, String state, String failureInfo) {
+        Record r = byId.get(jobId);
+        if(null == r || 0 != r.finishTime)
+            return;
+        setFinished(r, state, System.currentTimeMillis(), failureInfo);
+        try{
+            writeFinish(out, r);
+            appended();
+        }catch(IOException e){
+            log.error("Failed to record the end of " + jobId + ": " + e.toString());
+        }
+    }
+
+    private static JnomicsThriftJobRecord toThrift(Record r){
+        return new JnomicsThriftJobRecord(r.jobId, r.username, r.name, r.type, r.backend, r.state,
+                r.submitTime, r.finishTime, r.failureInfo, new HashMap<String, String>(r.params));
+    }
+
+    /**
+     * @return the job's record, null if it is not in the registry
+     */
+    public synchronized JnomicsThriftJobRecord get(String jobId){
+        Record r = byId.get(jobId);
+        return null == r ? null : toThrift(r);
+    }
+
+    /**
+     * @return records of the jobs run on backend that have not been seen to finish
+     */
+    public synchronized List<JnomicsThriftJobRecord> getUnfinished(String backend){
+        List<JnomicsThriftJobRecord> records = new ArrayList<JnomicsThriftJobRecord>();
+        NavigableSet<Long> submitted = byState.get(SUBMITTED);
+        if(null != submitted){
+            for(Long seq : submitted){
+                Record r = bySeq.get(seq);
+                if(r.backend.equals(backend))
+                    records.add(toThrift(r));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return record of the job submitted under a submission queue tracking id, null if there is none
+     */
+    public synchronized JnomicsThriftJobRecord getByTrackingId(String trackingId){
+        Record r = byTrackingId.get(trackingId);
+        return null == r ? null : toThrift(r);
+    }
+
+    /**
+     * @param type only jobs of this type, null or empty for any
+     * @param state only jobs in this state, null or empty for any
+     * @param backend only jobs run on this backend, null for any
+     * @param cursor cursor of the previous page, null or empty for the first page
+     */
+    public synchronized JnomicsThriftJobRecordPage query(String username, String type, String state, String backend,
+                                                       String cursor, int limit) throws JnomicsThriftException {
+        long after = 0;
+        if(null != cursor && !cursor.isEmpty()){
+            try{
+                after = Long.parseLong(cursor);
+            }catch(NumberFormatException e){
+                throw new JnomicsThriftException("Invalid cursor: " + cursor);
+            }
+        }
+        boolean byTypeToo = null != type && !type.isEmpty();
+        boolean byStateToo = null != state && !state.isEmpty();
+
+        //walk the smallest index that applies and check the other conditions on each record
+        NavigableSet<Long> candidates = smallest(byUser.get(username),
+                byTypeToo ? byType.get(type) : null, byStateToo ? byState.get(state) : null,
+                byTypeToo, byStateToo);
+        List<JnomicsThriftJobRecord> page = new ArrayList<JnomicsThriftJobRecord>();
+        String nextCursor = "";
+        long last = after;
+        for(Long seq : candidates.tailSet(after, false)){
+            Record r = bySeq.get(seq);
+            if(!r.username.equals(username) || (byTypeToo && !r.type.equals(type))
+                    || (byStateToo && !r.state.equals(state)) || (null != backend && !r.backend.equals(backend)))
+                continue;
+            if(page.size() == limit){
+                nextCursor = Long.toString(last);
+                break;
+            }
+            page.add(toThrift(r));
+            last = seq;
+        }
+        return new JnomicsThriftJobRecordPage(page, nextCursor);
+    }
+
+    private static NavigableSet<Long> smallest(NavigableSet<Long> user, NavigableSet<Long> type,
+                                               NavigableSet<Long> state, boolean useType, boolean useState){
+        if(null == user || (useType && null == type) || (useState && null == state))
+            return new TreeSet<Long>();
+        NavigableSet<Long> best = user;
+        if(useType && type.size() < best.size())
+            best = type;
+        if(useState && state.size() < best.size())
+            best = state;
+        return best;
+    }
+}
@@ -0,0 +1,256 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobFilter;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobPage;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobStatus;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.RunningJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Polls the jobtracker for every job once per job-status-interval seconds
+ * and keeps the result indexed by user, so getJobStatus, getAllJobs and
+ * listJobs are answered from memory and the load on the jobtracker does not
+ * grow with the number of clients polling.
+ *
+ * The jobtracker's job status has no job name, so the name of each new job
+ * is looked up once when the job first appears and kept until the job is
+ * retired. Jobs seen to be complete have their final state recorded in the
+ * job registry. If polling fails for three intervals in a row the index is
+ * considered stale and lookups fail rather than return old states.
+ *
+ * Every poll wakes the calls parked in awaitChange, and runs the poll
+ * listeners, so they can compare the new state with the one their client
+ * last saw.
+ */
+public class JnomicsJobStatusTracker implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsJobStatusTracker.class);
+
+    private static JnomicsJobStatusTracker instance;
+
+    private final Properties properties;
+    private final long interval;
+    private final int pageMax;
+    private final String pollUser;
+
+    //key: username, value: the user's jobs ordered by id, replaced as a whole on every poll
+    private volatile Map<String, NavigableMap<JobID, JnomicsThriftJobStatus>> index =
+            Collections.emptyMap();
+    private Map<JobID, String> names = new HashMap<JobID, String>();
+    private volatile long lastPoll = 0;
+    private volatile String lastError = "not polled yet";
+
+    private final Object changed = new Object();
+    private final List<Runnable> pollListeners = new CopyOnWriteArrayList<Runnable>();
+
+    public static synchronized JnomicsJobStatusTracker getInstance(Properties properties){
+        if(null == instance){
+            instance = new JnomicsJobStatusTracker(properties);
+            Thread t = new Thread(instance);
+            t.setDaemon(true);
+            t.start();
+        }
+        return instance;
+    }
+
+    private JnomicsJobStatusTracker(Properties properties){
+        this.properties = properties;
+        interval = 1000 * Long.parseLong(properties.getProperty("job-status-interval", "5"));
+        pageMax = Integer.parseInt(properties.getProperty("job-list-page-max", "1000"));
+        pollUser = properties.getProperty("job-status-user", System.getProperty("user.name"));
+    }
+
+    /**
+     * Fetches every job from the jobtracker and replaces the index
+     */
+    public void poll() throws JnomicsThriftException {
+        final Map<JobID, String> known = names;
+        final Map<JobID, String> jobNames = new HashMap<JobID, String>();
+        JobStatus[] statuses = new JobClientRunner<JobStatus[]>(pollUser,
+                JnomicsBaseConfiguration.getInstance(properties).newConf(), properties){
+            @Override
+            public JobStatus[] jobClientTask() throws Exception {
+                JobStatus[] all = getJobClient().getAllJobs();
+                for(JobStatus stat : all){
+                    String name = known.get(stat.getJobID());
+                    if(null == name){
+                        RunningJob job = getJobClient().getJob(stat.getJobID());
+                        name = null == job ? "" : job.getJobName();
+                    }
+                    jobNames.put(stat.getJobID(), name);
+                }
+                return all;
+            }
+        }.run();
+
+        Map<String, NavigableMap<JobID, JnomicsThriftJobStatus>> newIndex =
+                new HashMap<String, NavigableMap<JobID, JnomicsThriftJobStatus>>();
+        for(JobStatus stat : statuses){
+            NavigableMap<JobID, JnomicsThriftJobStatus> jobs = newIndex.get(stat.getUsername());
+            if(null == jobs){
+                jobs = new TreeMap<JobID, JnomicsThriftJobStatus>();
+                newIndex.put(stat.getUsername(), jobs);
+            }
+            jobs.put(stat.getJobID(), toThrift(stat, jobNames.get(stat.getJobID())));
+        }
+        names = jobNames;
+        index = newIndex;
+        lastPoll = System.currentTimeMillis();
+
+        try{
+            JnomicsJobRegistry registry = JnomicsJobRegistry.getInstance(properties);
+            for(JobStatus stat : statuses){
+                if(stat.isJobComplete())
+                    registry.recordFinish(stat.getJobID().toString(), JobStatus.getJobRunState(stat.getRunState()),
+                            stat.getFailureInfo());
+            }
+        }catch(IOException e){
+            log.error("Failed to open the job registry: " + e.toString());
+        }
+    }
+
+    private static JnomicsThriftJobStatus toThrift(JobStatus stat, String name){
+        return new JnomicsThriftJobStatus(stat.getJobID().toString(),
+                stat.getUsername(),
+                stat.getFailureInfo(),
+                stat.isJobComplete(),
+                stat.getRunState(),
+                stat.getStartTime(),
+                stat.getJobPriority().toString(),
+                stat.mapProgress(),
+                stat.reduceProgress(),
+                name,
+                JobStatus.getJobRunState(stat.getRunState()),
+                0);
+    }
+
+    /**
+     * @param listener run on the tracker's thread after every poll, successful or not; must not block
+     */
+    public void addPollListener(Runnable listener){
+        pollListeners.add(listener);
+    }
+
+    /**
+     * Parks the caller until the next poll or the deadline, whichever comes first
+     */
+    public void awaitChange(long deadline) throws InterruptedException {
+        synchronized(changed){
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining > 0)
+                changed.wait(remaining);
+        }
+    }
+
+    private NavigableMap<JobID, JnomicsThriftJobStatus> getUserJobs(String username) throws JnomicsThriftException {
+        if(System.currentTimeMillis() - lastPoll > 3 * interval)
+            throw new JnomicsThriftException("Job status unavailable: " + lastError);
+        NavigableMap<JobID, JnomicsThriftJobStatus> jobs = index.get(username);
+        return null == jobs ? new TreeMap<JobID, JnomicsThriftJobStatus>() : jobs;
+    }
+
+    /**
+     * @return status of the user's job, null if the tracker has not seen it
+     */
+    public JnomicsThriftJobStatus get(String username, String jobId) throws JnomicsThriftException {
+        JobID id;
+        try{
+            id = JobID.forName(jobId);
+        }catch(IllegalArgumentException e){
+            throw new JnomicsThriftException("Invalid job id: " + jobId);
+        }
+        return getUserJobs(username).get(id);
+    }
+
+    /**
+     * @return all of the user's jobs, oldest first
+     */
+    public List<JnomicsThriftJobStatus> getAll(String username) throws JnomicsThriftException {
+        return new ArrayList<JnomicsThriftJobStatus>(getUserJobs(username).values());
+    }
+
+    /**
+     * @param cursor job id the previous page ended with, empty for the first page
+     */
+    public JnomicsThriftJobPage list(String username, JnomicsThriftJobFilter filter, String cursor, int limit)
+            throws JnomicsThriftException {
+        if(limit <= 0 || limit > pageMax)
+            limit = pageMax;
+        NavigableMap<JobID, JnomicsThriftJobStatus> jobs = getUserJobs(username);
+        if(null != cursor && !cursor.isEmpty()){
+            try{
+                jobs = jobs.tailMap(JobID.forName(cursor), false);
+            }catch(IllegalArgumentException e){
+                throw new JnomicsThriftException("Invalid cursor: " + cursor);
+            }
+        }
+        List<JnomicsThriftJobStatus> page = new ArrayList<JnomicsThriftJobStatus>();
+        String nextCursor = "";
+        for(JnomicsThriftJobStatus status : jobs.values()){
+            if(!matches(filter, status))
+                continue;
+            if(page.size() == limit){
+                nextCursor = page.get(page.size() - 1).getJob_id();
+                break;
+            }
+            page.add(status);
+        }
+        return new JnomicsThriftJobPage(page, nextCursor);
+    }
+
+    private static boolean matches(JnomicsThriftJobFilter filter, JnomicsThriftJobStatus status){
+        if(null == filter)
+            return true;
+        if(null != filter.getState() && !filter.getState().isEmpty()
+                && !filter.getState().equalsIgnoreCase(JobStatus.getJobRunState(status.getRunning_state())))
+            return false;
+        if(status.getStart_time() < filter.getSince())
+            return false;
+        if(null != filter.getName_prefix() && !filter.getName_prefix().isEmpty()
+                && (null == status.getJob_name() || !status.getJob_name().startsWith(filter.getName_prefix())))
+            return false;
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while(true){
+            try{
+                poll();
+            }catch(Exception e){
+                lastError = e.toString();
+                log.error("Failed to poll the jobtracker: " + lastError);
+            }
+            synchronized(changed){
+                changed.notifyAll();
+            }
+            for(Runnable listener : pollListeners){
+                try{
+                    listener.run();
+                }catch(RuntimeException e){
+                    log.error("Poll listener failed: " + e.toString());
+                }
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+}
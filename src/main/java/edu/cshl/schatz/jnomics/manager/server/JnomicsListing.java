@@ -0,0 +1,104 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A directory listing handed out to the client a page at a time.
+ *
+ * Directories are only listed when the buffer holds less than a page. In
+ * recursive mode subdirectories are queued as they are found and listed
+ * several at a time on the given pool, so a deep tree is walked in parallel
+ * but at most one batch of directories ahead of the client.
+ *
+ * This hadoop's FileSystem can only list a directory whole, so each
+ * directory is still fetched in one listStatus call and held here until the
+ * client has paged through it. The client no longer gets the whole tree in
+ * one response, but a single directory of a million files still costs the
+ * server memory for a million statuses while it is being paged.
+ */
+public class JnomicsListing {
+
+    private final boolean recursive;
+    private final LinkedList<FileStatus> ready = new LinkedList<FileStatus>();
+    private final LinkedList<Path> dirs = new LinkedList<Path>();
+
+    public JnomicsListing(Path path, boolean recursive){
+        this.recursive = recursive;
+        dirs.add(path);
+    }
+
+    /**
+     * @param fs filesystem to list with
+     * @param limit most entries to return
+     * @param pool pool subdirectories are listed on
+     * @param parallelism most directories listed at once
+     * @return up to limit entries, fewer only when the listing is finished
+     */
+    public synchronized List<FileStatus> next(final FileSystem fs, int limit,
+                                              ExecutorService pool, int parallelism) throws IOException {
+        while(ready.size() < limit && !dirs.isEmpty()){
+            List<Callable<FileStatus[]>> tasks = new ArrayList<Callable<FileStatus[]>>();
+            while(tasks.size() < parallelism && !dirs.isEmpty()){
+                final Path dir = dirs.removeFirst();
+                tasks.add(new Callable<FileStatus[]>() {
+                    @Override
+                    public FileStatus[] call() throws Exception {
+                        return fs.listStatus(dir);
+                    }
+                });
+            }
+
+            List<FileStatus[]> listed = new ArrayList<FileStatus[]>();
+            if(1 == tasks.size()){
+                try{
+                    listed.add(tasks.get(0).call());
+                }catch(IOException e){
+                    throw e;
+                }catch(Exception e){
+                    throw new IOException(e.toString());
+                }
+            }else{
+                try{
+                    for(Future<FileStatus[]> result : pool.invokeAll(tasks)){
+                        listed.add(result.get());
+                    }
+                }catch(InterruptedException e){
+                    throw new IOException("Interrupted listing directories");
+                }catch(ExecutionException e){
+                    throw new IOException(e.getCause().toString());
+                }
+            }
+
+            for(FileStatus[] stats : listed){
+                if(null == stats)
+                    continue;
+                for(FileStatus stat : stats){
+                    ready.add(stat);
+                    if(recursive && stat.isDir())
+                        dirs.add(stat.getPath());
+                }
+            }
+        }
+
+        List<FileStatus> page = new ArrayList<FileStatus>(Math.min(limit, ready.size()));
+        while(page.size() < limit && !ready.isEmpty()){
+            page.add(ready.removeFirst());
+        }
+        return page;
+    }
+
+    public synchronized boolean isFinished(){
+        return ready.isEmpty() && dirs.isEmpty();
+    }
+}
@@ -0,0 +1,325 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.ggf.drmaa.AlreadyActiveSessionException;
+import org.ggf.drmaa.DrmaaException;
+import org.ggf.drmaa.ExitTimeoutException;
+import org.ggf.drmaa.InternalException;
+import org.ggf.drmaa.InvalidJobException;
+import org.ggf.drmaa.JobInfo;
+import org.ggf.drmaa.JobTemplate;
+import org.ggf.drmaa.NoActiveSessionException;
+import org.ggf.drmaa.Session;
+import org.ggf.drmaa.SimpleJobTemplate;
+import org.ggf.drmaa.Version;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DRMAA session that runs jobs as local processes, for running the compute
+ * server's grid calls without SGE (grid-drmaa=local).
+ *
+ * The job's remote command and arguments are run in its working directory,
+ * with output and error appended to the template's output and error paths
+ * when set. Only TERMINATE is supported by control. As with SGE, a job
+ * whose process has exited is DONE whatever its exit code, which is read
+ * through wait(); only a terminated job is FAILED.
+ */
+public class JnomicsLocalDrmaaSession implements Session {
+
+    private static final String ID_PREFIX = "local.";
+
+    private class LocalJob implements JobInfo {
+        private final String id;
+        private final Process process;
+        private volatile int exitStatus = -1;
+        private volatile boolean exited = false;
+        private volatile boolean aborted = false;
+
+        private LocalJob(String id, Process process){
+            this.id = id;
+            this.process = process;
+        }
+
+        private synchronized void finish(int status){
+            exitStatus = status;
+            exited = true;
+            notifyAll();
+        }
+
+        private synchronized boolean await(long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while(!exited){
+                if(TIMEOUT_WAIT_FOREVER == timeout){
+                    wait();
+                }else{
+                    long remaining = deadline - System.currentTimeMillis();
+                    if(remaining <= 0)
+                        return false;
+                    wait(remaining);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String getJobId() {
+            return id;
+        }
+
+        @Override
+        public Map getResourceUsage() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public boolean hasExited() {
+            return exited && !aborted;
+        }
+
+        @Override
+        public int getExitStatus() {
+            return exitStatus;
+        }
+
+        @Override
+        public boolean hasSignaled() {
+            return aborted;
+        }
+
+        @Override
+        public String getTerminatingSignal() {
+            return aborted ? "SIGTERM" : null;
+        }
+
+        @Override
+        public boolean hasCoreDump() {
+            return false;
+        }
+
+        @Override
+        public boolean wasAborted() {
+            return aborted;
+        }
+    }
+
+    private final ConcurrentHashMap<String, LocalJob> jobs = new ConcurrentHashMap<String, LocalJob>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private volatile boolean active = false;
+
+    @Override
+    public synchronized void init(String contact) throws DrmaaException {
+        if(active)
+            throw new AlreadyActiveSessionException();
+        active = true;
+    }
+
+    @Override
+    public synchronized void exit() throws DrmaaException {
+        checkActive();
+        active = false;
+    }
+
+    private void checkActive() throws NoActiveSessionException {
+        if(!active)
+            throw new NoActiveSessionException();
+    }
+
+    @Override
+    public JobTemplate createJobTemplate() throws DrmaaException {
+        checkActive();
+        return new SimpleJobTemplate();
+    }
+
+    @Override
+    public void deleteJobTemplate(JobTemplate jt) throws DrmaaException {
+        checkActive();
+    }
+
+    @Override
+    public String runJob(JobTemplate jt) throws DrmaaException {
+        checkActive();
+        List<String> command = new ArrayList<String>();
+        command.add(jt.getRemoteCommand());
+        if(null != jt.getArgs()){
+            for(Object arg : jt.getArgs()){
+                command.add(arg.toString());
+            }
+        }
+        ProcessBuilder pb = new ProcessBuilder(command);
+        if(null != jt.getWorkingDirectory())
+            pb.directory(new File(jt.getWorkingDirectory()));
+        if(null != jt.getJobEnvironment())
+            pb.environment().putAll(jt.getJobEnvironment());
+        pb.redirectErrorStream(jt.getJoinFiles());
+
+        final LocalJob job;
+        try{
+            job = new LocalJob(ID_PREFIX + nextId.getAndIncrement(), pb.start());
+        }catch(IOException e){
+            throw new InternalException(e.toString());
+        }
+        jobs.put(job.id, job);
+        drain(job.process.getInputStream(), jt.getOutputPath());
+        if(!jt.getJoinFiles())
+            drain(job.process.getErrorStream(), jt.getErrorPath());
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    job.finish(job.process.waitFor());
+                }catch(InterruptedException e){
+                    job.finish(-1);
+                }
+            }
+        });
+        waiter.setDaemon(true);
+        waiter.start();
+        return job.id;
+    }
+
+    /**
+     * Copies a job's output to path, or discards it if path is null, so the process never blocks on a full pipe
+     * @param path a drmaa path, [hostname]:file
+     */
+    private static void drain(final InputStream in, String path){
+        final String file = null == path ? null : path.substring(path.indexOf(':') + 1);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[8192];
+                OutputStream out = null;
+                try{
+                    if(null != file)
+                        out = new FileOutputStream(file, true);
+                    int amt;
+                    while(-1 != (amt = in.read(buffer))){
+                        if(null != out)
+                            out.write(buffer, 0, amt);
+                    }
+                }catch(IOException e){
+                    //the job's output is lost, the job itself carries on
+                }finally{
+                    try{
+                        in.close();
+                        if(null != out)
+                            out.close();
+                    }catch(IOException e){
+                    }
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public List runBulkJobs(JobTemplate jt, int start, int end, int incr) throws DrmaaException {
+        List<String> ids = new ArrayList<String>();
+        for(int i = start; i <= end; i += incr){
+            ids.add(runJob(jt));
+        }
+        return ids;
+    }
+
+    private LocalJob getJob(String jobId) throws DrmaaException {
+        checkActive();
+        LocalJob job = jobs.get(jobId);
+        if(null == job)
+            throw new InvalidJobException("Unknown job: " + jobId);
+        return job;
+    }
+
+    @Override
+    public void control(String jobId, int action) throws DrmaaException {
+        if(TERMINATE != action)
+            throw new InternalException("Only TERMINATE is supported by the local session");
+        if(JOB_IDS_SESSION_ALL.equals(jobId)){
+            for(String id : jobs.keySet()){
+                control(id, action);
+            }
+            return;
+        }
+        LocalJob job = getJob(jobId);
+        job.aborted = true;
+        job.process.destroy();
+    }
+
+    @Override
+    public void synchronize(List jobIds, long timeout, boolean dispose) throws DrmaaException {
+        List<String> ids = new ArrayList<String>();
+        for(Object id : jobIds){
+            if(JOB_IDS_SESSION_ALL.equals(id))
+                ids.addAll(jobs.keySet());
+            else
+                ids.add(id.toString());
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        for(String id : ids){
+            long remaining = TIMEOUT_WAIT_FOREVER == timeout ? TIMEOUT_WAIT_FOREVER
+                    : Math.max(0, deadline - System.currentTimeMillis());
+            wait(id, remaining);
+            if(dispose)
+                jobs.remove(id);
+        }
+    }
+
+    @Override
+    public JobInfo wait(String jobId, long timeout) throws DrmaaException {
+        LocalJob job;
+        if(JOB_IDS_SESSION_ANY.equals(jobId)){
+            Iterator<LocalJob> it = jobs.values().iterator();
+            if(!it.hasNext())
+                throw new InvalidJobException("No jobs in session");
+            job = it.next();
+        }else{
+            job = getJob(jobId);
+        }
+        try{
+            if(!job.await(timeout))
+                throw new ExitTimeoutException("Timed out waiting for " + job.id);
+        }catch(InterruptedException e){
+            throw new InternalException(e.toString());
+        }
+        jobs.remove(job.id);
+        return job;
+    }
+
+    @Override
+    public int getJobProgramStatus(String jobId) throws DrmaaException {
+        LocalJob job = getJob(jobId);
+        if(!job.exited)
+            return RUNNING;
+        return job.aborted ? FAILED : DONE;
+    }
+
+    @Override
+    public String getContact() {
+        return "local";
+    }
+
+    @Override
+    public Version getVersion() {
+        return new Version(1, 0);
+    }
+
+    @Override
+    public String getDrmSystem() {
+        return "jnomics-local";
+    }
+
+    @Override
+    public String getDrmaaImplementation() {
+        return "jnomics-local";
+    }
+}
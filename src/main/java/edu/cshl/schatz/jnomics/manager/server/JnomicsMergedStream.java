@@ -0,0 +1,125 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Reads a list of files, such as the part-* outputs of a job, one after
+ * another as a single stream. Each file is only opened once the previous
+ * one has been read to the end.
+ *
+ * With a header prefix, the leading lines that start with it are dropped
+ * from every file but the first, so the merged output keeps one header
+ * (e.g. "@" for sam, "#" for vcf).
+ */
+public class JnomicsMergedStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final FileSystem fs;
+    private final List<Path> parts;
+    private final byte[] headerPrefix;
+
+    private int nextPart = 0;
+    private InputStream current = null;
+
+    /**
+     * @param parts files to read, in order
+     * @param headerPrefix prefix of header lines to drop from every file but the first, empty to keep them
+     */
+    public JnomicsMergedStream(FileSystem fs, List<Path> parts, String headerPrefix){
+        this.fs = fs;
+        this.parts = parts;
+        this.headerPrefix = headerPrefix.getBytes();
+    }
+
+    /**
+     * @return false once every file has been read
+     */
+    private boolean openNext() throws IOException {
+        if(null != current){
+            current.close();
+            current = null;
+        }
+        if(nextPart >= parts.size())
+            return false;
+        current = new BufferedInputStream(fs.open(parts.get(nextPart)), BUFFER_SIZE);
+        if(nextPart > 0 && headerPrefix.length > 0)
+            skipHeader(current);
+        nextPart++;
+        return true;
+    }
+
+    private void skipHeader(InputStream in) throws IOException {
+        byte[] start = new byte[headerPrefix.length];
+        while(true){
+            in.mark(headerPrefix.length);
+            int got = 0;
+            int amt;
+            while(got < start.length && -1 != (amt = in.read(start, got, start.length - got))){
+                got += amt;
+            }
+            for(int i = 0; i < headerPrefix.length; i++){
+                if(got <= i || start[i] != headerPrefix[i]){
+                    in.reset();
+                    return;
+                }
+            }
+            int b;
+            while(-1 != (b = in.read()) && '\n' != b){
+            }
+            if(-1 == b)
+                return;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return -1 == read(b, 0, 1) ? -1 : b[0] & 0xff;
+    }
+
+    /**
+     * Fills as much of b as the remaining files allow, crossing file boundaries
+     * @return bytes read, -1 once every file has been read
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(0 == len)
+            return 0;
+        int total = 0;
+        while(total < len){
+            if(null == current && !openNext())
+                break;
+            int amt = current.read(b, off + total, len - total);
+            if(-1 == amt){
+                if(!openNext())
+                    break;
+            }else{
+                total += amt;
+            }
+        }
+        return 0 == total ? -1 : total;
+    }
+
+    /**
+     * @return number of files being merged
+     */
+    public int getPartCount(){
+        return parts.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        nextPart = parts.size();
+        if(null != current){
+            current.close();
+            current = null;
+        }
+    }
+}
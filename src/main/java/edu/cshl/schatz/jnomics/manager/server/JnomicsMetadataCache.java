@@ -0,0 +1,216 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.fs.Path;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short lived cache of namenode lookups made on behalf of users, so clients
+ * polling for their outputs do not each turn into a namenode call.
+ *
+ * Entries are keyed by kind, user and absolute path and live for a fixed
+ * ttl. Changes made through this server invalidate the changed path, the
+ * directories above it and everything below it right away; changes made
+ * directly on the cluster are seen once the ttl runs out.
+ *
+ * Entries are also indexed by path in sorted order, so an invalidation
+ * only touches the changed path, its parents and the range of paths below
+ * it. Every invalidation bumps a generation; a lookup passes the
+ * generation it started in to put, and its result is dropped if an
+ * invalidation happened in between, so a stale result is never stored.
+ */
+public class JnomicsMetadataCache {
+
+    public static final String LIST = "ls";
+    public static final String EXISTS = "exists";
+
+    private static class Entry {
+        private final String path;
+        private final Object value;
+        private final long expires;
+
+        private Entry(String path, Object value, long expires){
+            this.path = path;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final boolean enabled;
+    private final long ttl;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**least recently used first**/
+    private final LinkedHashMap<String, Entry> entries;
+    /**key: path, value: keys of the entries for the path. Guarded by entries**/
+    private final TreeMap<String, Set<String>> byPath = new TreeMap<String, Set<String>>();
+    /**number of invalidations so far. Guarded by entries**/
+    private long generation = 0;
+
+    /**
+     * @param enabled when false every lookup misses and nothing is stored
+     * @param ttl milliseconds an entry is served for
+     * @param maxEntries most entries kept, least recently used are evicted first
+     */
+    public JnomicsMetadataCache(boolean enabled, long ttl, final int maxEntries){
+        this.enabled = enabled;
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if(size() > maxEntries){
+                    evictions.incrementAndGet();
+                    unindex(eldest.getValue().path, eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the absolute path, without scheme or authority, that path refers to for username
+     */
+    public static String qualify(String username, String path){
+        Path p = new Path(path);
+        if(!p.isAbsolute())
+            p = new Path(new Path("/user", username), p);
+        String s = p.toUri().getPath();
+        return s.length() > 1 && s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static String key(String kind, String username, String path){
+        return kind + ":" + username + ":" + path;
+    }
+
+    /**
+     * @return the cached value, null if there is none or it has expired
+     */
+    public Object get(String kind, String username, String path){
+        if(!enabled)
+            return null;
+        String k = key(kind, username, qualify(username, path));
+        synchronized (entries){
+            Entry e = entries.get(k);
+            if(null != e && e.expires > System.currentTimeMillis()){
+                hits.incrementAndGet();
+                return e.value;
+            }
+            if(null != e){
+                entries.remove(k);
+                unindex(e.path, k);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return the current generation, to be taken before a lookup whose result is put
+     */
+    public long getGeneration(){
+        synchronized (entries){
+            return generation;
+        }
+    }
+
+    /**
+     * @param generation from getGeneration before the value was looked up; the value
+     * is not stored if anything has been invalidated since
+     */
+    public void put(String kind, String username, String path, Object value, long generation){
+        if(!enabled)
+            return;
+        String qualified = qualify(username, path);
+        String k = key(kind, username, qualified);
+        Entry e = new Entry(qualified, value, System.currentTimeMillis() + ttl);
+        synchronized (entries){
+            if(generation != this.generation)
+                return;
+            entries.put(k, e);
+            Set<String> keys = byPath.get(qualified);
+            if(null == keys){
+                keys = new HashSet<String>();
+                byPath.put(qualified, keys);
+            }
+            keys.add(k);
+        }
+    }
+
+    /**
+     * Must hold the entries lock
+     */
+    private void unindex(String path, String k){
+        Set<String> keys = byPath.get(path);
+        if(null != keys && keys.remove(k) && keys.isEmpty())
+            byPath.remove(path);
+    }
+
+    /**
+     * Drops every entry of path. Must hold the entries lock
+     */
+    private void drop(String path){
+        Set<String> keys = byPath.remove(path);
+        if(null == keys)
+            return;
+        for(String k : keys){
+            entries.remove(k);
+        }
+    }
+
+    /**
+     * Drops everything cached for path, the directories above it and anything
+     * below it, for every user
+     */
+    public void invalidate(String username, String path){
+        if(!enabled)
+            return;
+        String qualified = qualify(username, path);
+        //every path below starts with below, and sorts before the same prefix ending in '/'+1
+        String below = "/".equals(qualified) ? qualified : qualified + "/";
+        String end = below.substring(0, below.length() - 1) + (char)('/' + 1);
+        synchronized (entries){
+            generation++;
+            for(Path p = new Path(qualified); null != p; p = p.getParent()){
+                drop(p.toUri().getPath());
+            }
+            List<String> children = new ArrayList<String>(byPath.subMap(below, end).keySet());
+            for(String child : children){
+                drop(child);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size(){
+        synchronized (entries){
+            return entries.size();
+        }
+    }
+}
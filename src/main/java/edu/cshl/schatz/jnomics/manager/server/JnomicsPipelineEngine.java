@@ -0,0 +1,550 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobRecord;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftPipelineStage;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftPipelineStatus;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftSubmission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs multi-job pipelines, e.g. the SNP pipeline, as a set of stages with
+ * dependencies.
+ *
+ * A stage is started on one of pipeline-threads threads once every stage it
+ * depends on has succeeded, so stages that do not depend on each other run
+ * in parallel. Starting a stage either queues a hadoop or grid job with the
+ * submission queue, whose end the scheduler picks up from the job registry,
+ * or does the stage's work then and there. No thread waits on a running job. A failed stage fails the
+ * pipeline and the stages that depend on it are skipped.
+ *
+ * Each pipeline's state is written to its own file in pipeline-dir on every
+ * change, so pipelines carry on after a restart once their definition has
+ * been registered again. A stage that was being started when the server
+ * stopped is started again. A user may have at most pipeline-max-per-user
+ * pipelines running, and finished pipelines are forgotten after
+ * pipeline-retention seconds.
+ */
+public class JnomicsPipelineEngine implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsPipelineEngine.class);
+
+    public static final String ID_PREFIX = "pipeline_";
+
+    public static final String PENDING = "PENDING";
+    public static final String RUNNING = "RUNNING";
+    public static final String SUCCEEDED = "SUCCEEDED";
+    public static final String FAILED = "FAILED";
+    public static final String SKIPPED = "SKIPPED";
+
+    private static final String FILE_SUFFIX = ".pipeline";
+
+    private static JnomicsPipelineEngine instance;
+
+    /**
+     * One step of a pipeline
+     */
+    public static abstract class Stage {
+        private final String name;
+        private final List<String> after;
+
+        /**
+         * @param after names of the stages that must succeed before this one starts
+         */
+        protected Stage(String name, String... after){
+            this.name = name;
+            this.after = Arrays.asList(after);
+        }
+
+        /**
+         * Starts the stage, on one of the engine's threads
+         * @return id or submission tracking id of the hadoop or grid job the stage waits for,
+         * or null if the stage's work is done
+         */
+        public abstract String start() throws Exception;
+    }
+
+    /**
+     * Builds a kind of pipeline's stages from the parameters it was started with
+     */
+    public interface Definition {
+        List<Stage> stages(String username, Map<String, String> params) throws JnomicsThriftException;
+    }
+
+    private static class StageRun {
+        private final String name;
+        private final List<String> after;
+        private Stage stage;
+        private String state = PENDING;
+        private String jobId = "";
+        private String error = "";
+        private long startTime = 0;
+        private long finishTime = 0;
+
+        private StageRun(String name, List<String> after){
+            this.name = name;
+            this.after = after;
+        }
+    }
+
+    private static class Pipeline {
+        private String id;
+        private String username;
+        private String type;
+        private Map<String, String> params = new HashMap<String, String>();
+        private String state = RUNNING;
+        private long createTime;
+        private long finishTime = 0;
+        private String error = "";
+        //empty until the pipeline's definition has built its stages
+        private Map<String, StageRun> stages = new LinkedHashMap<String, StageRun>();
+        private boolean defined = false;
+    }
+
+    private final File dir;
+    private final long interval;
+    private final long retention;
+    private final int maxPerUser;
+    private final ThreadPoolExecutor pool;
+    private final JnomicsJobRegistry registry;
+    private final JnomicsSubmissionQueue submissions;
+
+    private final Map<String, Definition> definitions = new HashMap<String, Definition>();
+    private final Map<String, Pipeline> pipelines = new LinkedHashMap<String, Pipeline>();
+    private final Object wakeup = new Object();
+
+    public static synchronized JnomicsPipelineEngine getInstance(Properties properties) throws IOException {
+        if(null == instance){
+            instance = new JnomicsPipelineEngine(properties);
+            Thread t = new Thread(instance);
+            t.setDaemon(true);
+            t.start();
+        }
+        return instance;
+    }
+
+    private JnomicsPipelineEngine(Properties properties) throws IOException {
+        dir = new File(properties.getProperty("pipeline-dir",
+                System.getProperty("user.home") + "/.jnomics-pipelines"));
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create pipeline directory " + dir);
+        interval = 1000 * Long.parseLong(properties.getProperty("pipeline-interval", "5"));
+        retention = 1000 * Long.parseLong(properties.getProperty("pipeline-retention", "604800"));
+        maxPerUser = Integer.parseInt(properties.getProperty("pipeline-max-per-user", "4"));
+        int threads = Integer.parseInt(properties.getProperty("pipeline-threads", "4"));
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        registry = JnomicsJobRegistry.getInstance(properties);
+        submissions = JnomicsSubmissionQueue.getInstance(properties);
+        load();
+    }
+
+    /**
+     * @return true if id was handed out by this engine
+     */
+    public static boolean isPipelineId(String id){
+        return null != id && id.startsWith(ID_PREFIX);
+    }
+
+    /**
+     * Registers how a kind of pipeline is built. Pipelines of this type left
+     * running by a previous server start once it is registered
+     */
+    public synchronized void define(String type, Definition definition){
+        definitions.put(type, definition);
+        wake();
+    }
+
+    /**
+     * Starts a pipeline
+     * @param params everything the definition needs to build the stages, kept with the pipeline
+     * @return pipeline id
+     */
+    public String start(String username, String type, Map<String, String> params) throws JnomicsThriftException {
+        Pipeline p = new Pipeline();
+        p.id = ID_PREFIX + UUID.randomUUID();
+        p.username = username;
+        p.type = type;
+        p.params.putAll(params);
+        p.createTime = System.currentTimeMillis();
+        synchronized(this){
+            if(!definitions.containsKey(type))
+                throw new JnomicsThriftException("Unknown pipeline: " + type);
+            int running = 0;
+            for(Pipeline other : pipelines.values()){
+                if(other.username.equals(username) && RUNNING.equals(other.state))
+                    running++;
+            }
+            if(running >= maxPerUser)
+                throw new JnomicsThriftException("Too many running pipelines, at most " + maxPerUser + " per user");
+            build(p);
+            try{
+                save(p);
+            }catch(IOException e){
+                throw new JnomicsThriftException(e.toString());
+            }
+            pipelines.put(p.id, p);
+        }
+        log.info("Started " + type + " pipeline " + p.id + " for user " + username);
+        wake();
+        return p.id;
+    }
+
+    /**
+     * @return the pipeline's status, null if the id is unknown or has been forgotten
+     */
+    public synchronized JnomicsThriftPipelineStatus get(String id){
+        Pipeline p = pipelines.get(id);
+        return null == p ? null : toThrift(p);
+    }
+
+    private static JnomicsThriftPipelineStatus toThrift(Pipeline p){
+        List<JnomicsThriftPipelineStage> stages = new ArrayList<JnomicsThriftPipelineStage>();
+        for(StageRun s : p.stages.values()){
+            stages.add(new JnomicsThriftPipelineStage(s.name, new ArrayList<String>(s.after), s.state, s.jobId,
+                    s.error, s.startTime, s.finishTime));
+        }
+        return new JnomicsThriftPipelineStatus(p.id, p.username, p.type, p.state, p.error, p.createTime,
+                p.finishTime, stages);
+    }
+
+    /**
+     * Builds the pipeline's stages from its definition, keeping the state of stages already known
+     */
+    private void build(Pipeline p) throws JnomicsThriftException {
+        List<Stage> stages = definitions.get(p.type).stages(p.username, p.params);
+        Map<String, StageRun> runs = new LinkedHashMap<String, StageRun>();
+        for(Stage stage : stages){
+            StageRun run = p.stages.get(stage.name);
+            if(null == run)
+                run = new StageRun(stage.name, stage.after);
+            run.stage = stage;
+            runs.put(stage.name, run);
+        }
+        for(StageRun run : runs.values()){
+            for(String dep : run.after){
+                if(!runs.containsKey(dep))
+                    throw new JnomicsThriftException("Stage " + run.name + " depends on unknown stage " + dep);
+            }
+        }
+        p.stages = runs;
+        p.defined = true;
+    }
+
+    /**
+     * Picks up finished jobs, starts stages that are ready and finishes
+     * pipelines with nothing left to run
+     */
+    public synchronized void schedule(){
+        long now = System.currentTimeMillis();
+        Iterator<Pipeline> it = pipelines.values().iterator();
+        while(it.hasNext()){
+            Pipeline p = it.next();
+            if(!RUNNING.equals(p.state)){
+                if(p.finishTime < now - retention){
+                    it.remove();
+                    if(!new File(dir, p.id + FILE_SUFFIX).delete())
+                        log.warn("Failed to remove pipeline file for " + p.id);
+                }
+                continue;
+            }
+            boolean changed = false;
+            if(!p.defined){
+                if(!definitions.containsKey(p.type))
+                    continue;
+                try{
+                    build(p);
+                }catch(JnomicsThriftException e){
+                    p.error = e.getMsg();
+                    p.state = FAILED;
+                    p.finishTime = now;
+                    log.error("Pipeline " + p.id + " failed: " + p.error);
+                    trySave(p);
+                    continue;
+                }
+            }
+            for(StageRun s : p.stages.values()){
+                if(RUNNING.equals(s.state) && !s.jobId.isEmpty())
+                    changed |= checkJob(s, now);
+            }
+            for(StageRun s : p.stages.values()){
+                if(PENDING.equals(s.state))
+                    changed |= startIfReady(p, s, now);
+            }
+            changed |= finishIfDone(p, now);
+            if(changed)
+                trySave(p);
+        }
+    }
+
+    /**
+     * @return true if the stage's submission or job has changed
+     */
+    private boolean checkJob(StageRun s, long now){
+        if(JnomicsSubmissionQueue.isTrackingId(s.jobId)){
+            JnomicsThriftSubmission submission = submissions.get(s.jobId);
+            if(null == submission){
+                JnomicsThriftJobRecord record = registry.getByTrackingId(s.jobId);
+                if(null == record){
+                    //still queued at a restart, submit again
+                    s.state = PENDING;
+                    s.jobId = "";
+                    return true;
+                }
+                //submitted before a restart or forgotten by the queue
+                s.jobId = record.getJob_id();
+                checkJob(s, now);
+                return true;
+            }
+            if(JnomicsSubmissionQueue.FAILED.equals(submission.getState())){
+                s.state = FAILED;
+                s.error = submission.getError();
+                s.finishTime = now;
+                return true;
+            }
+            if(!JnomicsSubmissionQueue.SUBMITTED.equals(submission.getState()))
+                return false;
+            s.jobId = submission.getJob_id();
+            checkJob(s, now);
+            return true;
+        }
+        JnomicsThriftJobRecord record = registry.get(s.jobId);
+        if(null == record){
+            s.state = FAILED;
+            s.error = "Job " + s.jobId + " is no longer in the job registry";
+        }else if(JnomicsJobRegistry.SUBMITTED.equals(record.getState())){
+            return false;
+        }else if(SUCCEEDED.equals(record.getState()) || "DONE".equals(record.getState())){
+            //hadoop jobs end SUCCEEDED, grid jobs DONE, which is only recorded for exit status 0
+            s.state = SUCCEEDED;
+        }else{
+            s.state = FAILED;
+            s.error = record.getState() + ": " + record.getFailure_info();
+        }
+        s.finishTime = now;
+        return true;
+    }
+
+    /**
+     * @return true if the stage was started or skipped
+     */
+    private boolean startIfReady(final Pipeline p, final StageRun s, long now){
+        for(String dep : s.after){
+            String state = p.stages.get(dep).state;
+            if(FAILED.equals(state) || SKIPPED.equals(state)){
+                s.state = SKIPPED;
+                s.finishTime = now;
+                return true;
+            }
+            if(!SUCCEEDED.equals(state))
+                return false;
+        }
+        s.state = RUNNING;
+        s.startTime = now;
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                runStage(p, s);
+            }
+        });
+        return true;
+    }
+
+    private void runStage(Pipeline p, StageRun s){
+        String jobId = null;
+        String error = null;
+        try{
+            jobId = s.stage.start();
+        }catch(Exception e){
+            error = e.toString();
+        }
+        synchronized(this){
+            if(null != error){
+                s.state = FAILED;
+                s.error = error;
+                s.finishTime = System.currentTimeMillis();
+                log.error("Stage " + s.name + " of pipeline " + p.id + " failed: " + error);
+            }else if(null == jobId){
+                s.state = SUCCEEDED;
+                s.finishTime = System.currentTimeMillis();
+            }else{
+                s.jobId = jobId;
+                log.info("Stage " + s.name + " of pipeline " + p.id + " is running as " + jobId);
+            }
+            trySave(p);
+        }
+        wake();
+    }
+
+    /**
+     * @return true if the pipeline has nothing left to run
+     */
+    private boolean finishIfDone(Pipeline p, long now){
+        boolean failed = false;
+        for(StageRun s : p.stages.values()){
+            if(PENDING.equals(s.state) || RUNNING.equals(s.state))
+                return false;
+            if(!SUCCEEDED.equals(s.state))
+                failed = true;
+        }
+        p.state = failed ? FAILED : SUCCEEDED;
+        p.finishTime = now;
+        log.info("Pipeline " + p.id + " " + p.state);
+        return true;
+    }
+
+    private void wake(){
+        synchronized(wakeup){
+            wakeup.notifyAll();
+        }
+    }
+
+    /**
+     * Writes the pipeline's file, logging failures, since the pipeline carries on regardless
+     */
+    private void trySave(Pipeline p){
+        try{
+            save(p);
+        }catch(IOException e){
+            log.error("Failed to save pipeline " + p.id + ": " + e.toString());
+        }
+    }
+
+    private void save(Pipeline p) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("id", p.id);
+        props.setProperty("username", p.username);
+        props.setProperty("type", p.type);
+        props.setProperty("state", p.state);
+        props.setProperty("error", p.error);
+        props.setProperty("create_time", Long.toString(p.createTime));
+        props.setProperty("finish_time", Long.toString(p.finishTime));
+        for(Map.Entry<String, String> e : p.params.entrySet()){
+            props.setProperty("param." + e.getKey(), e.getValue());
+        }
+        props.setProperty("stages", join(p.stages.keySet()));
+        for(StageRun s : p.stages.values()){
+            String prefix = "stage." + s.name + ".";
+            //a stage still being started is started again after a restart
+            String state = RUNNING.equals(s.state) && s.jobId.isEmpty() ? PENDING : s.state;
+            props.setProperty(prefix + "after", join(s.after));
+            props.setProperty(prefix + "state", state);
+            props.setProperty(prefix + "job_id", s.jobId);
+            props.setProperty(prefix + "error", s.error);
+            props.setProperty(prefix + "start_time", Long.toString(s.startTime));
+            props.setProperty(prefix + "finish_time", Long.toString(s.finishTime));
+        }
+        File tmp = new File(dir, p.id + FILE_SUFFIX + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try{
+            props.store(out, p.type + " pipeline");
+        }finally{
+            out.close();
+        }
+        if(!tmp.renameTo(new File(dir, p.id + FILE_SUFFIX)))
+            throw new IOException("Failed to replace pipeline file for " + p.id);
+    }
+
+    private static String join(Iterable<String> names){
+        StringBuilder sb = new StringBuilder();
+        for(String name : names){
+            if(sb.length() > 0)
+                sb.append(',');
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    private static List<String> split(String names){
+        if(null == names || names.isEmpty())
+            return Collections.emptyList();
+        return Arrays.asList(names.split(","));
+    }
+
+    /**
+     * Reads the pipelines left by a previous server
+     */
+    private void load(){
+        File[] files = dir.listFiles();
+        if(null == files)
+            return;
+        for(File f : files){
+            if(!f.getName().endsWith(FILE_SUFFIX))
+                continue;
+            Properties props = new Properties();
+            try{
+                InputStream in = new FileInputStream(f);
+                try{
+                    props.load(in);
+                }finally{
+                    in.close();
+                }
+            }catch(IOException e){
+                log.error("Failed to read " + f + ": " + e.toString());
+                continue;
+            }
+            Pipeline p = new Pipeline();
+            p.id = props.getProperty("id");
+            p.username = props.getProperty("username");
+            p.type = props.getProperty("type");
+            p.state = props.getProperty("state", FAILED);
+            p.error = props.getProperty("error", "");
+            p.createTime = Long.parseLong(props.getProperty("create_time", "0"));
+            p.finishTime = Long.parseLong(props.getProperty("finish_time", "0"));
+            for(String key : props.stringPropertyNames()){
+                if(key.startsWith("param."))
+                    p.params.put(key.substring("param.".length()), props.getProperty(key));
+            }
+            for(String name : split(props.getProperty("stages"))){
+                String prefix = "stage." + name + ".";
+                StageRun s = new StageRun(name, split(props.getProperty(prefix + "after")));
+                s.state = props.getProperty(prefix + "state", PENDING);
+                s.jobId = props.getProperty(prefix + "job_id", "");
+                s.error = props.getProperty(prefix + "error", "");
+                s.startTime = Long.parseLong(props.getProperty(prefix + "start_time", "0"));
+                s.finishTime = Long.parseLong(props.getProperty(prefix + "finish_time", "0"));
+                p.stages.put(name, s);
+            }
+            if(null == p.id || null == p.username || null == p.type){
+                log.warn("Ignoring incomplete pipeline file " + f);
+                continue;
+            }
+            pipelines.put(p.id, p);
+        }
+        log.info("Loaded " + pipelines.size() + " pipelines from " + dir);
+    }
+
+    @Override
+    public void run() {
+        while(true){
+            synchronized(wakeup){
+                try {
+                    wakeup.wait(interval);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            schedule();
+        }
+    }
+}
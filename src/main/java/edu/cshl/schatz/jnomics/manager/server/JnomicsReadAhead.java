@@ -0,0 +1,169 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetches the next chunks of an open file on a background pool so the
+ * datanode fetch overlaps with sending the previous chunk to the client.
+ *
+ * Chunks are fetched with positional reads at known offsets, so prefetches
+ * can run in any order. The number of chunks kept in flight starts at one,
+ * grows when the client has to wait for a chunk and shrinks again after a
+ * run of reads that were already waiting for the client.
+ */
+public class JnomicsReadAhead {
+
+    private static final int SHRINK_AFTER_HITS = 16;
+
+    private static final AtomicLong totalHits = new AtomicLong(0);
+    private static final AtomicLong totalMisses = new AtomicLong(0);
+
+    private static class Chunk {
+        private final byte[] data;
+        private final int length;
+
+        private Chunk(byte[] data, int length){
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private final FSDataInputStream in;
+    private final JnomicsBufferPool bufferPool;
+    private final ExecutorService ioPool;
+    private final int maxDepth;
+
+    private final LinkedList<Future<Chunk>> ring = new LinkedList<Future<Chunk>>();
+    private long nextOffset = 0;
+    private int depth = 1;
+    private int hitRun = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private boolean eof = false;
+
+    /**
+     * @param in stream to prefetch from
+     * @param maxDepth most chunks to keep in flight
+     * @param bufferPool pool chunks are read into, its buffer size is the chunk size
+     * @param ioPool executor prefetches run on
+     */
+    public JnomicsReadAhead(FSDataInputStream in, int maxDepth, JnomicsBufferPool bufferPool, ExecutorService ioPool){
+        this.in = in;
+        this.maxDepth = maxDepth;
+        this.bufferPool = bufferPool;
+        this.ioPool = ioPool;
+    }
+
+    private void fill(){
+        while(ring.size() < depth){
+            final long offset = nextOffset;
+            nextOffset += bufferPool.getBufferSize();
+            ring.add(ioPool.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() throws Exception {
+                    byte[] buf = bufferPool.take(bufferPool.getBufferSize());
+                    int total = 0;
+                    int bytesRead;
+                    try{
+                        while(total < buf.length && -1 != (bytesRead = in.read(offset + total, buf, total, buf.length - total))){
+                            total += bytesRead;
+                        }
+                    }catch(IOException e){
+                        bufferPool.give(buf);
+                        throw e;
+                    }
+                    return new Chunk(buf, total);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Copies the next chunk of the file into dest
+     * @param dest buffer at least as large as the pool's buffers
+     * @return number of bytes copied, -1 at end of file
+     */
+    public synchronized int read(byte[] dest) throws IOException {
+        if(eof)
+            return -1;
+        fill();
+        Future<Chunk> next = ring.removeFirst();
+        if(next.isDone()){
+            hits++;
+            totalHits.incrementAndGet();
+            if(++hitRun >= SHRINK_AFTER_HITS && depth > 1){
+                depth--;
+                hitRun = 0;
+            }
+        }else{
+            misses++;
+            totalMisses.incrementAndGet();
+            hitRun = 0;
+            if(depth < maxDepth)
+                depth++;
+        }
+
+        Chunk chunk;
+        try {
+            chunk = next.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted waiting for read");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().toString());
+        }
+
+        System.arraycopy(chunk.data, 0, dest, 0, chunk.length);
+        bufferPool.give(chunk.data);
+        if(chunk.length < bufferPool.getBufferSize()){
+            eof = true;
+            return 0 == chunk.length ? -1 : chunk.length;
+        }
+        fill();
+        return chunk.length;
+    }
+
+    /**
+     * Drops any outstanding prefetches, the underlying stream is left open
+     */
+    public synchronized void close(){
+        for(Future<Chunk> pending : ring){
+            if(!pending.cancel(false)){
+                try {
+                    bufferPool.give(pending.get().data);
+                } catch (Exception e) {
+                }
+            }
+        }
+        ring.clear();
+        eof = true;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return fraction of reads across all handles that found their chunk already fetched
+     */
+    public static double getTotalHitRate(){
+        long h = totalHits.get();
+        long total = h + totalMisses.get();
+        return 0 == total ? 0 : (double) h / total;
+    }
+
+    public static long getTotalReads(){
+        return totalHits.get() + totalMisses.get();
+    }
+}
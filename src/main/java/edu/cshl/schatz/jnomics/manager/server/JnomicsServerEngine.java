@@ -0,0 +1,242 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSSLTransportFactory;
+import org.apache.thrift.transport.TServerTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the thrift server for the data and compute servers from the
+ * server properties. Every property is read with the server's prefix, e.g.
+ * data-server-engine or compute-server-engine.
+ *
+ * threadpool (default): SSL sockets served by a bounded pool, one thread per
+ * connection. Once max-connections are open a new connection waits up to
+ * admission-wait seconds for one to close and is then turned away, so a
+ * burst queues in the listen backlog instead of spawning threads.
+ *
+ * selector: TThreadedSelectorServer with framed transport. A few selector
+ * threads do all network io and calls run on a fixed worker pool with a
+ * bounded queue. Thrift's nonblocking sockets cannot do SSL, so the server
+ * itself is unencrypted. It only starts when tls-proxy is true, stating
+ * that it listens where only an SSL terminating proxy can reach it; clients
+ * set the matching server-framed property and speak SSL to the proxy.
+ */
+public class JnomicsServerEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsServerEngine.class);
+
+    public static final String THREADPOOL = "threadpool";
+    public static final String SELECTOR = "selector";
+
+    /**
+     * @param prefix property prefix, data or compute
+     */
+    public static TServer create(Properties prop, String prefix, int port, String host, TProcessor processor)
+            throws IOException, TTransportException {
+        String engine = prop.getProperty(prefix + "-server-engine", THREADPOOL);
+        if(SELECTOR.equals(engine))
+            return createSelector(prop, prefix, port, host, processor);
+        if(!THREADPOOL.equals(engine))
+            throw new IOException("Unknown " + prefix + "-server-engine: " + engine);
+        return createThreadPool(prop, prefix, port, host, processor);
+    }
+
+    private static TServer createThreadPool(Properties prop, String prefix, int port, String host, TProcessor processor)
+            throws IOException, TTransportException {
+        String keyStore = System.getProperty("jkserver_keystore");
+        if(null == keyStore || !new File(keyStore).exists()){
+            throw new IOException("Cannot find key store: " + keyStore);
+        }
+        int minThreads = Integer.parseInt(prop.getProperty(prefix + "-server-min-threads", "8"));
+        int maxConnections = Integer.parseInt(prop.getProperty(prefix + "-server-max-connections", "256"));
+        long admissionWait = 1000 * Long.parseLong(prop.getProperty(prefix + "-server-admission-wait", "10"));
+
+        TSSLTransportFactory.TSSLTransportParameters params = new TSSLTransportFactory.TSSLTransportParameters();
+        params.setKeyStore(keyStore,"kbasekeystore");
+        TServerTransport serverTransport = new AdmissionTransport(TSSLTransportFactory.getServerSocket(port,10000,
+                InetAddress.getByName(host),params), maxConnections, admissionWait);
+
+        /**admission keeps connections at or below the pool size, so the pool never has to reject**/
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.min(minThreads, maxConnections), maxConnections,
+                60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        log.info("Thread pool engine, " + maxConnections + " connections max");
+        return new TThreadPoolServer(new TThreadPoolServer.Args(serverTransport)
+                .processor(processor).executorService(pool));
+    }
+
+    private static TServer createSelector(Properties prop, String prefix, int port, String host, TProcessor processor)
+            throws IOException, TTransportException {
+        if(!Boolean.parseBoolean(prop.getProperty(prefix + "-server-tls-proxy", "false")))
+            throw new IOException("The selector engine does not encrypt, set " + prefix
+                    + "-server-tls-proxy=true once it is only reachable through an SSL terminating proxy");
+        int selectorThreads = Integer.parseInt(prop.getProperty(prefix + "-server-selector-threads", "2"));
+        int workerThreads = Integer.parseInt(prop.getProperty(prefix + "-server-worker-threads", "32"));
+        int workQueue = Integer.parseInt(prop.getProperty(prefix + "-server-work-queue", "1024"));
+        int acceptQueue = Integer.parseInt(prop.getProperty(prefix + "-server-accept-queue", "64"));
+        long maxReadBuffer = 1048576L * Long.parseLong(prop.getProperty(prefix + "-server-max-read-buffer", "512"));
+
+        /**a call that does not fit in the queue is refused and its connection closed by the server**/
+        ExecutorService workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(workQueue));
+
+        TThreadedSelectorServer.Args args = new TThreadedSelectorServer.Args(
+                new TNonblockingServerSocket(new InetSocketAddress(host, port), 10000))
+                .selectorThreads(selectorThreads)
+                .acceptQueueSizePerThread(acceptQueue)
+                .acceptPolicy(TThreadedSelectorServer.Args.AcceptPolicy.FAST_ACCEPT)
+                .executorService(workers);
+        args.processor(processor);
+        args.maxReadBufferBytes = maxReadBuffer;
+        log.info("Selector engine without SSL, behind an SSL terminating proxy");
+        log.info("Selector engine, " + selectorThreads + " selectors, " + workerThreads + " workers");
+        return new TThreadedSelectorServer(args);
+    }
+
+    /**
+     * Limits the number of open connections. Accepted connections hold a
+     * permit until they are closed
+     */
+    private static class AdmissionTransport extends TServerTransport {
+
+        private final TServerTransport delegate;
+        private final Semaphore permits;
+        private final long admissionWait;
+        private final AtomicLong rejected = new AtomicLong(0);
+
+        private AdmissionTransport(TServerTransport delegate, int maxConnections, long admissionWait){
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConnections);
+            this.admissionWait = admissionWait;
+        }
+
+        @Override
+        public void listen() throws TTransportException {
+            delegate.listen();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public void interrupt() {
+            delegate.interrupt();
+        }
+
+        @Override
+        protected TTransport acceptImpl() throws TTransportException {
+            while(true){
+                TTransport client = delegate.accept();
+                try{
+                    if(permits.tryAcquire(admissionWait, TimeUnit.MILLISECONDS))
+                        return new AdmittedTransport(client, permits);
+                }catch(InterruptedException e){
+                    client.close();
+                    throw new TTransportException(TTransportException.END_OF_FILE, "Interrupted accepting connection");
+                }
+                client.close();
+                log.warn("Connection limit reached, turned away " + rejected.incrementAndGet() + " connections");
+            }
+        }
+    }
+
+    /**
+     * Returns its permit on the first close
+     */
+    private static class AdmittedTransport extends TTransport {
+
+        private final TTransport delegate;
+        private final Semaphore permits;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private AdmittedTransport(TTransport delegate, Semaphore permits){
+            this.delegate = delegate;
+            this.permits = permits;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public boolean peek() {
+            return delegate.peek();
+        }
+
+        @Override
+        public void open() throws TTransportException {
+            delegate.open();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+            if(closed.compareAndSet(false, true))
+                permits.release();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws TTransportException {
+            return delegate.read(buf, off, len);
+        }
+
+        @Override
+        public int readAll(byte[] buf, int off, int len) throws TTransportException {
+            return delegate.readAll(buf, off, len);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws TTransportException {
+            delegate.write(buf, off, len);
+        }
+
+        @Override
+        public void flush() throws TTransportException {
+            delegate.flush();
+        }
+
+        @Override
+        public byte[] getBuffer() {
+            return delegate.getBuffer();
+        }
+
+        @Override
+        public int getBufferPosition() {
+            return delegate.getBufferPosition();
+        }
+
+        @Override
+        public int getBytesRemainingInBuffer() {
+            return delegate.getBytesRemainingInBuffer();
+        }
+
+        @Override
+        public void consumeBuffer(int len) {
+            delegate.consumeBuffer(len);
+        }
+    }
+}
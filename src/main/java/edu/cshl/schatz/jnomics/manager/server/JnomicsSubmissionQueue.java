@@ -0,0 +1,468 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobRecord;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftSubmission;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs job submissions off the thrift worker threads, admitting them fairly
+ * between users.
+ *
+ * A submit RPC validates its request, hands the actual submission (job
+ * client setup, jar staging, submitJob or the drmaa call) to this queue and
+ * returns a tracking id right away. The tracking id stays valid after the
+ * job has been submitted and resolves to the hadoop or grid job id. Finished
+ * submissions are forgotten after compute-submit-retention seconds, and
+ * the job registry resolves the tracking id of a submitted job from then on,
+ * since the tracking id is part of the job's configuration.
+ *
+ * Every job is weighted by the slots it is expected to use: its reducers,
+ * at least admission-hadoop-min-slots, for a hadoop job and grid-job-slots
+ * for a grid job. A job's slots count against its user and the cluster from
+ * the moment it is admitted until the job registry records its end. A job
+ * is admitted while its user stays within admission-user-slots and the
+ * cluster within admission-total-slots. A user or cluster running nothing
+ * always admits one job, however heavy it is. Waiting jobs are admitted in
+ * weighted-fair order: the next one comes from the user with the fewest
+ * slots in use, oldest first. A job that would exceed the cluster limit
+ * holds back the jobs behind it, so heavy jobs are not starved by light
+ * ones. Slot usage is kept in memory, so jobs submitted before a restart
+ * are not counted.
+ */
+public class JnomicsSubmissionQueue implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsSubmissionQueue.class);
+
+    public static final String ID_PREFIX = "submission_";
+    /**job configuration entry holding the submission's tracking id**/
+    public static final String TRACKING_ID_PARAM = "jnomics.tracking.id";
+
+    public static final String QUEUED = "QUEUED";
+    public static final String SUBMITTING = "SUBMITTING";
+    public static final String SUBMITTED = "SUBMITTED";
+    public static final String FAILED = "FAILED";
+
+    private static JnomicsSubmissionQueue instance;
+
+    private static class Submission {
+        private final String id;
+        private final String username;
+        private final String name;
+        private final int slots;
+        private final long queuedTime = System.currentTimeMillis();
+        //order of arrival, ties between jobs queued in the same millisecond are broken by it
+        private final long seq;
+        private volatile String state = QUEUED;
+        private volatile String jobId = "";
+        private volatile String error = "";
+        private volatile long submitTime = 0;
+        private volatile long finishTime = 0;
+        //place in the admission order while QUEUED, 1 is next, otherwise 0
+        private volatile int position = 0;
+        private Callable<String> task;
+
+        private Submission(long seq, String id, String username, String name, int slots, Callable<String> task){
+            this.seq = seq;
+            this.id = id;
+            this.username = username;
+            this.name = name;
+            this.slots = slots;
+            this.task = task;
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final int depth;
+    private final long retention;
+    private final long interval;
+    private final int userSlots;
+    private final int totalSlots;
+    private final int hadoopMinSlots;
+    private final int gridSlots;
+    private final JnomicsJobRegistry registry;
+    private final ConcurrentHashMap<String, Submission> submissions = new ConcurrentHashMap<String, Submission>();
+
+    //guarded by this: jobs waiting for admission by user, and slots in use by user and in total
+    private final Map<String, LinkedList<Submission>> waiting = new HashMap<String, LinkedList<Submission>>();
+    private int waitingCount = 0;
+    private final Map<String, Integer> usage = new HashMap<String, Integer>();
+    private int totalUsage = 0;
+    //admitted jobs holding slots until the registry records their end, keyed by job id
+    private final Map<String, Submission> running = new HashMap<String, Submission>();
+
+    private final AtomicLong nextSeq = new AtomicLong(0);
+    private final AtomicLong accepted = new AtomicLong(0);
+    private final AtomicLong submitted = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong totalWait = new AtomicLong(0);
+    private final AtomicLong maxWait = new AtomicLong(0);
+    private final AtomicLong totalLatency = new AtomicLong(0);
+    private final AtomicLong maxLatency = new AtomicLong(0);
+
+    public static synchronized JnomicsSubmissionQueue getInstance(Properties properties) throws IOException {
+        if(null == instance){
+            instance = new JnomicsSubmissionQueue(properties);
+            Thread t = new Thread(instance);
+            t.setDaemon(true);
+            t.start();
+        }
+        return instance;
+    }
+
+    JnomicsSubmissionQueue(Properties properties) throws IOException {
+        int threads = Integer.parseInt(properties.getProperty("compute-submit-threads", "4"));
+        depth = Integer.parseInt(properties.getProperty("compute-submit-queue", "256"));
+        retention = 1000 * Long.parseLong(properties.getProperty("compute-submit-retention", "86400"));
+        interval = 1000 * Long.parseLong(properties.getProperty("admission-interval", "5"));
+        userSlots = Integer.parseInt(properties.getProperty("admission-user-slots", "512"));
+        totalSlots = Integer.parseInt(properties.getProperty("admission-total-slots", "2048"));
+        hadoopMinSlots = Integer.parseInt(properties.getProperty("admission-hadoop-min-slots", "16"));
+        gridSlots = Integer.parseInt(properties.getProperty("grid-job-slots", "1"));
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        registry = JnomicsJobRegistry.getInstance(properties);
+    }
+
+    /**
+     * @return true if id was handed out by this queue rather than by hadoop or the grid
+     */
+    public static boolean isTrackingId(String id){
+        return null != id && id.startsWith(ID_PREFIX);
+    }
+
+    /**
+     * @return a new tracking id
+     */
+    public static String newTrackingId(){
+        //no dashes, scripts split the "Job id : <id> - <state>" status line on them
+        return ID_PREFIX + UUID.randomUUID().toString().replace("-", "");
+    }
+
+    /**
+     * @param grid true for a grid job, false for a hadoop job
+     * @return slots the job is expected to use
+     */
+    public int slots(Configuration conf, boolean grid){
+        if(grid)
+            return conf.getInt("grid-job-slots", gridSlots);
+        return Math.max(hadoopMinSlots, conf.getInt("mapred.reduce.tasks", 1));
+    }
+
+    /**
+     * Queues task, which submits the job and returns its hadoop or grid job id
+     * @param id tracking id from newTrackingId, set as the job's TRACKING_ID_PARAM
+     * @param name job name, for logging
+     * @param slots the job's weight, see slots(Configuration, boolean)
+     * @return tracking id of the submission
+     * @throws JnomicsThriftException if the queue is full
+     */
+    public String submit(String id, String username, String name, int slots, Callable<String> task)
+            throws JnomicsThriftException {
+        expire();
+        Submission submission = new Submission(nextSeq.getAndIncrement(), id, username, name, slots, task);
+        synchronized(this){
+            if(waitingCount >= depth){
+                rejected.incrementAndGet();
+                throw new JnomicsThriftException("Submission queue is full, try again later");
+            }
+            submissions.put(submission.id, submission);
+            LinkedList<Submission> queue = waiting.get(username);
+            if(null == queue){
+                queue = new LinkedList<Submission>();
+                waiting.put(username, queue);
+            }
+            queue.add(submission);
+            waitingCount++;
+            admit();
+        }
+        accepted.incrementAndGet();
+        log.info("Queued " + name + " (" + slots + " slots) for user " + username + " as " + submission.id);
+        return submission.id;
+    }
+
+    private int usage(String username){
+        Integer used = usage.get(username);
+        return null == used ? 0 : used;
+    }
+
+    private void charge(Submission s){
+        usage.put(s.username, usage(s.username) + s.slots);
+        totalUsage += s.slots;
+    }
+
+    private void release(Submission s){
+        int left = usage(s.username) - s.slots;
+        if(left > 0)
+            usage.put(s.username, left);
+        else
+            usage.remove(s.username);
+        totalUsage -= s.slots;
+    }
+
+    /**
+     * Orders users by slots in use, then by which user's oldest waiting job arrived first
+     */
+    private static class FairOrder implements Comparator<String> {
+        private final Map<String, Integer> used;
+        private final Map<String, Submission> heads;
+
+        private FairOrder(Map<String, Integer> used, Map<String, Submission> heads){
+            this.used = used;
+            this.heads = heads;
+        }
+
+        private int used(String username){
+            Integer u = used.get(username);
+            return null == u ? 0 : u;
+        }
+
+        @Override
+        public int compare(String a, String b) {
+            int ua = used(a), ub = used(b);
+            if(ua != ub)
+                return ua < ub ? -1 : 1;
+            long sa = heads.get(a).seq, sb = heads.get(b).seq;
+            return sa < sb ? -1 : (sa == sb ? 0 : 1);
+        }
+    }
+
+    /**
+     * Hands waiting jobs to the submission threads while the limits allow, then renumbers the rest
+     */
+    private void admit(){
+        while(waitingCount > 0){
+            Submission next = pick();
+            if(null == next)
+                break;
+            LinkedList<Submission> queue = waiting.get(next.username);
+            queue.removeFirst();
+            if(queue.isEmpty())
+                waiting.remove(next.username);
+            waitingCount--;
+            charge(next);
+            next.position = 0;
+            final Submission s = next;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runSubmission(s);
+                }
+            });
+        }
+        renumber();
+    }
+
+    /**
+     * @return the next job to admit, null if none may be admitted now
+     */
+    private Submission pick(){
+        Map<String, Submission> heads = new HashMap<String, Submission>();
+        for(Map.Entry<String, LinkedList<Submission>> e : waiting.entrySet()){
+            heads.put(e.getKey(), e.getValue().getFirst());
+        }
+        List<String> users = new ArrayList<String>(heads.keySet());
+        Collections.sort(users, new FairOrder(usage, heads));
+        for(String user : users){
+            Submission head = heads.get(user);
+            int used = usage(user);
+            if(used > 0 && used + head.slots > userSlots)
+                continue;
+            if(totalUsage > 0 && totalUsage + head.slots > totalSlots)
+                return null;
+            return head;
+        }
+        return null;
+    }
+
+    /**
+     * Numbers the waiting jobs in the order they would be admitted if the
+     * limits allowed, charging each job to its user as it is numbered
+     */
+    private void renumber(){
+        Map<String, Integer> used = new HashMap<String, Integer>(usage);
+        Map<String, Iterator<Submission>> queues = new HashMap<String, Iterator<Submission>>();
+        Map<String, Submission> heads = new HashMap<String, Submission>();
+        for(Map.Entry<String, LinkedList<Submission>> e : waiting.entrySet()){
+            Iterator<Submission> it = e.getValue().iterator();
+            queues.put(e.getKey(), it);
+            heads.put(e.getKey(), it.next());
+        }
+        FairOrder order = new FairOrder(used, heads);
+        int position = 1;
+        while(!heads.isEmpty()){
+            String first = Collections.min(heads.keySet(), order);
+            Submission s = heads.get(first);
+            s.position = position++;
+            used.put(first, order.used(first) + s.slots);
+            Iterator<Submission> it = queues.get(first);
+            if(it.hasNext())
+                heads.put(first, it.next());
+            else
+                heads.remove(first);
+        }
+    }
+
+    private void runSubmission(Submission submission){
+        submission.submitTime = System.currentTimeMillis();
+        submission.state = SUBMITTING;
+        long wait = submission.submitTime - submission.queuedTime;
+        totalWait.addAndGet(wait);
+        updateMax(maxWait, wait);
+        String state;
+        try{
+            String jobId = submission.task.call();
+            submission.jobId = null == jobId ? "" : jobId;
+            state = SUBMITTED;
+            submitted.incrementAndGet();
+        }catch(Exception e){
+            submission.error = e.toString();
+            state = FAILED;
+            failed.incrementAndGet();
+        }
+        submission.finishTime = System.currentTimeMillis();
+        long latency = submission.finishTime - submission.submitTime;
+        totalLatency.addAndGet(latency);
+        updateMax(maxLatency, latency);
+        if(SUBMITTED.equals(state))
+            log.info("Submitted " + submission.name + " as " + submission.jobId + " after waiting "
+                    + wait + "ms, submission took " + latency + "ms");
+        else
+            log.error("Failed to submit " + submission.name + ": " + submission.error);
+
+        synchronized(this){
+            submission.task = null;
+            if(SUBMITTED.equals(state) && !submission.jobId.isEmpty())
+                running.put(submission.jobId, submission);
+            else
+                release(submission);
+            //set with the slots accounted, so a job seen SUBMITTED is one releaseFinished can free
+            submission.state = state;
+            admit();
+        }
+    }
+
+    /**
+     * Frees the slots of jobs the job registry has seen finish
+     */
+    public synchronized void releaseFinished(){
+        boolean freed = false;
+        Iterator<Submission> it = running.values().iterator();
+        while(it.hasNext()){
+            Submission s = it.next();
+            JnomicsThriftJobRecord record = registry.get(s.jobId);
+            if(null == record || !JnomicsJobRegistry.SUBMITTED.equals(record.getState())){
+                it.remove();
+                release(s);
+                freed = true;
+            }
+        }
+        if(freed)
+            admit();
+    }
+
+    private static void updateMax(AtomicLong max, long value){
+        long cur;
+        while(value > (cur = max.get()) && !max.compareAndSet(cur, value)){
+        }
+    }
+
+    private void expire(){
+        long cutoff = System.currentTimeMillis() - retention;
+        Iterator<Submission> it = submissions.values().iterator();
+        while(it.hasNext()){
+            Submission s = it.next();
+            if(0 != s.finishTime && s.finishTime < cutoff)
+                it.remove();
+        }
+    }
+
+    private static JnomicsThriftSubmission toThrift(Submission s){
+        return new JnomicsThriftSubmission(s.id, s.username, s.state, s.jobId, s.error, s.queuedTime, s.submitTime,
+                s.slots, s.position);
+    }
+
+    /**
+     * Stops the submission threads once the jobs handed to them are submitted
+     */
+    void shutdown(){
+        pool.shutdown();
+    }
+
+    /**
+     * @return the submission, null if the id is unknown or has been forgotten
+     */
+    public JnomicsThriftSubmission get(String id){
+        Submission s = submissions.get(id);
+        return null == s ? null : toThrift(s);
+    }
+
+    /**
+     * @return the user's submissions that have no job id, because they are still queued or failed
+     */
+    public List<JnomicsThriftSubmission> getUnsubmitted(String username){
+        List<JnomicsThriftSubmission> list = new ArrayList<JnomicsThriftSubmission>();
+        for(Submission s : submissions.values()){
+            if(s.username.equals(username) && !SUBMITTED.equals(s.state))
+                list.add(toThrift(s));
+        }
+        return list;
+    }
+
+    /**
+     * @return queue depth, counts, slots in use and wait/submit times in milliseconds
+     */
+    public Map<String, Long> getMetrics(){
+        Map<String, Long> metrics = new HashMap<String, Long>();
+        long finished = submitted.get() + failed.get();
+        synchronized(this){
+            metrics.put("waiting", (long) waitingCount);
+            metrics.put("running", (long) running.size());
+            metrics.put("slots_in_use", (long) totalUsage);
+            metrics.put("users_running", (long) usage.size());
+        }
+        metrics.put("queue_depth", (long) pool.getQueue().size());
+        metrics.put("active", (long) pool.getActiveCount());
+        metrics.put("accepted", accepted.get());
+        metrics.put("submitted", submitted.get());
+        metrics.put("failed", failed.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("wait_ms_avg", 0 == finished ? 0 : totalWait.get() / finished);
+        metrics.put("wait_ms_max", maxWait.get());
+        metrics.put("submit_ms_avg", 0 == finished ? 0 : totalLatency.get() / finished);
+        metrics.put("submit_ms_max", maxLatency.get());
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        while(true){
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            releaseFinished();
+        }
+    }
+}
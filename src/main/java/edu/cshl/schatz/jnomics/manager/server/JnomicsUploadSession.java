@@ -0,0 +1,119 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State for a multipart upload. Parts are written as separate files
+ * in a temporary directory next to the destination and composed
+ * into the destination when the upload is completed.
+ *
+ * Each part file is named with its part number and CRC32, so the state of
+ * an interrupted upload can be rebuilt from the directory alone
+ */
+public class JnomicsUploadSession {
+
+    private static final String PART_PREFIX = "part-";
+
+    private FileSystem fileSystem;
+    private Path destination;
+    private Path partDir;
+
+    //key: part number, value: checksum of the stored part
+    private final Map<Integer,Long> parts = new HashMap<Integer, Long>();
+    //key: part number, value: length of the stored part
+    private final Map<Integer,Long> lengths = new HashMap<Integer, Long>();
+
+    public JnomicsUploadSession(FileSystem fs, Path destination, Path partDir){
+        this.fileSystem = fs;
+        this.destination = destination;
+        this.partDir = partDir;
+    }
+
+    public Path getPartPath(int partNo, long checksum){
+        return new Path(partDir, String.format(PART_PREFIX + "%08d-%08x", partNo, checksum));
+    }
+
+    /**
+     * @return path of the stored part, null if it has not been stored
+     */
+    public synchronized Path getPartPath(int partNo){
+        Long checksum = parts.get(partNo);
+        return null == checksum ? null : getPartPath(partNo, checksum);
+    }
+
+    /**
+     * Records a part found in the part directory
+     * @return false if name is not a part file
+     */
+    public boolean addPartFile(String name, long length){
+        if(!name.startsWith(PART_PREFIX))
+            return false;
+        String[] fields = name.substring(PART_PREFIX.length()).split("-");
+        if(2 != fields.length)
+            return false;
+        try{
+            addPart(Integer.parseInt(fields[0]), Long.parseLong(fields[1], 16), length);
+        }catch(NumberFormatException e){
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return checksum of the part this replaces, null if there was none
+     */
+    public synchronized Long addPart(int partNo, long checksum, long length){
+        lengths.put(partNo, length);
+        return parts.put(partNo, checksum);
+    }
+
+    /**
+     * @return true if every part from 0 to numParts-1 has been stored
+     */
+    public synchronized boolean hasParts(int numParts){
+        for(int i = 0; i < numParts; i++){
+            if(!parts.containsKey(i))
+                return false;
+        }
+        return true;
+    }
+
+    public synchronized int getPartCount(){
+        return parts.size();
+    }
+
+    /**
+     * @return part number to checksum of every stored part
+     */
+    public synchronized Map<Integer,Long> getParts(){
+        return new HashMap<Integer, Long>(parts);
+    }
+
+    /**
+     * @return bytes stored in parts 0, 1, 2... up to the first missing part
+     */
+    public synchronized long getCommittedLength(){
+        long committed = 0;
+        Long len;
+        for(int i = 0; null != (len = lengths.get(i)); i++){
+            committed += len;
+        }
+        return committed;
+    }
+
+    public FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    public Path getDestination() {
+        return destination;
+    }
+
+    public Path getPartDir() {
+        return partDir;
+    }
+}
@@ -0,0 +1,124 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Queues writes for an hdfs output stream and drains them on a background
+ * writer, so a write RPC returns once its data is queued instead of waiting
+ * on the hdfs pipeline. Errors from the background writer are reported by the
+ * next write or by close(), which waits for the queue to drain.
+ */
+public class JnomicsWriteBehindStream {
+
+    private static class Chunk {
+        private final byte[] data;
+        private final int length;
+
+        private Chunk(byte[] data, int length){
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private final FSDataOutputStream out;
+    private final BlockingQueue<Chunk> queue;
+    private final JnomicsBufferPool bufferPool;
+    private final Executor writers;
+
+    private boolean draining = false;
+    private volatile IOException error = null;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param out stream to write to
+     * @param queueDepth maximum number of chunks waiting to be written, writes block when it is reached
+     * @param bufferPool pool the queued chunks are copied into
+     * @param writers executor the background writer runs on
+     */
+    public JnomicsWriteBehindStream(FSDataOutputStream out, int queueDepth,
+                                    JnomicsBufferPool bufferPool, Executor writers){
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<Chunk>(queueDepth);
+        this.bufferPool = bufferPool;
+        this.writers = writers;
+    }
+
+    public void write(ByteBuffer data) throws IOException {
+        if(null != error)
+            throw error;
+        int len = data.remaining();
+        byte[] buf = bufferPool.take(len);
+        data.duplicate().get(buf, 0, len);
+        try {
+            queue.put(new Chunk(buf, len));
+        } catch (InterruptedException e) {
+            bufferPool.give(buf);
+            throw new IOException("Interrupted queueing write");
+        }
+        synchronized (this){
+            if(!draining){
+                draining = true;
+                writers.execute(drainTask);
+            }
+        }
+    }
+
+    private void drain(){
+        while(true){
+            Chunk chunk;
+            while(null != (chunk = queue.poll())){
+                if(null == error){
+                    try {
+                        out.write(chunk.data, 0, chunk.length);
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                bufferPool.give(chunk.data);
+            }
+            synchronized (this){
+                if(queue.isEmpty()){
+                    draining = false;
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for queued writes to reach hdfs and closes the stream
+     * @throws IOException the first error hit by the background writer, or from closing
+     */
+    public void close() throws IOException {
+        synchronized (this){
+            while(draining || !queue.isEmpty()){
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted waiting for writes to finish");
+                }
+            }
+        }
+        try{
+            out.close();
+        }catch(IOException e){
+            if(null == error)
+                error = e;
+        }
+        if(null != error)
+            throw error;
+    }
+}
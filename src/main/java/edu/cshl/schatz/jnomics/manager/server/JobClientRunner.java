@@ -4,51 +4,31 @@ import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.security.UserGroupInformation;
 
 import java.security.PrivilegedExceptionAction;
 import java.util.Properties;
 
 /**
  * User: james
+ *
+ * Runs jobClientTask as username with a JobClient borrowed from
+ * JnomicsJobClientCache, so repeated calls share the user's jobtracker proxy
  */
 public abstract class JobClientRunner<T> {
 
     public abstract T jobClientTask() throws Exception;
 
     private String username;
-    private Properties properties;
     private Configuration configuration;
+    private JnomicsJobClientCache cache;
+    private JnomicsJobClientCache.Client client;
     private JobConf jConf;
-    private JobClient jobClient;
 
     public JobClientRunner(String username, Configuration conf, Properties properties) throws JnomicsThriftException{
         this.username = username;
         this.configuration = conf;
-        this.properties = properties;
-        final String jobTracker = properties.getProperty("mapreduce-jobtracker-host");
-        final int jobTrackerPort = Integer.parseInt(properties.getProperty("mapreduce-jobtracker-port"));
-        configuration.set("mapred.job.tracker",jobTracker+":"+jobTrackerPort);
-        try {
-            jConf = UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<JobConf>() {
-                @Override
-                public JobConf run() throws Exception {
-                    return new JobConf(configuration);
-                }
-            });
-        }catch(Exception e){
-            throw new JnomicsThriftException(e.toString());
-        }
-        try{
-            jobClient = UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<JobClient>() {
-                @Override
-                public JobClient run() throws Exception {
-                    return new JobClient(jConf);
-                }
-            });
-        }catch(Exception e){
-            throw new JnomicsThriftException(e.toString());
-        }
+        cache = JnomicsJobClientCache.getInstance(properties);
+        configuration.set("mapred.job.tracker", cache.getJobTracker());
     }
 
     public JobConf getJobConf(){
@@ -56,19 +36,31 @@ public abstract class JobClientRunner<T> {
     }
 
     public JobClient getJobClient(){
-        return jobClient;
+        return client.getJobClient();
     }
 
     public T run() throws JnomicsThriftException{
         try{
-            return UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<T>() {
+            client = cache.borrow(username);
+        }catch(Exception e){
+            throw new JnomicsThriftException(e.toString());
+        }
+        boolean failed = true;
+        try{
+            T result = client.getUgi().doAs(new PrivilegedExceptionAction<T>() {
                 @Override
                 public T run() throws Exception{
+                    jConf = new JobConf(configuration);
                     return jobClientTask();
                 }
             });
+            failed = false;
+            return result;
         }catch(Exception e){
             throw new JnomicsThriftException(e.toString());
+        }finally{
+            cache.release(client, failed);
+            client = null;
         }
     }
 }
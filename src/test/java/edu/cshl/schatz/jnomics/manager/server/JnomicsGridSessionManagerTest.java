@@ -0,0 +1,171 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobRecord;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Properties;
+
+/**
+ * Runs jobs through the grid session manager with grid-drmaa=local, so the
+ * grid path is checked without SGE: a job that exits with 0 ends DONE, any
+ * other exit status FAILED, and either way the job registry records the
+ * end and the job's configuration file is removed. A grid job left
+ * unfinished in the registry by an earlier server is followed to its end
+ * from the exit status GridJobLauncher.sh left behind.
+ *
+ * Run by ant test.
+ */
+public class JnomicsGridSessionManagerTest {
+
+    private static final long TIMEOUT = 30000;
+
+    private static File tmp;
+    private static JnomicsJobRegistry registry;
+    private static JnomicsGridSessionManager gridSessions;
+
+    private static void check(boolean condition, String message){
+        if(!condition)
+            throw new AssertionError(message);
+    }
+
+    private static File script(String name, int exitStatus) throws IOException {
+        File script = new File(tmp, name);
+        FileWriter out = new FileWriter(script);
+        try{
+            out.write("#!/bin/sh\nexit " + exitStatus + "\n");
+        }finally{
+            out.close();
+        }
+        check(script.setExecutable(true), "Cannot make " + script + " executable");
+        return script;
+    }
+
+    /**
+     * Submits a job running script as the compute handler does and waits until the manager sees it finish
+     * @return the job's final state
+     */
+    private static String run(String jobName, File script) throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.set("grid-script-path", script.getPath());
+        String confPath = gridSessions.getConfPath(jobName);
+        OutputStream out = new FileOutputStream(confPath);
+        try{
+            conf.writeXml(out);
+        }finally{
+            out.close();
+        }
+        String jobId = gridSessions.submit(jobName, conf, confPath);
+        registry.recordSubmit(jobId, "alice", jobName, "test", JnomicsJobRegistry.GRID, new HashMap<String, String>());
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        String state;
+        while(!"DONE".equals(state = gridSessions.getState(jobId, "alice")) && !"FAILED".equals(state)){
+            check(System.currentTimeMillis() < deadline, jobName + " did not finish, " + state);
+            Thread.sleep(50);
+            gridSessions.poll();
+        }
+
+        JnomicsThriftJobRecord record = registry.get(jobId);
+        check(state.equals(record.getState()), "registry has " + record.getState() + " for a " + state + " job");
+        check(0 != record.getFinish_time(), "registry has no finish time for " + jobName);
+        check(!new File(confPath).exists(), confPath + " was not removed");
+        return state;
+    }
+
+    private static void testExitZeroIsDone() throws Exception {
+        String state = run("test-ok", script("ok.sh", 0));
+        check("DONE".equals(state), "exit status 0 should be DONE, is " + state);
+    }
+
+    private static void testNonZeroExitIsFailed() throws Exception {
+        String state = run("test-fail", script("fail.sh", 3));
+        check("FAILED".equals(state), "exit status 3 should be FAILED, is " + state);
+    }
+
+    private static void testUnknownJobIsRejected() throws Exception {
+        try{
+            gridSessions.getState("local.unknown", "alice");
+            check(false, "an unknown job was looked up");
+        }catch(JnomicsThriftException e){
+            //expected
+        }
+        String jobName = "test-owner";
+        Configuration conf = new Configuration(false);
+        conf.set("grid-script-path", script("owner.sh", 0).getPath());
+        String jobId = gridSessions.submit(jobName, conf, gridSessions.getConfPath(jobName));
+        registry.recordSubmit(jobId, "alice", jobName, "test", JnomicsJobRegistry.GRID, new HashMap<String, String>());
+        try{
+            gridSessions.getState(jobId, "bob");
+            check(false, "bob looked up alice's job");
+        }catch(JnomicsThriftException e){
+            //expected
+        }
+    }
+
+    /**
+     * Records a job as if an earlier server had submitted it, before the manager starts,
+     * with the exit status marker GridJobLauncher.sh writes
+     */
+    private static void recordEarlierJob(File confDir) throws Exception {
+        check(confDir.mkdirs(), "Cannot create " + confDir);
+        FileWriter out = new FileWriter(new File(confDir, "test-resumed.xml.exit"));
+        try{
+            out.write("0\n");
+        }finally{
+            out.close();
+        }
+        registry.recordSubmit("local.earlier", "alice", "test-resumed", "test", JnomicsJobRegistry.GRID,
+                new HashMap<String, String>());
+    }
+
+    private static void testEarlierJobFinishes() throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        JnomicsThriftJobRecord record;
+        while(0 == (record = registry.get("local.earlier")).getFinish_time()){
+            check(System.currentTimeMillis() < deadline, "job submitted before the restart did not finish");
+            Thread.sleep(50);
+            gridSessions.poll();
+        }
+        check("DONE".equals(record.getState()), "job submitted before the restart should be DONE, is "
+                + record.getState());
+    }
+
+    private static void delete(File f){
+        File[] children = f.listFiles();
+        if(null != children){
+            for(File child : children)
+                delete(child);
+        }
+        f.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        tmp = File.createTempFile("jnomics-grid", "");
+        if(!tmp.delete() || !tmp.mkdir())
+            throw new IOException("Cannot create " + tmp);
+        try{
+            Properties properties = new Properties();
+            properties.setProperty("grid-drmaa", "local");
+            properties.setProperty("grid-conf-dir", new File(tmp, "conf").getPath());
+            properties.setProperty("job-registry-dir", new File(tmp, "registry").getPath());
+            registry = JnomicsJobRegistry.getInstance(properties);
+            recordEarlierJob(new File(tmp, "conf"));
+            gridSessions = JnomicsGridSessionManager.getInstance(properties);
+
+            testExitZeroIsDone();
+            testNonZeroExitIsFailed();
+            testUnknownJobIsRejected();
+            testEarlierJobFinishes();
+            System.out.println("Grid session manager tests passed");
+        }finally{
+            delete(tmp);
+        }
+    }
+}
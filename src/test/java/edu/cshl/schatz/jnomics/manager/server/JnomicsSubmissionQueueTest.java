@@ -0,0 +1,185 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftSubmission;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the submission queue's admission: weighted-fair order, the user
+ * and cluster slot limits and the queue positions it reports.
+ *
+ * Run by ant test. Submitted jobs are recorded in a job registry in a
+ * temporary directory and hold their slots until the test records their end.
+ * Jobs are submitted on the queue's own threads, so a check that a job was
+ * submitted waits for it, up to TIMEOUT.
+ */
+public class JnomicsSubmissionQueueTest {
+
+    private static final long TIMEOUT = 30000;
+
+    private static final AtomicInteger nextJob = new AtomicInteger(1);
+
+    private static JnomicsJobRegistry registry;
+
+    //shut down at the end, their submission threads are not daemons
+    private static final List<JnomicsSubmissionQueue> queues = new ArrayList<JnomicsSubmissionQueue>();
+
+    private final JnomicsSubmissionQueue queue;
+
+    private JnomicsSubmissionQueueTest(int userSlots, int totalSlots) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("admission-user-slots", Integer.toString(userSlots));
+        properties.setProperty("admission-total-slots", Integer.toString(totalSlots));
+        queue = new JnomicsSubmissionQueue(properties);
+        queues.add(queue);
+    }
+
+    /**
+     * Queues a job that records itself in the registry and returns its job id
+     * @return tracking id
+     */
+    private String queue(final String username, int slots) throws Exception {
+        final String jobId = "job_test_" + nextJob.getAndIncrement();
+        return queue.submit(JnomicsSubmissionQueue.newTrackingId(), username, jobId, slots,
+                new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                registry.recordSubmit(jobId, username, jobId, "test", JnomicsJobRegistry.HADOOP,
+                        new HashMap<String, String>());
+                return jobId;
+            }
+        });
+    }
+
+    private JnomicsThriftSubmission get(String id){
+        return queue.get(id);
+    }
+
+    private String awaitSubmitted(String id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while(!JnomicsSubmissionQueue.SUBMITTED.equals(get(id).getState())){
+            check(System.currentTimeMillis() < deadline, id + " was not submitted, " + get(id).getState());
+            Thread.sleep(10);
+        }
+        return get(id).getJob_id();
+    }
+
+    private void finish(String id) throws InterruptedException {
+        registry.recordFinish(awaitSubmitted(id), "SUCCEEDED", "");
+        queue.releaseFinished();
+    }
+
+    private void checkQueued(String id, int position){
+        JnomicsThriftSubmission s = get(id);
+        check(JnomicsSubmissionQueue.QUEUED.equals(s.getState()), id + " should be queued, is " + s.getState());
+        check(position == s.getQueue_position(),
+                id + " should be at position " + position + ", is at " + s.getQueue_position());
+    }
+
+    private void checkAdmitted(String id) throws InterruptedException {
+        awaitSubmitted(id);
+        check(0 == get(id).getQueue_position(), id + " is admitted but has a queue position");
+    }
+
+    private static void check(boolean condition, String message){
+        if(!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * Users with fewer slots in use go first, and a user's own jobs keep their order
+     */
+    private static void testFairOrder() throws Exception {
+        JnomicsSubmissionQueueTest t = new JnomicsSubmissionQueueTest(10, 10);
+        String a1 = t.queue("alice", 10);
+        String a2 = t.queue("alice", 1);
+        String a3 = t.queue("alice", 1);
+        String b1 = t.queue("bob", 1);
+        t.checkAdmitted(a1);
+        t.checkQueued(b1, 1);
+        t.checkQueued(a2, 2);
+        t.checkQueued(a3, 3);
+
+        t.finish(a1);
+        t.checkAdmitted(b1);
+        t.checkAdmitted(a2);
+        t.checkAdmitted(a3);
+    }
+
+    /**
+     * A user at its limit waits without holding back other users
+     */
+    private static void testUserLimit() throws Exception {
+        JnomicsSubmissionQueueTest t = new JnomicsSubmissionQueueTest(4, 100);
+        String a1 = t.queue("alice", 3);
+        String a2 = t.queue("alice", 3);
+        String b1 = t.queue("bob", 3);
+        t.checkAdmitted(a1);
+        t.checkQueued(a2, 1);
+        t.checkAdmitted(b1);
+
+        t.finish(a1);
+        t.checkAdmitted(a2);
+    }
+
+    /**
+     * An idle cluster admits a job heavier than both limits
+     */
+    private static void testIdleAdmitsHeavyJob() throws Exception {
+        JnomicsSubmissionQueueTest t = new JnomicsSubmissionQueueTest(4, 10);
+        String a1 = t.queue("alice", 50);
+        String b1 = t.queue("bob", 1);
+        t.checkAdmitted(a1);
+        t.checkQueued(b1, 1);
+
+        t.finish(a1);
+        t.checkAdmitted(b1);
+    }
+
+    /**
+     * A job that does not fit in the cluster holds back the lighter jobs behind it
+     */
+    private static void testClusterLimitHoldsBack() throws Exception {
+        JnomicsSubmissionQueueTest t = new JnomicsSubmissionQueueTest(10, 10);
+        String a1 = t.queue("alice", 6);
+        String b1 = t.queue("bob", 8);
+        String c1 = t.queue("carol", 1);
+        t.checkAdmitted(a1);
+        t.checkQueued(b1, 1);
+        t.checkQueued(c1, 2);
+
+        t.finish(a1);
+        t.checkAdmitted(b1);
+        t.checkAdmitted(c1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = File.createTempFile("jnomics-registry", "");
+        if(!dir.delete() || !dir.mkdir())
+            throw new IOException("Cannot create " + dir);
+        try{
+            Properties properties = new Properties();
+            properties.setProperty("job-registry-dir", dir.toString());
+            registry = JnomicsJobRegistry.getInstance(properties);
+
+            testFairOrder();
+            testUserLimit();
+            testIdleAdmitsHeavyJob();
+            testClusterLimitHoldsBack();
+            System.out.println("Submission queue tests passed");
+        }finally{
+            for(JnomicsSubmissionQueue queue : queues)
+                queue.shutdown();
+            for(File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+}
@@ -26,6 +26,35 @@ struct JnomicsThriftHandle{
   string uuid; /**< hdfs filehandle uuid */
 };
 
+/**\class JnomicsThriftCodecHandle
+*\brief Handle to an open file in hdfs and the codec its data is sent with
+*/
+struct JnomicsThriftCodecHandle{
+  JnomicsThriftHandle handle; /**< hdfs filehandle */
+  string codec; /**< codec accepted by the server, empty for uncompressed */
+};
+
+/**\class JnomicsThriftUploadState
+*\brief Parts already stored for a multipart upload
+*/
+struct JnomicsThriftUploadState{
+  JnomicsThriftHandle upload;/**< handle to continue the upload with */
+  map<i32,i64> parts;/**< part number to CRC32 of each stored part */
+  i64 committed;/**< bytes stored without a gap from the start of the file */
+};
+
+/**\class JnomicsThriftFileChecksum
+*\brief Checksum of a file in hdfs
+* For hdfs this is the MD5 of the MD5s of each block, where a block's MD5 is taken over
+* the CRC32 of every bytes_per_crc bytes in it
+*/
+struct JnomicsThriftFileChecksum{
+  string algorithm;/**< algorithm name as reported by hdfs, empty if the filesystem has none */
+  i32 bytes_per_crc;/**< bytes covered by each CRC32 */
+  i64 crc_per_block;/**< CRC32s per block, 0 if the file has a single block */
+  string md5;/**< hex encoded checksum */
+};
+
 /**\class JnomicsThriftFileStatus
 *\brief File Status Container. Everything you need to know about files in hdfs
 */
@@ -41,6 +70,34 @@ struct JnomicsThriftFileStatus{
   i64 length;/**< size of file */
 };
 
+/**\class JnomicsThriftStatusPage
+*\brief One page of a directory listing
+*/
+struct JnomicsThriftStatusPage{
+  list<JnomicsThriftFileStatus> statuses;/**< status for each file/directory in this page */
+  string cursor;/**< pass to listStatusPage for the next page, empty when the listing is finished */
+};
+
+/**\class JnomicsThriftGenomeArchive
+*\brief One index archive of a reference genome
+*/
+struct JnomicsThriftGenomeArchive{
+  string kind;/**< tool the archive is for: bowtie, bwa, samtools or gatk */
+  string path;/**< path of the archive in hdfs */
+  i64 length;/**< size of the archive */
+  string checksum;/**< hdfs checksum of the archive, empty if not computed */
+  i64 mod_time;/**< last modification time */
+};
+
+/**\class JnomicsThriftGenomeInfo
+*\brief Reference genome container
+*/
+struct JnomicsThriftGenomeInfo{
+  string name;/**< organism name as passed to the compute functions */
+  list<JnomicsThriftGenomeArchive> archives;/**< index archives available for the genome */
+  map<string,i64> contigs;/**< contig lengths, empty if no .fa.fai was provided */
+};
+
 /**\class JnomicsThriftJobStatus 
 *\brief Container items related to a running Job's status
 */
@@ -54,6 +111,114 @@ struct JnomicsThriftJobStatus{
   string priority;/**< job's priority on the cluster */
   double mapProgress;/**< the progress in map tasks */
   double reduceProgres;/**< the progress in reduce tasks */
+  string job_name;/**< name the job was submitted with */
+  string state;/**< running state by name: PREP, RUNNING, SUCCEEDED, FAILED or KILLED for hadoop jobs, the grid's state for grid jobs, QUEUED or SUBMITTING for queued submissions */
+  i32 queue_position;/**< place in the admission order while QUEUED, 1 is next, otherwise 0 */
+};
+
+/**\class JnomicsThriftJobFilter
+*\brief Selects jobs for listJobs, unset fields match every job
+*/
+struct JnomicsThriftJobFilter{
+  string state;/**< RUNNING, SUCCEEDED, FAILED, PREP or KILLED */
+  i64 since;/**< only jobs started at or after this time */
+  string name_prefix;/**< only jobs whose name starts with this */
+};
+
+/**\class JnomicsThriftJobPage
+*\brief One page of a job listing
+*/
+struct JnomicsThriftJobPage{
+  list<JnomicsThriftJobStatus> jobs;/**< status of each job in this page, oldest first */
+  string cursor;/**< pass to listJobs for the next page, empty when the listing is finished */
+};
+
+/**\class JnomicsThriftJobRecord
+*\brief A job as recorded in the server's job registry
+*/
+struct JnomicsThriftJobRecord{
+  string job_id;/**< hadoop or grid job id */
+  string username;/**< user who submitted the job */
+  string name;/**< job name */
+  string type;/**< kind of job, e.g. bowtie2, tophat or cufflinks */
+  string backend;/**< hadoop or grid */
+  string state;/**< SUBMITTED until the job finishes, then its final state, e.g. SUCCEEDED, DONE or FAILED */
+  i64 submit_time;/**< time the job was submitted */
+  i64 finish_time;/**< time the job was seen to finish, 0 while it runs */
+  string failure_info;/**< why the job failed, otherwise empty */
+  map<string,string> params;/**< job configuration entries set for this job */
+};
+
+/**\class JnomicsThriftJobRecordPage
+*\brief One page of job records
+*/
+struct JnomicsThriftJobRecordPage{
+  list<JnomicsThriftJobRecord> records;/**< records in this page, oldest first */
+  string cursor;/**< pass to listJobRecords for the next page, empty when the listing is finished */
+};
+
+/**\class JnomicsThriftSubmission
+*\brief A job handed to the server's submission queue
+*/
+struct JnomicsThriftSubmission{
+  string tracking_id;/**< id returned by the submit call */
+  string username;/**< user who submitted the job */
+  string state;/**< QUEUED, SUBMITTING, SUBMITTED or FAILED */
+  string job_id;/**< hadoop or grid job id once SUBMITTED, otherwise empty */
+  string error;/**< why the submission FAILED, otherwise empty */
+  i64 queued_time;/**< time the job was queued */
+  i64 submit_time;/**< time submission started, 0 while QUEUED */
+  i32 slots;/**< slots the job is expected to use, its weight for admission */
+  i32 queue_position;/**< place in the admission order while QUEUED, 1 is next, otherwise 0 */
+};
+
+/**\class JnomicsThriftPipelineStage
+*\brief One stage of a pipeline
+*/
+struct JnomicsThriftPipelineStage{
+  string name;/**< stage name, e.g. align */
+  list<string> depends_on;/**< stages that must succeed before this one starts */
+  string state;/**< PENDING, RUNNING, SUCCEEDED, FAILED or SKIPPED when a stage it depends on did not succeed */
+  string job_id;/**< hadoop job run by the stage, empty for stages run on the server */
+  string error;/**< why the stage FAILED, otherwise empty */
+  i64 start_time;/**< time the stage started, 0 while PENDING */
+  i64 finish_time;/**< time the stage finished, 0 until it does */
+};
+
+/**\class JnomicsThriftPipelineStatus
+*\brief State of a pipeline started by e.g. runSNPPipeline
+*/
+struct JnomicsThriftPipelineStatus{
+  string pipeline_id;/**< id returned by the call that started the pipeline */
+  string username;/**< user who started the pipeline */
+  string type;/**< kind of pipeline, e.g. snp */
+  string state;/**< RUNNING, SUCCEEDED or FAILED */
+  string error;/**< why the pipeline could not be run, otherwise empty; see the stages for failed jobs */
+  i64 create_time;/**< time the pipeline was started */
+  i64 finish_time;/**< time the pipeline finished, 0 while it runs */
+  list<JnomicsThriftPipelineStage> stages;/**< the pipeline's stages */
+};
+
+/**\class JnomicsThriftRNASample
+*\brief One sample of an RNA-seq experiment
+*/
+struct JnomicsThriftRNASample{
+  string name;/**< sample name, letters, digits, '.', '_' and '-', unique in the experiment */
+  string condition;/**< condition label; samples with the same label are replicates */
+  string reads;/**< reads on hdfs as passed to tophat, the two files of a pair comma separated */
+};
+
+/**\class JnomicsThriftRNASeqExperiment
+*\brief Sample sheet and options for runRNASeqPipeline
+*/
+struct JnomicsThriftRNASeqExperiment{
+  list<JnomicsThriftRNASample> samples;/**< samples, covering at least two conditions */
+  string ref_genome;/**< reference genome to align to */
+  string gtf_file;/**< reference annotation on hdfs, empty for none */
+  string tophat_opts;/**< options passed to tophat, comma separated */
+  string cufflinks_opts;/**< options passed to cufflinks, comma separated */
+  string cuffmerge_opts;/**< options passed to cuffmerge, comma separated */
+  string cuffdiff_opts;/**< options passed to cuffdiff */
 };
 
 /**\class JnomicsThriftException
@@ -116,6 +281,74 @@ struct JnomicsCompute{
    * \exception JnomicsException containing error information for task
    */
   list<JnomicsThriftJobStatus> getAllJobs(Authentication auth) throws  JnomicsThriftException ;
+
+  /**\brief Wait for a hadoop or grid job to change
+   * Returns as soon as the job's state or progress differs from what the caller last saw,
+   * the job is complete, or the timeout expires. The server checks jobs every few seconds
+   * and caps the timeout and the number of calls waiting at once; past that cap the call
+   * returns the current status straight away. A server running the default threadpool
+   * engine holds a thread for each waiting call; only the selector engine, run behind an
+   * ssl terminating proxy, holds none
+   *\param jobID job id or tracking id
+   *\param lastKnownState state from the last status seen, empty to return the current status
+   *\param lastProgress (mapProgress + reduceProgress) / 2 from the last status seen
+   *\param timeoutMs longest time to wait in milliseconds
+   *\param auth Authentication container
+   *\return JnomicsThriftJobStatus status of the job when the call returns
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftJobStatus waitForJobChange(JnomicsThriftJobID jobID, string lastKnownState, double lastProgress, i64 timeoutMs, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Get the registry record of one of the current user's jobs
+   *\param jobID hadoop or grid job id
+   *\param auth Authentication container
+   *\return JnomicsThriftJobRecord the job's parameters, timing and final state
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftJobRecord getJobRecord(JnomicsThriftJobID jobID, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief List the current user's hadoop and grid jobs from the job registry a page at a time
+   *\param type only jobs of this type, empty for every type
+   *\param state only jobs in this state, empty for every state
+   *\param cursor empty for the first page, otherwise the cursor of the previous page
+   *\param limit most records to return in this page
+   *\param auth Authentication container
+   *\return JnomicsThriftJobRecordPage the next page of records and the cursor for the page after it
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftJobRecordPage listJobRecords(string type, string state, string cursor, i32 limit, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief List the current user's hadoop jobs a page at a time
+   * Served from the server's job status tracker, which polls the jobtracker every few seconds.
+   * Submissions that have not reached hadoop yet are not listed, see getAllJobs
+   *\param filter jobs to include
+   *\param cursor empty for the first page, otherwise the cursor of the previous page
+   *\param limit most jobs to return in this page
+   *\param auth Authentication container
+   *\return JnomicsThriftJobPage the next page of jobs and the cursor for the page after it
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftJobPage listJobs(JnomicsThriftJobFilter filter, string cursor, i32 limit, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Look up a queued job submission
+   * Submit calls queue the job and return a tracking id straight away. The tracking id can be
+   * passed to getJobStatus and getGridJobStatus like a job id; this call says how far the
+   * submission got and which job id it was given. Jobs wait QUEUED while their user or the
+   * cluster is using its share of slots, and are admitted fairly between users
+   *\param trackingID id returned by a submit call
+   *\param auth Authentication container
+   *\return JnomicsThriftSubmission state of the submission
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftSubmission getSubmission(JnomicsThriftJobID trackingID, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Get submission queue metrics
+   *\param auth Authentication container
+   *\return map<string,i64> waiting, running, slots_in_use, users_running, queue_depth, active,
+   * accepted, submitted, failed, rejected, wait_ms_avg, wait_ms_max, submit_ms_avg and submit_ms_max
+   *\exception JnomicsThriftException containing error information for task
+   */
+  map<string,i64> getSubmissionMetrics(Authentication auth) throws JnomicsThriftException;
         
 
   /**\brief merge vcf files 
@@ -126,6 +359,37 @@ struct JnomicsCompute{
    * \exception JnomicsException containing error information for task
    */
   bool mergeVCF(string inDir, string inAlignments, string outVCF, Authentication auth) throws  JnomicsThriftException;
+
+  /**\brief Run the SNP pipeline: load http inputs, align with bowtie2, call snps with samtools and merge the vcf
+   * The pipeline runs on the server and carries on if the server restarts
+   *\param inPath Input reads on hdfs, or comma separated http urls to load first
+   *\param organism Reference genome to align to
+   *\param outPath Output directory on hdfs, the merged vcf is written to outPath/out.vcf
+   *\param auth Authentication container
+   *\return JnomicsThriftJobID id of the pipeline, for getPipelineStatus, getJobStatus and waitForJobChange
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftJobID runSNPPipeline(string inPath, string organism, string outPath, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Run an RNA-seq experiment on the grid: tophat then cufflinks for every sample, then cuffmerge and cuffdiff
+   * Samples are aligned and assembled in parallel, cuffmerge starts once every sample has been assembled.
+   * Results go to outPath/<sample>_tophat, outPath/<sample>_cufflinks, outPath/cuffmerge and outPath/cuffdiff
+   *\param experiment samples with their condition labels, reference and tool options
+   *\param outPath Output directory on hdfs
+   *\param workingdir grid working directory, empty for the default
+   *\param auth Authentication container
+   *\return JnomicsThriftJobID id of the pipeline, for getPipelineStatus, getJobStatus and waitForJobChange
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftJobID runRNASeqPipeline(JnomicsThriftRNASeqExperiment experiment, string outPath, string workingdir, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Get the state of a pipeline and each of its stages
+   *\param pipelineID id returned by the call that started the pipeline
+   *\param auth Authentication container
+   *\return JnomicsThriftPipelineStatus state of the pipeline
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftPipelineStatus getPipelineStatus(JnomicsThriftJobID pipelineID, Authentication auth) throws JnomicsThriftException;
        
 };
 
@@ -152,6 +416,38 @@ struct JnomicsData{
    *\exception JnomicsThriftException containing error information for task
    */
   JnomicsThriftHandle open (string path, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Create file in hdfs, sending writes compressed
+   * Every write on the handle must be one chunk compressed with the accepted codec
+   *\param path Path to create in hdfs
+   *\param codec requested codec, "snappy" or empty
+   *\param auth Authentication value
+   *\returns JnomicsThriftCodecHandle handle to the file and the codec the server accepted
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftCodecHandle createWithCodec (string path, string codec, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Open file in hdfs, receiving reads compressed
+   * The server declines compression for files that are already compressed (gzip, bam, bzip2, ...).
+   * Every read and pread on the handle returns one chunk compressed with the accepted codec
+   *\param path Path to open in hdfs
+   *\param codec requested codec, "snappy" or empty
+   *\param auth Authentication value
+   *\returns JnomicsThriftCodecHandle handle to the file and the codec the server accepted
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftCodecHandle openWithCodec (string path, string codec, Authentication auth) throws JnomicsThriftException;
+  /**\brief Open the files of a directory for reading as one file
+   * Files are read in name order. Use read and close on the returned handle, pread is not supported
+   *\param path directory in hdfs, such as the output of a job, or a single file
+   *\param glob pattern of the files to merge, part-* if empty. Names starting with _ or . are always skipped
+   *\param header_prefix leading lines starting with this are dropped from every file but the first, empty to keep them
+   *\param codec codec to send the data with, empty for none
+   *\param auth Authentication container
+   *\return JnomicsThriftCodecHandle handle to the merged files and the codec the server will use
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftCodecHandle openMerged (string path, string glob, string header_prefix, string codec, Authentication auth) throws JnomicsThriftException;
   
   /**\brief Write data to file handle
    *\param handle a handle to the open file in hdfs
@@ -167,6 +463,17 @@ struct JnomicsData{
    *\exception JnomicsThriftException containing error information for task
    */
   binary read (JnomicsThriftHandle handle, Authentication auth) throws JnomicsThriftException;
+  /**\brief Read data from a fixed position in a file handle
+   * Does not move the handle's stream position, so several clients
+   * may read different ranges of the same handle at once
+   *\param handle a handle to the open file in hdfs
+   *\param offset position in the file to start reading from
+   *\param length maximum number of bytes to read (capped at 2MB)
+   *\param auth Authentication container
+   *\return binary data, empty when offset is past the end of the file
+   *\exception JnomicsThriftException containing error information for task
+   */
+  binary pread (JnomicsThriftHandle handle, i64 offset, i32 length, Authentication auth) throws JnomicsThriftException;
 
   /**\brief Close a file handle
    *\param handle a handle to the open file in hdfs
@@ -174,6 +481,53 @@ struct JnomicsData{
    *\exception JnomicsThriftException containing error information for task
    */
   void close(JnomicsThriftHandle handle, Authentication auth) throws  JnomicsThriftException;
+  /**\brief Start a multipart upload
+   *\param path destination path in hdfs
+   *\param auth Authentication container
+   *\returns JnomicsThriftHandle handle to the upload
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftHandle beginUpload (string path, Authentication auth) throws JnomicsThriftException;
+  /**\brief Upload one part of a multipart upload
+   * Parts may be sent in any order and over several connections
+   *\param upload handle returned by beginUpload
+   *\param partNo part number, starting at 0
+   *\param data contents of the part
+   *\param checksum CRC32 of data, verified by the server
+   *\param auth Authentication container
+   *\exception JnomicsThriftException containing error information for task
+   */
+  void uploadPart (JnomicsThriftHandle upload, i32 partNo, binary data, i64 checksum, Authentication auth) throws JnomicsThriftException;
+  /**\brief Compose the uploaded parts into the destination file
+   *\param upload handle returned by beginUpload
+   *\param numParts number of parts in the upload
+   *\param auth Authentication container
+   *\return success/failure
+   *\exception JnomicsThriftException containing error information for task
+   */
+  bool completeUpload (JnomicsThriftHandle upload, i32 numParts, Authentication auth) throws JnomicsThriftException;
+  /**\brief Discard a multipart upload and its parts
+   *\param upload handle returned by beginUpload
+   *\param auth Authentication container
+   *\exception JnomicsThriftException containing error information for task
+   */
+  void abortUpload (JnomicsThriftHandle upload, Authentication auth) throws JnomicsThriftException;
+  /**\brief Continue an interrupted multipart upload
+   * Picks up the most recent unfinished upload to path, or begins a new one if there is none.
+   * Parts are kept when an upload is interrupted or expires, until data-upload-retention runs out
+   *\param path destination path in hdfs
+   *\param auth Authentication container
+   *\return JnomicsThriftUploadState handle and the parts already stored
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftUploadState resumeUpload (string path, Authentication auth) throws JnomicsThriftException;
+  /**\brief Get the hdfs checksum of a file, to verify a transfer against
+   *\param path the path in hdfs
+   *\param auth Authentication container
+   *\return JnomicsThriftFileChecksum checksum of the file
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftFileChecksum getFileChecksum (string path, Authentication auth) throws JnomicsThriftException;
 
   /**\brief List the status for files in hdfs
    *\param path the path in hdfs to return information about
@@ -183,6 +537,20 @@ struct JnomicsData{
    */
   list<JnomicsThriftFileStatus> listStatus(string path, Authentication auth) throws JnomicsThriftException;
 
+  /**\brief List the status for files in hdfs one page at a time
+   * The listing is held on the server between pages and expires if it is not continued.
+   * Only the user who started a listing can continue it. Each directory is still read
+   * whole by the server, so a very large directory costs server memory while it is paged
+   *\param path the path in hdfs to return information about
+   *\param cursor empty to start a listing, otherwise the cursor from the previous page
+   *\param limit most entries to return in this page
+   *\param recursive include the contents of subdirectories
+   *\param auth Authentication container
+   *\return JnomicsThriftStatusPage the next page of statuses and the cursor for the page after it
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftStatusPage listStatusPage(string path, string cursor, i32 limit, bool recursive, Authentication auth) throws JnomicsThriftException;
+
   /**\brief Remove path on hdfs
    *\param path the path in hdfs
    *\param recursive Remove recursively?
@@ -215,5 +583,65 @@ struct JnomicsData{
    *\exception JnomicsThriftException containing error information for task
    */
   list<string> listGenomes(Authentication auth) throws JnomicsThriftException;
+
+  /**\brief List genomes and the index archives each one has
+   *\param auth Authentication container
+   *\return list of genomes, contigs are left out, see getGenomeInfo
+   *\exception JnomicsThriftException containing error information for task
+   */
+  list<JnomicsThriftGenomeInfo> listGenomeInfo(Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Details of one genome, including contig lengths where available
+   *\param name the genome's name
+   *\param auth Authentication container
+   *\return JnomicsThriftGenomeInfo for the genome
+   *\exception JnomicsThriftException if the genome does not exist
+   */
+  JnomicsThriftGenomeInfo getGenomeInfo(string name, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Status of several paths in one call
+   *\param paths the paths in hdfs
+   *\param auth Authentication container
+   *\return map of path to its status, paths that do not exist are left out
+   *\exception JnomicsThriftException containing error information for task
+   */
+  map<string,JnomicsThriftFileStatus> statMany(list<string> paths, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Check whether several paths exist in one call
+   *\param paths the paths in hdfs
+   *\param auth Authentication container
+   *\return list of exists/does not exist, in the order of paths
+   *\exception JnomicsThriftException containing error information for task
+   */
+  list<bool> existsMany(list<string> paths, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Remove several paths in one call
+   * Paths are removed one after the other, in order. A path that cannot be
+   * removed is reported as failed, the rest are still removed
+   *\param paths the paths in hdfs
+   *\param recursive Remove recursively?
+   *\param auth Authentication container
+   *\return list of success/failure, in the order of paths
+   *\exception JnomicsThriftException containing error information for task
+   */
+  list<bool> removeMany(list<string> paths, bool recursive, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Make several directories in one call
+   *\param paths the paths in hdfs
+   *\param auth Authentication container
+   *\return list of success/failure, in the order of paths
+   *\exception JnomicsThriftException containing error information for task
+   */
+  list<bool> mkdirMany(list<string> paths, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Move several files/directories in one call
+   * Moves are made one after the other, in order, so a path may be moved to where an earlier one was
+   *\param paths the paths in hdfs
+   *\param dests destination for each path, must be the same length as paths
+   *\param auth Authentication container
+   *\return list of success/failure, in the order of paths
+   *\exception JnomicsThriftException containing error information for task
+   */
+  list<bool> mvMany(list<string> paths, list<string> dests, Authentication auth) throws JnomicsThriftException;
 };
 
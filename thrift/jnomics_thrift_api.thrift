@@ -16,6 +16,24 @@ struct JnomicsThriftHandle{
        1: string uuid
 }
 
+struct JnomicsThriftCodecHandle{
+       1: JnomicsThriftHandle handle,
+       2: string codec
+}
+
+struct JnomicsThriftUploadState{
+       1: JnomicsThriftHandle upload,
+       2: map<i32,i64> parts,
+       3: i64 committed
+}
+
+struct JnomicsThriftFileChecksum{
+       1: string algorithm,
+       2: i32 bytes_per_crc,
+       3: i64 crc_per_block,
+       4: string md5
+}
+
 struct JnomicsThriftFileStatus{
        1: bool isDir,
        2: string path,
@@ -28,6 +46,25 @@ struct JnomicsThriftFileStatus{
        9: i64 length
 }
 
+struct JnomicsThriftStatusPage{
+       1: list<JnomicsThriftFileStatus> statuses,
+       2: string cursor
+}
+
+struct JnomicsThriftGenomeArchive{
+       1: string kind,
+       2: string path,
+       3: i64 length,
+       4: string checksum,
+       5: i64 mod_time
+}
+
+struct JnomicsThriftGenomeInfo{
+       1: string name,
+       2: list<JnomicsThriftGenomeArchive> archives,
+       3: map<string,i64> contigs
+}
+
 struct JnomicsThriftJobStatus{
        1: string job_id,
        2: string username,
@@ -37,9 +74,89 @@ struct JnomicsThriftJobStatus{
        6: i64 start_time,
        7: string priority,       
        8: double mapProgress,
-       9: double reduceProgress
+       9: double reduceProgress,
+       10: string job_name,
+       11: string state,
+       12: i32 queue_position
+}
+
+struct JnomicsThriftJobFilter{
+       1: string state,
+       2: i64 since,
+       3: string name_prefix
+}
+
+struct JnomicsThriftJobPage{
+       1: list<JnomicsThriftJobStatus> jobs,
+       2: string cursor
+}
+
+struct JnomicsThriftJobRecord{
+       1: string job_id,
+       2: string username,
+       3: string name,
+       4: string type,
+       5: string backend,
+       6: string state,
+       7: i64 submit_time,
+       8: i64 finish_time,
+       9: string failure_info,
+       10: map<string,string> params
+}
+
+struct JnomicsThriftJobRecordPage{
+       1: list<JnomicsThriftJobRecord> records,
+       2: string cursor
+}
+
+struct JnomicsThriftSubmission{
+       1: string tracking_id,
+       2: string username,
+       3: string state,
+       4: string job_id,
+       5: string error,
+       6: i64 queued_time,
+       7: i64 submit_time,
+       8: i32 slots,
+       9: i32 queue_position
+}
+
+struct JnomicsThriftPipelineStage{
+       1: string name,
+       2: list<string> depends_on,
+       3: string state,
+       4: string job_id,
+       5: string error,
+       6: i64 start_time,
+       7: i64 finish_time
 }
 
+struct JnomicsThriftPipelineStatus{
+       1: string pipeline_id,
+       2: string username,
+       3: string type,
+       4: string state,
+       5: string error,
+       6: i64 create_time,
+       7: i64 finish_time,
+       8: list<JnomicsThriftPipelineStage> stages
+}
+
+struct JnomicsThriftRNASample{
+       1: string name,
+       2: string condition,
+       3: string reads
+}
+
+struct JnomicsThriftRNASeqExperiment{
+       1: list<JnomicsThriftRNASample> samples,
+       2: string ref_genome,
+       3: string gtf_file,
+       4: string tophat_opts,
+       5: string cufflinks_opts,
+       6: string cuffmerge_opts,
+       7: string cuffdiff_opts
+}
 
 exception JnomicsThriftException{
        1: string msg
@@ -79,6 +196,13 @@ service JnomicsCompute{
 		string getGridJobStatus(1: JnomicsThriftJobID jobID, 2: Authentication auth) throws (1: JnomicsThriftException je) ,
 	
 	list<JnomicsThriftJobStatus> getAllJobs(1: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftJobStatus waitForJobChange(1: JnomicsThriftJobID jobID, 2: string lastKnownState, 3: double lastProgress, 4: i64 timeoutMs, 5: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftJobRecord getJobRecord(1: JnomicsThriftJobID jobID, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftJobRecordPage listJobRecords(1: string type, 2: string state, 3: string cursor, 4: i32 limit, 5: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftJobPage listJobs(1: JnomicsThriftJobFilter filter, 2: string cursor, 3: i32 limit, 4: Authentication auth) throws (1: JnomicsThriftException je),
+
+        JnomicsThriftSubmission getSubmission(1: JnomicsThriftJobID trackingID, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        map<string,i64> getSubmissionMetrics(1: Authentication auth) throws (1: JnomicsThriftException je),
         
 
         bool mergeVCF(1: string inDir, 2: string inAlignments, 3: string outVCF, 4: Authentication auth) throws (1: JnomicsThriftException je),
@@ -88,7 +212,9 @@ service JnomicsCompute{
         JnomicsThriftJobID gatkCallVariants (1: string inPath, 2: string organism, 3: string outPath, 4: Authentication auth) throws (1:JnomicsThriftException je),
         JnomicsThriftJobID gatkCountCovariates (1: string inPath, 2: string organism, 3: string vcfMask, 4: string outPath, 5: Authentication auth) throws (1:JnomicsThriftException je),
         JnomicsThriftJobID gatkRecalibrate (1: string inPath, 2: string organism, 3: string recalFile, 4: string outPath, 5: Authentication auth) throws (1: JnomicsThriftException je),
-        JnomicsThriftJobID runSNPPipeline(1: string inPath, 2: string organism, 3: string outPath, 4: Authentication auth) throws (1: JnomicsThriftException je)
+        JnomicsThriftJobID runSNPPipeline(1: string inPath, 2: string organism, 3: string outPath, 4: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftJobID runRNASeqPipeline(1: JnomicsThriftRNASeqExperiment experiment, 2: string outPath, 3: string workingdir, 4: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftPipelineStatus getPipelineStatus(1: JnomicsThriftJobID pipelineID, 2: Authentication auth) throws (1: JnomicsThriftException je)
 
         JnomicsThriftJobID pairReads(1: string file1, 2: string file2, 3: string outFile, 4: Authentication auth) throws (1: JnomicsThriftException je),
         JnomicsThriftJobID singleReads(1: string file, 2: string outFile, 3: Authentication auth) throws (1: JnomicsThriftException je),
@@ -99,16 +225,34 @@ service JnomicsCompute{
 service JnomicsData{	
         JnomicsThriftHandle create (1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
         JnomicsThriftHandle open (1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftCodecHandle createWithCodec (1: string path, 2: string codec, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftCodecHandle openWithCodec (1: string path, 2: string codec, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftCodecHandle openMerged (1: string path, 2: string glob, 3: string header_prefix, 4: string codec, 5: Authentication auth) throws (1: JnomicsThriftException je),
         void write (1: JnomicsThriftHandle handle, 2: binary data, 3:Authentication auth) throws (1: JnomicsThriftException je),
         binary read (1: JnomicsThriftHandle handle, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        binary pread (1: JnomicsThriftHandle handle, 2: i64 offset, 3: i32 length, 4: Authentication auth) throws (1: JnomicsThriftException je),
         void close(1: JnomicsThriftHandle handle, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftHandle beginUpload (1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        void uploadPart (1: JnomicsThriftHandle upload, 2: i32 partNo, 3: binary data, 4: i64 checksum, 5: Authentication auth) throws (1: JnomicsThriftException je),
+        bool completeUpload (1: JnomicsThriftHandle upload, 2: i32 numParts, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        void abortUpload (1: JnomicsThriftHandle upload, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftUploadState resumeUpload (1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftFileChecksum getFileChecksum (1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
         list<JnomicsThriftFileStatus> listStatus(1: string path, 2:Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftStatusPage listStatusPage(1: string path, 2: string cursor, 3: i32 limit, 4: bool recursive, 5: Authentication auth) throws (1: JnomicsThriftException je),
         bool checkFileStatus(1: string path, 2:Authentication auth) throws (1: JnomicsThriftException je),
 		list<string> listShockStatus(1: string path, 2:Authentication auth) throws (1: JnomicsThriftException je),
         bool remove(1: string path, 2: bool recursive, 3: Authentication auth) throws (1: JnomicsThriftException je),
         bool mkdir(1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
         bool mv(1: string path, 2: string dest, 3:Authentication auth) throws (1: JnomicsThriftException je),
-        list<string> listGenomes(1:Authentication auth) throws (1: JnomicsThriftException je)
+        list<string> listGenomes(1:Authentication auth) throws (1: JnomicsThriftException je),
+        list<JnomicsThriftGenomeInfo> listGenomeInfo(1:Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftGenomeInfo getGenomeInfo(1: string name, 2:Authentication auth) throws (1: JnomicsThriftException je),
+        map<string,JnomicsThriftFileStatus> statMany(1: list<string> paths, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        list<bool> existsMany(1: list<string> paths, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        list<bool> removeMany(1: list<string> paths, 2: bool recursive, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        list<bool> mkdirMany(1: list<string> paths, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        list<bool> mvMany(1: list<string> paths, 2: list<string> dests, 3: Authentication auth) throws (1: JnomicsThriftException je)
 
 }
 